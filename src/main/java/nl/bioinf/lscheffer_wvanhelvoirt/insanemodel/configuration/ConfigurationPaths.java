@@ -33,22 +33,33 @@ public final class ConfigurationPaths {
     static final private String PROGRAMROOT = String.join(System.getProperty("file.separator"), INSANEFOLDER, "");
     /**
      * This is the absolute path to the folder where output files will be stored, INSIDE your project.
-     * If you change this path, you also have to change the path WEBOUTFILE so the absolute and relative paths match.
+     * The output files are only served by the DownloadServlet and the TileServlet, by job id and file name.
+     * web.xml denies direct access to this folder, if you change this path, you also have to change web.xml.
      */
     static final private String OUTFILE = String.join(
             System.getProperty("file.separator"), INSANEFOLDER, "userOutputFiles", "");
     /**
-     * This is the relative path to the folder where output files will be stored.
-     * It is relative from your project root. If you change this path, you also have to change OUTFILE.
+     * This is the relative path to the DownloadServlet, which serves the output files with cache validators and
+     * byte ranges. It is relative from your project root, and has to match the url pattern of the DownloadServlet.
      */
-    static final private String WEBOUTFILE = String.join(System.getProperty("file.separator"),
-            "insane", "userOutputFiles", "");
+    static final private String WEBDOWNLOAD = "download/";
+    /**
+     * This is the relative path to the TileServlet, which serves regions of large output files to the viewer.
+     * It is relative from your project root, and has to match the url pattern of the TileServlet.
+     */
+    static final private String WEBTILES = "tiles/";
     /**
      * This is the absolute path to the folder where input files will be stored, OUTSIDE your project.
      * You can change this path to anything you like, as long as the path exists and is not inside your project folder.
      */
     static final private String INFILE = String.join(System.getProperty("file.separator"),
             System.getProperty("user.home"), "insanemodelfiles", "userInputFiles", "");
+    /**
+     * This is the absolute path to the folder where the result cache is stored, OUTSIDE your project.
+     * You can change this path to anything you like, as long as it is not inside your project folder.
+     */
+    static final private String CACHE = String.join(System.getProperty("file.separator"),
+            System.getProperty("user.home"), "insanemodelfiles", "resultCache", "");
 
     private ConfigurationPaths () {}
 
@@ -90,6 +101,24 @@ public final class ConfigurationPaths {
         return ConfigurationPaths.PROGRAMROOT + "martinate.sh";
     }
     
+    /**
+     * Get the path to run_stage.sh, the script that starts every simulation process with its limits.
+     *
+     * @return path to run_stage.sh
+     */
+    public static String getPathToStageRunner() {
+        return ConfigurationPaths.PROGRAMROOT + "run_stage.sh";
+    }
+
+    /**
+     * Get the path to worker.py, the long-lived Python worker running insane.py or martinize.py.
+     *
+     * @return path to worker.py
+     */
+    public static String getPathToWorker() {
+        return ConfigurationPaths.PROGRAMROOT + "worker.py";
+    }
+
     /**
      * Get the absolute input file path, given the name of the file.
      *
@@ -109,6 +138,15 @@ public final class ConfigurationPaths {
         return ConfigurationPaths.INFILE;
     }
 
+    /**
+     * Get the absolute path to the folder where the result cache is stored.
+     *
+     * @return absolute path to the result cache folder
+     */
+    public static String getAbsoluteCachePath() {
+        return ConfigurationPaths.CACHE;
+    }
+
     /**
      * Get the absolute output file path, given the name of the file.
      *
@@ -129,21 +167,23 @@ public final class ConfigurationPaths {
     }
 
     /**
-     * Get the relative output file path, given the name of the file.
+     * Get the relative path to download an output file of a job from the DownloadServlet.
      *
-     * @param outFile name of the output file
-     * @return relative path to given file
+     * @param jobId    the id of the job
+     * @param fileName the name of the output file
+     * @return relative download path to the given file
      */
-    public static String getWebOutFilePath(String outFile) {
-        return ConfigurationPaths.WEBOUTFILE + outFile;
+    public static String getWebDownloadPath(String jobId, String fileName) {
+        return ConfigurationPaths.WEBDOWNLOAD + jobId + "/" + fileName;
     }
 
     /**
-     * Get the relative output file path folder.
+     * Get the relative path to the tiles of a job, served by the TileServlet.
      *
-     * @return relative path the folder where output files are stored
+     * @param jobId the id of the job
+     * @return      relative path to the tiles of the job
      */
-    public static String getWebOutFilePath() {
-        return ConfigurationPaths.WEBOUTFILE;
+    public static String getWebTilesPath(String jobId) {
+        return ConfigurationPaths.WEBTILES + jobId;
     }
 }
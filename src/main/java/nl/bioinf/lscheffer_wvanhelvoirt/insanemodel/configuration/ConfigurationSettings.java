@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration;
+
+/**
+ * This class stores all settings that determine how many resources the web application may use.
+ * Every setting has a default value that can be overridden by starting the server with a system property, for
+ * instance: -Dinsanemodel.workers=4. The name of the system property is given in the description of each setting.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public final class ConfigurationSettings {
+    /**
+     * The amount of simulations (insane, martinize or martinate processes) that may run at the same time.
+     * Defaults to the amount of available processors. System property: insanemodel.workers
+     */
+    static final private int WORKER_THREADS = Integer.getInteger("insanemodel.workers",
+            Runtime.getRuntime().availableProcessors());
+    /**
+     * The amount of simulations that may wait for a free worker. When this queue is full, new requests are rejected
+     * with '503 Service Unavailable'. System property: insanemodel.queue
+     */
+    static final private int QUEUE_CAPACITY = Integer.getInteger("insanemodel.queue", 4 * WORKER_THREADS);
+    /**
+     * The expected duration of one simulation in milliseconds, used to estimate the 'Retry-After' header until
+     * enough simulations have finished to measure it. System property: insanemodel.expectedJobMillis
+     */
+    static final private int EXPECTED_JOB_MILLIS = Integer.getInteger("insanemodel.expectedJobMillis", 15000);
+    /**
+     * The amount of minutes a finished job is kept before it is removed. The output files of a successful job are
+     * kept longer, by the OutputStore. System property: insanemodel.jobRetentionMinutes
+     */
+    static final private int JOB_RETENTION_MINUTES = Integer.getInteger("insanemodel.jobRetentionMinutes", 30);
+    /**
+     * The maximum amount of seconds a client may wait for a job status change in one long-polling request.
+     * System property: insanemodel.maxPollSeconds
+     */
+    static final private int MAX_POLL_SECONDS = Integer.getInteger("insanemodel.maxPollSeconds", 60);
+    /**
+     * The amount of bytes kept of the stdout and of the stderr output of every simulation process. Older output is
+     * overwritten, so a process writing a lot of output does not use more memory. System property:
+     * insanemodel.outputBufferBytes
+     */
+    static final private int OUTPUT_BUFFER_BYTES = Integer.getInteger("insanemodel.outputBufferBytes", 64 * 1024);
+    /**
+     * The engine running insane.py and martinize.py: 'process' starts a new Python process for every run, 'worker'
+     * runs them on a pool of long-lived Python workers that have already compiled the scripts, 'jython' runs
+     * insane.py inside the JVM on a pool of Jython interpreters (only when built with the Maven profile 'jython') and
+     * martinize.py on the Python workers. martinate.sh always runs as a new process. Only 'process' limits the CPU
+     * time of every run (ulimit -t), a worker serves many runs so its CPU time can not be limited per run; the other
+     * engines only have the wall-clock timeout. System property: insanemodel.engine
+     */
+    static final private String ENGINE = System.getProperty("insanemodel.engine", "process");
+    /**
+     * The amount of runs after which a Python worker or Jython interpreter is replaced by a fresh one. System property:
+     * insanemodel.workerMaxJobs
+     */
+    static final private int WORKER_MAX_JOBS = Integer.getInteger("insanemodel.workerMaxJobs", 100);
+    /**
+     * The peak memory use in megabytes after which a Python worker is replaced by a fresh one. System property:
+     * insanemodel.workerMaxRssMb
+     */
+    static final private int WORKER_MAX_RSS_MB = Integer.getInteger("insanemodel.workerMaxRssMb", 1024);
+    /**
+     * Whether the output of simulations is stored in the result cache and reused for the same request. System
+     * property: insanemodel.resultCache
+     */
+    static final private boolean RESULT_CACHE = Boolean.parseBoolean(
+            System.getProperty("insanemodel.resultCache", "true"));
+    /**
+     * The maximum amount of megabytes the entries of the result cache may use together. The least recently used
+     * entry is deleted first. System property: insanemodel.resultCacheMb
+     */
+    static final private int RESULT_CACHE_MB = Integer.getInteger("insanemodel.resultCacheMb", 1024);
+    /**
+     * The seed for the random number generator of insane when the user gives none, or null to draw a new seed for
+     * every run. Only simulations with a fixed seed give the same output for the same settings, so only those are
+     * served from the result cache. System property: insanemodel.defaultSeed
+     */
+    static final private Integer DEFAULT_SEED = Integer.getInteger("insanemodel.defaultSeed");
+    /**
+     * Whether the simulations of the default settings and the featured presets in options.json are run when the web
+     * application starts, to fill the result cache. System property: insanemodel.warmUp
+     */
+    static final private boolean WARM_UP = Boolean.parseBoolean(System.getProperty("insanemodel.warmUp", "true"));
+    /**
+     * The maximum amount of megabytes the output files of finished jobs may use together. The least recently used
+     * output is deleted first. System property: insanemodel.outputStoreMb
+     */
+    static final private int OUTPUT_STORE_MB = Integer.getInteger("insanemodel.outputStoreMb", 2048);
+    /**
+     * The amount of hours the output files of a finished job are kept after they were last used. System property:
+     * insanemodel.outputTtlHours
+     */
+    static final private int OUTPUT_TTL_HOURS = Integer.getInteger("insanemodel.outputTtlHours", 24);
+    /**
+     * The minimum amount of megabytes that has to stay free on the volume of the output files. Older output and
+     * result cache entries are deleted to keep it free, and no new jobs are accepted when that is not enough. System
+     * property: insanemodel.minFreeDiskMb
+     */
+    static final private int MIN_FREE_DISK_MB = Integer.getInteger("insanemodel.minFreeDiskMb", 512);
+    /**
+     * The maximum amount of files and folders the background sweeper deletes in one batch. System property:
+     * insanemodel.sweepBatchSize
+     */
+    static final private int SWEEP_BATCH_SIZE = Integer.getInteger("insanemodel.sweepBatchSize", 50);
+    /**
+     * The pause in milliseconds of the background sweeper after every batch of deletes. System property:
+     * insanemodel.sweepPauseMillis
+     */
+    static final private int SWEEP_PAUSE_MILLIS = Integer.getInteger("insanemodel.sweepPauseMillis", 1000);
+    /**
+     * The amount of threads compressing large output files, in blocks on all cores. System property:
+     * insanemodel.compressThreads
+     */
+    static final private int COMPRESS_THREADS = Integer.getInteger("insanemodel.compressThreads",
+            Runtime.getRuntime().availableProcessors());
+    /**
+     * The amount of particles the viewer is sent at most. Larger systems are shown as a reduced model. System
+     * property: insanemodel.viewParticles
+     */
+    static final private int VIEW_PARTICLES = Integer.getInteger("insanemodel.viewParticles", 100000);
+
+    private ConfigurationSettings () {}
+
+    /**
+     * Get the amount of simulations that may run at the same time.
+     *
+     * @return WORKER_THREADS, see: {@link ConfigurationSettings#WORKER_THREADS}
+     */
+    public static int getWorkerThreads() {
+        return Math.max(1, ConfigurationSettings.WORKER_THREADS);
+    }
+
+    /**
+     * Get the amount of simulations that may wait for a free worker.
+     *
+     * @return QUEUE_CAPACITY, see: {@link ConfigurationSettings#QUEUE_CAPACITY}
+     */
+    public static int getQueueCapacity() {
+        return Math.max(1, ConfigurationSettings.QUEUE_CAPACITY);
+    }
+
+    /**
+     * Get the expected duration of one simulation in milliseconds.
+     *
+     * @return EXPECTED_JOB_MILLIS, see: {@link ConfigurationSettings#EXPECTED_JOB_MILLIS}
+     */
+    public static int getExpectedJobMillis() {
+        return Math.max(1, ConfigurationSettings.EXPECTED_JOB_MILLIS);
+    }
+
+    /**
+     * Get the amount of minutes a finished job is kept before it is removed.
+     *
+     * @return JOB_RETENTION_MINUTES, see: {@link ConfigurationSettings#JOB_RETENTION_MINUTES}
+     */
+    public static int getJobRetentionMinutes() {
+        return Math.max(1, ConfigurationSettings.JOB_RETENTION_MINUTES);
+    }
+
+    /**
+     * Get the maximum amount of seconds a client may wait in one long-polling request.
+     *
+     * @return MAX_POLL_SECONDS, see: {@link ConfigurationSettings#MAX_POLL_SECONDS}
+     */
+    public static int getMaxPollSeconds() {
+        return Math.max(1, ConfigurationSettings.MAX_POLL_SECONDS);
+    }
+
+    /**
+     * Get the amount of bytes kept of each output stream of a simulation process.
+     *
+     * @return OUTPUT_BUFFER_BYTES, see: {@link ConfigurationSettings#OUTPUT_BUFFER_BYTES}
+     */
+    public static int getOutputBufferBytes() {
+        return Math.max(1024, ConfigurationSettings.OUTPUT_BUFFER_BYTES);
+    }
+
+    /**
+     * Get the name of the engine running insane.py and martinize.py.
+     *
+     * @return ENGINE, see: {@link ConfigurationSettings#ENGINE}
+     */
+    public static String getEngine() {
+        return ConfigurationSettings.ENGINE;
+    }
+
+    /**
+     * Get the amount of runs after which a Python worker is replaced.
+     *
+     * @return WORKER_MAX_JOBS, see: {@link ConfigurationSettings#WORKER_MAX_JOBS}
+     */
+    public static int getWorkerMaxJobs() {
+        return Math.max(1, ConfigurationSettings.WORKER_MAX_JOBS);
+    }
+
+    /**
+     * Get the peak memory use in megabytes after which a Python worker is replaced.
+     *
+     * @return WORKER_MAX_RSS_MB, see: {@link ConfigurationSettings#WORKER_MAX_RSS_MB}
+     */
+    public static int getWorkerMaxRssMb() {
+        return Math.max(1, ConfigurationSettings.WORKER_MAX_RSS_MB);
+    }
+
+    /**
+     * Tells whether the result cache is used.
+     *
+     * @return RESULT_CACHE, see: {@link ConfigurationSettings#RESULT_CACHE}
+     */
+    public static boolean isResultCacheEnabled() {
+        return ConfigurationSettings.RESULT_CACHE;
+    }
+
+    /**
+     * Get the maximum amount of bytes the entries of the result cache may use together.
+     *
+     * @return RESULT_CACHE_MB in bytes, see: {@link ConfigurationSettings#RESULT_CACHE_MB}
+     */
+    public static long getResultCacheBytes() {
+        return ConfigurationSettings.RESULT_CACHE_MB * 1024L * 1024L;
+    }
+
+    /**
+     * Get the seed for the random number generator of insane when the user gives none.
+     *
+     * @return DEFAULT_SEED, see: {@link ConfigurationSettings#DEFAULT_SEED}, null if every run draws a new seed
+     */
+    public static Integer getDefaultSeed() {
+        return ConfigurationSettings.DEFAULT_SEED;
+    }
+
+    /**
+     * Tells whether the result cache is filled with the presets when the web application starts.
+     *
+     * @return WARM_UP, see: {@link ConfigurationSettings#WARM_UP}
+     */
+    public static boolean isWarmUpEnabled() {
+        return ConfigurationSettings.WARM_UP;
+    }
+
+    /**
+     * Get the maximum amount of bytes the output files of finished jobs may use together.
+     *
+     * @return OUTPUT_STORE_MB in bytes, see: {@link ConfigurationSettings#OUTPUT_STORE_MB}
+     */
+    public static long getOutputStoreBytes() {
+        return ConfigurationSettings.OUTPUT_STORE_MB * 1024L * 1024L;
+    }
+
+    /**
+     * Get the amount of hours the output files of a finished job are kept after they were last used.
+     *
+     * @return OUTPUT_TTL_HOURS, see: {@link ConfigurationSettings#OUTPUT_TTL_HOURS}
+     */
+    public static int getOutputTtlHours() {
+        return ConfigurationSettings.OUTPUT_TTL_HOURS;
+    }
+
+    /**
+     * Get the minimum amount of bytes that has to stay free on the volume of the output files.
+     *
+     * @return MIN_FREE_DISK_MB in bytes, see: {@link ConfigurationSettings#MIN_FREE_DISK_MB}
+     */
+    public static long getMinFreeDiskBytes() {
+        return ConfigurationSettings.MIN_FREE_DISK_MB * 1024L * 1024L;
+    }
+
+    /**
+     * Get the maximum amount of files and folders the background sweeper deletes in one batch.
+     *
+     * @return SWEEP_BATCH_SIZE, see: {@link ConfigurationSettings#SWEEP_BATCH_SIZE}
+     */
+    public static int getSweepBatchSize() {
+        return ConfigurationSettings.SWEEP_BATCH_SIZE;
+    }
+
+    /**
+     * Get the pause in milliseconds of the background sweeper after every batch of deletes.
+     *
+     * @return SWEEP_PAUSE_MILLIS, see: {@link ConfigurationSettings#SWEEP_PAUSE_MILLIS}
+     */
+    public static int getSweepPauseMillis() {
+        return ConfigurationSettings.SWEEP_PAUSE_MILLIS;
+    }
+
+    /**
+     * Get the amount of threads compressing large output files.
+     *
+     * @return COMPRESS_THREADS, see: {@link ConfigurationSettings#COMPRESS_THREADS}
+     */
+    public static int getCompressThreads() {
+        return Math.max(1, ConfigurationSettings.COMPRESS_THREADS);
+    }
+
+    /**
+     * Get the amount of particles the viewer is sent at most.
+     *
+     * @return VIEW_PARTICLES, see: {@link ConfigurationSettings#VIEW_PARTICLES}
+     */
+    public static int getViewParticles() {
+        return Math.max(1, ConfigurationSettings.VIEW_PARTICLES);
+    }
+
+    /**
+     * Get the time limit in seconds of one simulation stage. The stages are named after their program, for instance
+     * 'insane', and every limit can be overridden with a system property: insanemodel.[stage].[limit], for instance
+     * -Dinsanemodel.insane.wallClockSeconds=600. A limit of 0 means no limit.
+     *
+     * @param stage          the name of the stage
+     * @param limit          the name of the limit, 'wallClockSeconds' or 'cpuSeconds'
+     * @param defaultSeconds the limit used if no system property is given
+     * @return               the limit in seconds, 0 if there is no limit
+     */
+    public static int getStageLimitSeconds(final String stage, final String limit, final int defaultSeconds) {
+        return Math.max(0, Integer.getInteger("insanemodel." + stage + "." + limit, defaultSeconds));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.contextListeners;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.FileSweeper;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JythonEngine;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.OutputStore;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.PresetWarmUp;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.ProcessEngine;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.PythonWorkerPool;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.ResultCache;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationEngine;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationExecutor;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This listener creates the objects that are shared by the whole web application when it starts, and stops them
+ * again when the web application is shut down.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class SimulationContextListener implements ServletContextListener {
+    /** The thread filling the result cache with the presets, null if there is no warm-up. */
+    private Thread warmUp;
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        SimulationExecutor executor = new SimulationExecutor();
+        JobManager jobManager = new JobManager(executor, this.createEngine(), this.createResultCache(),
+                this.createOutputStore(), new FileSweeper(ConfigurationSettings.getSweepBatchSize(),
+                ConfigurationSettings.getSweepPauseMillis()));
+        sce.getServletContext().setAttribute(SimulationExecutor.CONTEXT_ATTRIBUTE, executor);
+        sce.getServletContext().setAttribute(JobManager.CONTEXT_ATTRIBUTE, jobManager);
+
+        if (ConfigurationSettings.isWarmUpEnabled() && jobManager.getResultCache() != null) {
+            this.startWarmUp(sce.getServletContext(), jobManager, executor);
+        }
+    }
+
+    /**
+     * Start filling the result cache with the default settings and featured presets of options.json, in the
+     * background.
+     *
+     * @param context    the ServletContext of the web application
+     * @param jobManager the job manager running the simulations
+     * @param executor   the executor that has to be idle before a simulation starts
+     */
+    private void startWarmUp(final ServletContext context, final JobManager jobManager,
+                             final SimulationExecutor executor) {
+        List<JSONObject> presets;
+        try (InputStream optionsJson = context.getResourceAsStream("/json/options.json")) {
+            if (optionsJson == null) {
+                return;
+            }
+            presets = PresetWarmUp.readPresets(optionsJson);
+        } catch (IOException | ParseException | RuntimeException ex) {
+            Logger.getLogger(SimulationContextListener.class.getName()).log(Level.WARNING,
+                    "Could not read the presets from options.json, there is no warm-up.", ex);
+            return;
+        }
+        this.warmUp = new Thread(new PresetWarmUp(jobManager, executor, presets), "preset-warm-up");
+        this.warmUp.setDaemon(true);
+        this.warmUp.start();
+    }
+
+    /**
+     * Create the result cache within the configured budget, unless it has been turned off with the system property
+     * insanemodel.resultCache.
+     *
+     * @return the result cache, or null if there is no cache
+     */
+    private ResultCache createResultCache() {
+        if (!ConfigurationSettings.isResultCacheEnabled()) {
+            return null;
+        }
+        return new ResultCache(new File(ConfigurationPaths.getAbsoluteCachePath()),
+                ConfigurationSettings.getResultCacheBytes(), ConfigurationSettings.getMinFreeDiskBytes());
+    }
+
+    /**
+     * Create the store keeping the output files of finished jobs within the configured budget.
+     *
+     * @return the output store
+     */
+    private OutputStore createOutputStore() {
+        File outputRoot = new File(ConfigurationPaths.getAbsoluteOutFilePath());
+        outputRoot.mkdirs();
+        return new OutputStore(outputRoot,
+                ConfigurationSettings.getOutputStoreBytes(),
+                TimeUnit.HOURS.toMillis(ConfigurationSettings.getOutputTtlHours()),
+                ConfigurationSettings.getMinFreeDiskBytes());
+    }
+
+    /**
+     * Create the simulation engine chosen with the system property insanemodel.engine.
+     *
+     * @return the simulation engine
+     */
+    private SimulationEngine createEngine() {
+        String engine = ConfigurationSettings.getEngine();
+        if (!"worker".equals(engine) && !"jython".equals(engine)) {
+            return new ProcessEngine();
+        }
+        PythonWorkerPool pool = new PythonWorkerPool(new ProcessEngine());
+        // start the workers now, so the first requests do not have to wait for Python to compile the scripts
+        pool.prewarm(ConfigurationPaths.getPathToMartinize());
+        if ("jython".equals(engine)) {
+            if (JythonEngine.isAvailable()) {
+                JythonEngine jython = new JythonEngine(ConfigurationPaths.getPathToInsane(), pool);
+                jython.prewarm();
+                return jython;
+            }
+            Logger.getLogger(SimulationContextListener.class.getName()).warning(
+                    "Jython is not on the classpath, insane.py runs on the Python workers instead.");
+        }
+        pool.prewarm(ConfigurationPaths.getPathToInsane());
+        return pool;
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        if (this.warmUp != null) {
+            this.warmUp.interrupt();
+        }
+        JobManager jobManager = JobManager.getInstance(sce.getServletContext());
+        if (jobManager != null) {
+            jobManager.shutdown();
+        }
+        sce.getServletContext().removeAttribute(JobManager.CONTEXT_ATTRIBUTE);
+
+        SimulationExecutor executor = SimulationExecutor.getInstance(sce.getServletContext());
+        if (executor != null) {
+            executor.shutdown();
+        }
+        sce.getServletContext().removeAttribute(SimulationExecutor.CONTEXT_ATTRIBUTE);
+    }
+}
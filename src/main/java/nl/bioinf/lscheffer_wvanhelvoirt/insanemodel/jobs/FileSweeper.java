@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class deletes input files and output folders on a background thread. Deleting a folder recursively can take
+ * a while, and it should not hold up the thread that asks for it: for instance the thread of the servlet container
+ * that destroys expired sessions, which has thousands of them to handle after a workshop.
+ *
+ * The files are deleted in batches, with a pause after every batch, so a large amount of deletes does not compete
+ * with running simulations for the disk.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class FileSweeper {
+    /** The files and folders waiting to be deleted. */
+    private final BlockingQueue<File> queue;
+    /** The maximum amount of files and folders deleted in one batch. */
+    private final int batchSize;
+    /** The pause in milliseconds after every batch. */
+    private final long pauseMillis;
+    /** The thread deleting the files. */
+    private final ExecutorService thread;
+
+    /**
+     * Create a new FileSweeper and start its thread.
+     *
+     * @param batchSize   the maximum amount of files and folders deleted in one batch
+     * @param pauseMillis the pause in milliseconds after every batch
+     */
+    public FileSweeper(final int batchSize, final long pauseMillis) {
+        this.queue = new LinkedBlockingQueue();
+        this.batchSize = Math.max(1, batchSize);
+        this.pauseMillis = pauseMillis;
+        this.thread = Executors.newSingleThreadExecutor(new NamedThreadFactory("file-sweeper-"));
+        this.thread.execute(new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        });
+    }
+
+    /**
+     * Queue a file or folder to be deleted. A folder is deleted with everything in it.
+     *
+     * @param file the file or folder to delete
+     */
+    public void delete(final File file) {
+        this.queue.add(file);
+    }
+
+    /**
+     * Queue everything in the given folder that is not needed anymore, for instance the files of jobs that were
+     * running when the web application stopped.
+     *
+     * @param folder the folder to clean up
+     * @param keep   the names of the files and folders that have to stay
+     * @return       the amount of queued files and folders
+     */
+    public int deleteOrphans(final File folder, final OutputStore keep) {
+        int count = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (keep == null || !keep.contains(file.getName())) {
+                    this.delete(file);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Delete the queued files in batches until the sweeper is shut down.
+     */
+    private void sweep() {
+        List<File> batch = new ArrayList(this.batchSize);
+        try {
+            while (true) {
+                batch.add(this.queue.take());
+                this.queue.drainTo(batch, this.batchSize - 1);
+                for (File file : batch) {
+                    if (!FileUtils.deleteQuietly(file) && file.exists()) {
+                        Logger.getLogger(FileSweeper.class.getName()).log(Level.WARNING,
+                                "Could not delete " + file.getPath());
+                    }
+                }
+                batch.clear();
+                Thread.sleep(this.pauseMillis);
+            }
+        } catch (InterruptedException ex) {
+            // the sweeper is shut down, what is still queued is found as orphan at the next start
+        }
+    }
+
+    /**
+     * Get the amount of files and folders waiting to be deleted.
+     *
+     * @return the queue length
+     */
+    public int getQueueLength() {
+        return this.queue.size();
+    }
+
+    /**
+     * Stop the sweeper thread. Files that are still queued are left alone.
+     */
+    public void shutdown() {
+        this.thread.shutdownNow();
+    }
+}
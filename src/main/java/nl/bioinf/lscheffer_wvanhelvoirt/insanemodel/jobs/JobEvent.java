@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import org.json.simple.JSONObject;
+
+/**
+ * This class represents something that happened during a SimulationJob: a new stage, progress reported by one of
+ * the simulation programs, a line of their log output, or a status change of the job.
+ * Events are numbered per job, so a client can tell which events it has already seen.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class JobEvent {
+
+    /**
+     * This enum contains the types of events.
+     */
+    public enum Type {
+        /** The job started a new stage (martinize, insane, cache, wait, compress, reduce). */
+        STAGE,
+        /** A simulation program reported progress within the current stage. */
+        PROGRESS,
+        /** A simulation program printed a line that is not recognized as progress. */
+        LOG,
+        /** The status of the job changed. */
+        STATUS
+    }
+
+    /** The number of this event within its job. */
+    private final long sequence;
+    /** The type of this event. */
+    private final Type type;
+    /** The stage the job was in when this event happened. */
+    private final String stage;
+    /** The message of this event. */
+    private final String message;
+    /** The progress within the stage, between 0 and 1, or -1 if unknown. */
+    private final double progress;
+
+    /**
+     * Create a new JobEvent.
+     *
+     * @param sequence the number of this event within its job
+     * @param type     the type of this event
+     * @param stage    the stage the job was in when this event happened
+     * @param message  the message of this event
+     * @param progress the progress within the stage, between 0 and 1, or -1 if unknown
+     */
+    public JobEvent(final long sequence,
+                    final Type type,
+                    final String stage,
+                    final String message,
+                    final double progress) {
+        this.sequence = sequence;
+        this.type = type;
+        this.stage = stage;
+        this.message = message;
+        this.progress = progress;
+    }
+
+    /**
+     * Get the number of this event within its job.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Get the type of this event.
+     *
+     * @return the type
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Get this event as JSON.
+     *
+     * @return JSONObject containing the stage, message and progress of this event
+     */
+    public JSONObject toJson() {
+        JSONObject eventJson = new JSONObject();
+        eventJson.put("stage", this.stage);
+        eventJson.put("message", this.message);
+        eventJson.put("progress", this.progress);
+        return eventJson;
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+/**
+ * A JobEventListener is notified of every JobEvent of a SimulationJob while the job runs.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public interface JobEventListener {
+
+    /**
+     * Called when the given job published a new event. This is called on the thread that reads the output of the
+     * simulation program, so implementations should return quickly.
+     *
+     * @param job   the job the event belongs to
+     * @param event the new event
+     */
+    void jobEvent(SimulationJob job, JobEvent event);
+}
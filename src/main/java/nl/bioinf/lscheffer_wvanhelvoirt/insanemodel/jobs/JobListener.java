@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+/**
+ * A JobListener is notified when a SimulationJob is done.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public interface JobListener {
+
+    /**
+     * Called on the worker thread when the given job is done, whether it succeeded or not.
+     *
+     * @param job the finished job
+     */
+    void jobFinished(SimulationJob job);
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps track of all simulation jobs by their id. Jobs are submitted to the SimulationExecutor, can be
+ * looked up and cancelled by id, and are removed some time after they are done. The output files of a successful
+ * job are handed to the OutputStore, which keeps them as long as the disk budget allows, also after the job itself
+ * has been removed.
+ *
+ * A job can be submitted for a client. Only the newest job of a client is useful, because the web page only shows
+ * the last model that was requested. So when a client submits a new job, its older job is cancelled if it is still
+ * queued or running.
+ *
+ * Jobs with the same request key (see SimulationJob.getRequestKey()) compute the same output. When a job is submitted
+ * while a job with the same request key is queued or running, only that job runs and the new job takes over its
+ * result, so a class of students pressing the button at the same moment starts one simulation instead of many.
+ *
+ * Files are deleted by the FileSweeper in the background, so no request or session thread waits for a recursive
+ * delete. The files of jobs that were running when the web application stopped are deleted at the next start.
+ *
+ * There is one JobManager per web application, it is stored as attribute of the ServletContext.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class JobManager {
+    /** The name of the ServletContext attribute the JobManager is stored in. */
+    public static final String CONTEXT_ATTRIBUTE = JobManager.class.getName();
+
+    /** The executor the jobs are run on. */
+    private final SimulationExecutor executor;
+    /** The engine the jobs run their simulation programs on. */
+    private final SimulationEngine engine;
+    /** The cache the jobs store their output in, null if there is no cache. */
+    private final ResultCache resultCache;
+    /** The store keeping the output folders of successful jobs. */
+    private final OutputStore outputStore;
+    /** The sweeper deleting files in the background. */
+    private final FileSweeper sweeper;
+    /** All known jobs by id. */
+    private final Map<String, SimulationJob> jobs;
+    /** The job running every request, by request key, so identical requests share one run. */
+    private final ConcurrentMap<String, SimulationJob> runningByRequestKey;
+    /** The id of the newest job of every client, by client key. */
+    private final Map<String, String> newestJobByClient;
+    /** The thread that removes jobs that have been done for longer than the retention time. */
+    private final ScheduledExecutorService purger;
+    /** The thread that checks whether the clients waiting for their jobs are still connected. */
+    private final ScheduledExecutorService heartbeats;
+
+    /**
+     * Create a new JobManager.
+     *
+     * @param executor    the executor the jobs are run on
+     * @param engine      the engine the jobs run their simulation programs on
+     * @param resultCache the cache the jobs store their output in, or null if there is no cache
+     * @param outputStore the store keeping the output folders of successful jobs
+     * @param sweeper     the sweeper deleting files in the background
+     */
+    public JobManager(final SimulationExecutor executor, final SimulationEngine engine,
+                      final ResultCache resultCache, final OutputStore outputStore, final FileSweeper sweeper) {
+        this.executor = executor;
+        this.engine = engine;
+        this.resultCache = resultCache;
+        this.outputStore = outputStore;
+        this.sweeper = sweeper;
+        // no job survives a restart, so every file that is not kept by the output store is an orphan
+        int orphans = sweeper.deleteOrphans(new File(ConfigurationPaths.getAbsoluteInFilePath()), null)
+                + sweeper.deleteOrphans(new File(ConfigurationPaths.getAbsoluteOutFilePath()), outputStore);
+        if (orphans > 0) {
+            Logger.getLogger(JobManager.class.getName()).log(Level.INFO,
+                    "Deleting " + orphans + " files and folders of jobs from before the restart.");
+        }
+        this.jobs = new ConcurrentHashMap();
+        this.runningByRequestKey = new ConcurrentHashMap();
+        this.newestJobByClient = new ConcurrentHashMap();
+        this.purger = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("job-purger-"));
+        long period = ConfigurationSettings.getJobRetentionMinutes();
+        this.purger.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                purgeDoneJobs();
+            }
+        }, period, period, TimeUnit.MINUTES);
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("job-heartbeat-"));
+    }
+
+    /**
+     * Get the JobManager of the web application.
+     *
+     * @param context the ServletContext of the web application
+     * @return        the JobManager
+     */
+    public static JobManager getInstance(final ServletContext context) {
+        return (JobManager) context.getAttribute(JobManager.CONTEXT_ATTRIBUTE);
+    }
+
+    /**
+     * Run the given heartbeat periodically until it is cancelled. A heartbeat checks whether a client that waits for
+     * its job is still connected, so the job can be cancelled when the client is gone.
+     *
+     * @param heartbeat    the heartbeat to run
+     * @param periodMillis the time in milliseconds between two heartbeats
+     * @return             the future to cancel the heartbeat with
+     */
+    public ScheduledFuture<?> scheduleHeartbeat(final Runnable heartbeat, final long periodMillis) {
+        return this.heartbeats.scheduleWithFixedDelay(heartbeat, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a new unique job id. The id is used as folder and file name, so it only contains letters, digits and
+     * dashes.
+     *
+     * @return the new job id
+     */
+    public String createJobId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Get the engine new jobs should run their simulation programs on.
+     *
+     * @return the simulation engine
+     */
+    public SimulationEngine getEngine() {
+        return this.engine;
+    }
+
+    /**
+     * Get the cache new jobs should store their output in.
+     *
+     * @return the result cache, or null if there is no cache
+     */
+    public ResultCache getResultCache() {
+        return this.resultCache;
+    }
+
+    /**
+     * Get the store keeping the output folders of successful jobs.
+     *
+     * @return the output store
+     */
+    public OutputStore getOutputStore() {
+        return this.outputStore;
+    }
+
+    /**
+     * Register the given job and queue it on the SimulationExecutor. If a job with the same request key is already
+     * queued or running, the new job is not queued but takes over the result of that job when it is done.
+     * When the job has finished successfully, its output folder is handed to the OutputStore.
+     *
+     * @param job the job to submit
+     * @throws RejectedExecutionException if the executor queue is full, or the disk is too full for more output
+     */
+    public void submit(final SimulationJob job) {
+        if (!this.makeRoom()) {
+            // the uploaded input file has already been written, and the job will never run to clean it up
+            this.deleteInputFile(job.getId());
+            throw new RejectedExecutionException("There is not enough free disk space for the output of a new job.");
+        }
+        this.jobs.put(job.getId(), job);
+        job.addListener(new JobListener() {
+            @Override
+            public void jobFinished(final SimulationJob finishedJob) {
+                if (finishedJob.getStatus() == JobStatus.FINISHED) {
+                    outputStore.add(finishedJob.getId());
+                }
+            }
+        });
+        try {
+            this.execute(job);
+        } catch (RejectedExecutionException ex) {
+            this.remove(job.getId());
+            throw ex;
+        }
+    }
+
+    /**
+     * Submit the given job as background work, like the warm-up when the web application starts. The job is queued
+     * on the SimulationExecutor like the jobs of users, so it counts for the queue limit and is rejected when the
+     * queue is full, but its processes run with a high niceness so they only get the cpu the users leave free.
+     *
+     * @param job the job to submit
+     * @throws RejectedExecutionException if the executor queue is full, or the disk is too full for more output
+     */
+    public void submitInBackground(final SimulationJob job) {
+        job.setBackground(true);
+        this.submit(job);
+    }
+
+    /**
+     * Queue the given job on the SimulationExecutor, or let it wait for the running job with the same request key.
+     *
+     * @param job the job to queue
+     * @throws RejectedExecutionException if the executor queue is full
+     */
+    private void execute(final SimulationJob job) {
+        final String requestKey = job.getRequestKey();
+        if (requestKey == null) {
+            this.executor.execute(job);
+            return;
+        }
+        while (true) {
+            SimulationJob runningJob = this.runningByRequestKey.putIfAbsent(requestKey, job);
+            if (runningJob == null) {
+                // this job runs the request, until it is done others with the same request wait for it
+                job.addListener(new JobListener() {
+                    @Override
+                    public void jobFinished(final SimulationJob finishedJob) {
+                        runningByRequestKey.remove(requestKey, finishedJob);
+                    }
+                });
+                this.executor.execute(job);
+                return;
+            }
+            if (!runningJob.getStatus().isDone()) {
+                job.waitForSameRequest();
+                runningJob.addListener(new JobListener() {
+                    @Override
+                    public void jobFinished(final SimulationJob finishedJob) {
+                        adoptResult(job, finishedJob);
+                    }
+                });
+                return;
+            }
+            // done, but not forgotten yet
+            this.runningByRequestKey.remove(requestKey, runningJob);
+        }
+    }
+
+    /**
+     * Let a waiting job take over the result of the job with the same request key. If that job has been cancelled,
+     * the waiting job runs the request itself, or waits for another job that does.
+     *
+     * @param waitingJob  the job waiting for the result
+     * @param finishedJob the job with the same request key that is done
+     */
+    private void adoptResult(final SimulationJob waitingJob, final SimulationJob finishedJob) {
+        if (waitingJob.adoptResult(finishedJob)) {
+            return;
+        }
+        try {
+            this.execute(waitingJob);
+        } catch (RejectedExecutionException ex) {
+            Logger.getLogger(JobManager.class.getName()).log(Level.WARNING,
+                    "Could not queue job " + waitingJob.getId() + " after the job it waited for was cancelled", ex);
+            waitingJob.cancel();
+        }
+    }
+
+    /**
+     * Register the given job, queue it on the SimulationExecutor and cancel the older job of the same client.
+     * The older job is only cancelled once the new job has been accepted, so a rejected job leaves it alone.
+     *
+     * @param job       the job to submit
+     * @param clientKey the key identifying the client, or null if the client is unknown
+     * @throws RejectedExecutionException if the executor queue is full
+     */
+    public void submit(final SimulationJob job, final String clientKey) {
+        this.submit(job);
+        if (clientKey == null) {
+            return;
+        }
+        String olderJobId = this.newestJobByClient.put(clientKey, job.getId());
+        if (olderJobId != null) {
+            SimulationJob olderJob = this.getJob(olderJobId);
+            if (olderJob != null && olderJob.supersede(job.getId())) {
+                this.deleteFiles(olderJobId);
+            }
+        }
+    }
+
+    /**
+     * Get the job with the given id. Looking up a job counts as using its output, so the output is kept longer.
+     *
+     * @param id the job id
+     * @return   the job, or null if there is no job with this id
+     */
+    public SimulationJob getJob(final String id) {
+        if (id == null) {
+            return null;
+        }
+        this.outputStore.touch(id);
+        return this.jobs.get(id);
+    }
+
+    /**
+     * Cancel the job with the given id, and delete its input and output files in the background. The job itself is kept
+     * until the retention time is over, so its clients can still see that it has been cancelled.
+     *
+     * @param id the job id
+     * @return   the cancelled job, or null if there is no job with this id
+     */
+    public SimulationJob cancel(final String id) {
+        SimulationJob job = this.getJob(id);
+        if (job != null && job.cancel()) {
+            this.deleteFiles(id);
+        }
+        return job;
+    }
+
+    /**
+     * Cancel the job with the given id, forget about it and delete its input and output files.
+     *
+     * @param id the job id
+     */
+    public void remove(final String id) {
+        this.forget(id);
+        this.outputStore.remove(id);
+        this.deleteFiles(id);
+    }
+
+    /**
+     * Cancel the job with the given id and forget about it, but leave its files alone.
+     *
+     * @param id the job id
+     */
+    private void forget(final String id) {
+        SimulationJob job = this.jobs.remove(id);
+        this.newestJobByClient.values().remove(id);
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Let the sweeper delete the input and output files of the job with the given id.
+     *
+     * @param id the job id
+     */
+    private void deleteFiles(final String id) {
+        this.deleteInputFile(id);
+        this.sweeper.delete(new File(ConfigurationPaths.getAbsoluteOutFilePath(id)));
+    }
+
+    /**
+     * Let the sweeper delete the input file of the job with the given id.
+     *
+     * @param id the job id
+     */
+    private void deleteInputFile(final String id) {
+        this.sweeper.delete(new File(ConfigurationPaths.getAbsoluteInFilePath(id)));
+    }
+
+    /**
+     * Evict output folders and result cache entries until the volume has enough free space for a new job. Call this
+     * before writing the input file of a new job, so no upload is stored for a job that is rejected anyway.
+     *
+     * @return boolean whether the volume has enough free space, false if it is still low after evicting everything
+     */
+    public boolean makeRoom() {
+        if (this.outputStore.makeRoom()) {
+            return true;
+        }
+        if (this.resultCache != null) {
+            this.resultCache.evict();
+        }
+        return this.outputStore.makeRoom();
+    }
+
+    /**
+     * Remove all jobs that have been done for longer than the retention time, and the jobs whose output has been
+     * evicted from the OutputStore. Output that is kept by the OutputStore outlives its job. The result cache is kept
+     * within its budget too.
+     */
+    private void purgeDoneJobs() {
+        for (String id : this.outputStore.evict()) {
+            this.remove(id);
+        }
+        if (this.resultCache != null) {
+            this.resultCache.evict();
+        }
+        long oldest = System.currentTimeMillis()
+                - TimeUnit.MINUTES.toMillis(ConfigurationSettings.getJobRetentionMinutes());
+        for (SimulationJob job : this.jobs.values()) {
+            if (job.getStatus().isDone() && job.getDoneMillis() < oldest) {
+                if (this.outputStore.contains(job.getId())) {
+                    this.forget(job.getId());
+                    this.deleteInputFile(job.getId());
+                } else {
+                    this.remove(job.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel all jobs, stop the purger and heartbeat threads, the sweeper and the engine. The files of the jobs are
+     * left alone.
+     */
+    public void shutdown() {
+        this.purger.shutdownNow();
+        this.heartbeats.shutdownNow();
+        this.sweeper.shutdown();
+        for (SimulationJob job : this.jobs.values()) {
+            job.cancel();
+        }
+        this.engine.shutdown();
+    }
+}
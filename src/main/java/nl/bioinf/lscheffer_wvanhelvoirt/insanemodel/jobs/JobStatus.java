@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+/**
+ * This enum contains the states a SimulationJob can be in.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public enum JobStatus {
+    /** The job waits for a free worker. */
+    QUEUED(false),
+    /** The job is running on a worker. */
+    RUNNING(false),
+    /** The job is done and insane wrote an output file. */
+    FINISHED(true),
+    /** The job is done, but insane did not write an output file. */
+    FAILED(true),
+    /** The job has been cancelled before it was done. */
+    CANCELLED(true);
+
+    /** Whether a job in this state is done, and will not change state anymore. */
+    private final boolean done;
+
+    /**
+     * Create a new JobStatus.
+     *
+     * @param done whether a job in this state is done
+     */
+    JobStatus(final boolean done) {
+        this.done = done;
+    }
+
+    /**
+     * Tells whether a job in this state is done, and will not change state anymore.
+     *
+     * @return boolean whether the job is done
+     */
+    public boolean isDone() {
+        return this.done;
+    }
+}
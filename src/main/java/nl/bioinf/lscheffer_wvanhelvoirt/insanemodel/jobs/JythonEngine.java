@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.SimulationBuilder;
+
+import javax.script.ScriptEngineManager;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This engine runs insane.py inside the JVM, on a pool of Jython interpreters that have already compiled it. insane.py
+ * is Python 2 code that only needs math, random and collections, so Jython can run it without starting a process.
+ * Everything else (martinize.py needs Python 3, martinate.sh is a shell script) is run by the fallback engine.
+ *
+ * Jython is not a dependency of the web application, build it with the Maven profile 'jython' to use this engine.
+ * A job running inside the JVM can not be given a cpu time limit, and there is no hard stop either: a cancelled or
+ * timed out job is abandoned together with its interpreter, but its thread keeps computing until the script ends
+ * (see JythonInterpreter). While as many abandoned jobs are still running as simulations may run at the same time,
+ * insane.py is run by the fallback engine instead, so runaway jobs can not take all cores.
+ *
+ * insane.py still writes the output file itself (-o), the same as with the other engines. The output is not passed
+ * back in memory, because every next step (compression, the result cache, the reduced model and the tiles) reads
+ * the file from the output folder anyway.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class JythonEngine implements SimulationEngine {
+    /** The absolute(!) path to the script this engine runs. */
+    private final String scriptPath;
+    /** The engine running everything that is not the script. */
+    private final SimulationEngine fallback;
+    /** The idle interpreters. */
+    private final BlockingQueue<JythonInterpreter> idleInterpreters;
+    /** The thread stopping jobs that exceed their wall clock limit. */
+    private final ScheduledExecutorService timer;
+    /** The interpreters that have been thrown away while running a job, until their thread has ended. */
+    private final List<JythonInterpreter> discardedInterpreters;
+    /** Whether the engine has been shut down. */
+    private volatile boolean shutdown;
+
+    /**
+     * Create a new JythonEngine.
+     *
+     * @param scriptPath the absolute(!) path to the script this engine runs (insane.py)
+     * @param fallback   the engine running everything that is not the script
+     */
+    public JythonEngine(final String scriptPath, final SimulationEngine fallback) {
+        this.scriptPath = scriptPath;
+        this.fallback = fallback;
+        this.idleInterpreters = new LinkedBlockingQueue(ConfigurationSettings.getWorkerThreads());
+        this.timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("jython-timer-"));
+        this.discardedInterpreters = new LinkedList();
+        this.shutdown = false;
+    }
+
+    /**
+     * Tells whether Jython is on the classpath.
+     *
+     * @return boolean whether this engine can be used
+     */
+    public static boolean isAvailable() {
+        return new ScriptEngineManager().getEngineByName(JythonInterpreter.ENGINE_NAME) != null;
+    }
+
+    /**
+     * Start idle interpreters in the background, as many as the amount of simulations that may run at the same time.
+     */
+    public void prewarm() {
+        int missing = ConfigurationSettings.getWorkerThreads() - this.idleInterpreters.size();
+        for (int i = 0; i < missing; i++) {
+            this.startIdleInterpreter();
+        }
+    }
+
+    @Override
+    public SimulationRun start(final SimulationBuilder builder, final StreamPump.LineListener stderrListener)
+            throws IOException {
+        List<String> arguments = builder.getArguments();
+        if (arguments.isEmpty() || !arguments.get(0).equals(this.scriptPath)) {
+            return this.fallback.start(builder, stderrListener);
+        }
+        if (this.countRunaways() >= ConfigurationSettings.getWorkerThreads()) {
+            Logger.getLogger(JythonEngine.class.getName()).log(Level.WARNING, "Stopped Jython jobs are still running,"
+                    + " insane.py is run by the fallback engine until they end.");
+            return this.fallback.start(builder, stderrListener);
+        }
+
+        JythonInterpreter interpreter = this.idleInterpreters.poll();
+        if (interpreter == null) {
+            // no idle interpreter: start one now, this run has to wait for the script to compile
+            interpreter = new JythonInterpreter(this.scriptPath, this);
+            interpreter.awaitReady();
+        }
+        return interpreter.run(arguments, stderrListener, builder.getWallClockLimitSeconds());
+    }
+
+    /**
+     * Take back an interpreter that finished a job. An interpreter that may not be reused is retired and replaced.
+     *
+     * @param interpreter the interpreter that finished a job
+     */
+    void release(final JythonInterpreter interpreter) {
+        if (!this.shutdown && interpreter.isReusable() && this.idleInterpreters.offer(interpreter)) {
+            return;
+        }
+        interpreter.retire();
+        if (!this.shutdown) {
+            this.startIdleInterpreter();
+        }
+    }
+
+    /**
+     * Remember an interpreter that has been thrown away, its thread may still be running a job.
+     *
+     * @param interpreter the interpreter that has been thrown away
+     */
+    void discard(final JythonInterpreter interpreter) {
+        synchronized (this.discardedInterpreters) {
+            this.discardedInterpreters.add(interpreter);
+        }
+    }
+
+    /**
+     * Count the thrown away interpreters whose thread is still running a job, and forget the others.
+     *
+     * @return the amount of runaway jobs
+     */
+    private int countRunaways() {
+        synchronized (this.discardedInterpreters) {
+            Iterator<JythonInterpreter> iterator = this.discardedInterpreters.iterator();
+            while (iterator.hasNext()) {
+                if (!iterator.next().isRunaway()) {
+                    iterator.remove();
+                }
+            }
+            return this.discardedInterpreters.size();
+        }
+    }
+
+    /**
+     * Start an interpreter in the background, and make it idle when it is ready.
+     */
+    private void startIdleInterpreter() {
+        final JythonInterpreter interpreter = new JythonInterpreter(this.scriptPath, this);
+        interpreter.whenStarted(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    interpreter.awaitReady();
+                    if (shutdown || !idleInterpreters.offer(interpreter)) {
+                        interpreter.retire();
+                    }
+                } catch (IOException ex) {
+                    Logger.getLogger(JythonEngine.class.getName()).log(Level.WARNING,
+                            "Could not start a Jython interpreter for " + scriptPath, ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a task once after the given delay.
+     *
+     * @param task    the task to run
+     * @param seconds the delay in seconds
+     * @return        the scheduled task, or null if the engine has been shut down
+     */
+    ScheduledFuture<?> schedule(final Runnable task, final long seconds) {
+        try {
+            return this.timer.schedule(task, seconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.shutdown = true;
+        JythonInterpreter interpreter;
+        while ((interpreter = this.idleInterpreters.poll()) != null) {
+            interpreter.retire();
+        }
+        this.timer.shutdownNow();
+        this.fallback.shutdown();
+    }
+}
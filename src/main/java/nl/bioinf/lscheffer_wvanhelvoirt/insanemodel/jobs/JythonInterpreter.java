@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class manages one Jython interpreter inside the JVM that has compiled insane.py once and runs it for one job at
+ * a time. The interpreter imports worker.py and runs the jobs with its run() function, exactly like a worker process
+ * does, only the output of a job is written to a Writer instead of stderr.
+ *
+ * Jython keeps the state of the Python sys module per thread, so every interpreter has a thread of its own and
+ * everything it runs, including its start, runs on that thread.
+ *
+ * A job can not be stopped for real: Jython does not check for interruption while Python code computes, so a job
+ * that is cancelled or exceeds its wall clock limit keeps its thread and a core until the script ends by itself.
+ * What the limit does is throw the interpreter away: the run is reported as stopped at once, its output is
+ * ignored, and the interpreter is never used again.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+class JythonInterpreter {
+    /** The name Jython registers its JSR-223 script engine with. */
+    static final String ENGINE_NAME = "python";
+    /** The maximum time in seconds a new interpreter may take to start and compile its script. */
+    private static final long START_TIMEOUT_SECONDS = 60;
+    /** The maximum length of one output line, longer lines are cut off. */
+    private static final int MAX_LINE_LENGTH = 4096;
+    /** Compiles the script and defines run_job(argv, writer), which runs it with the output written to the writer. */
+    private static final String BOOTSTRAP = "import sys\n"
+            + "sys.path.insert(0, worker_dir)\n"
+            + "import worker\n"
+            + "handle = open(script_path)\n"
+            + "try:\n"
+            + "    code = compile(handle.read(), script_path, 'exec')\n"
+            + "finally:\n"
+            + "    handle.close()\n"
+            + "\n"
+            + "class Output(object):\n"
+            + "    def __init__(self, writer):\n"
+            + "        self.writer = writer\n"
+            + "        self.softspace = 0\n"
+            + "    def write(self, text):\n"
+            + "        self.writer.write(text)\n"
+            + "    def flush(self):\n"
+            + "        self.writer.flush()\n"
+            + "\n"
+            + "def run_job(argv, writer):\n"
+            + "    sys.stderr = Output(writer)\n"
+            + "    try:\n"
+            + "        return worker.run(code, [str(argument) for argument in argv])\n"
+            + "    finally:\n"
+            + "        sys.stderr = sys.__stderr__\n";
+
+    /** The absolute(!) path to the script this interpreter runs. */
+    private final String scriptPath;
+    /** The engine this interpreter belongs to. */
+    private final JythonEngine owner;
+    /** The thread everything of this interpreter runs on. */
+    private final ExecutorService thread;
+    /** The started script engine, done when the script has been compiled. */
+    private final Future<ScriptEngine> scriptEngine;
+    /** Whether the interpreter can still take jobs. */
+    private volatile boolean alive;
+    /** The amount of jobs this interpreter has run. */
+    private volatile int jobCount;
+
+    /**
+     * Start a new interpreter for the given script. Use awaitReady() before giving it a job.
+     *
+     * @param scriptPath the absolute(!) path to the script the interpreter runs
+     * @param owner      the engine the interpreter belongs to
+     */
+    JythonInterpreter(final String scriptPath, final JythonEngine owner) {
+        this.scriptPath = scriptPath;
+        this.owner = owner;
+        this.thread = Executors.newSingleThreadExecutor(new NamedThreadFactory("jython-"));
+        this.alive = true;
+        this.jobCount = 0;
+        this.scriptEngine = this.thread.submit(new Callable<ScriptEngine>() {
+            @Override
+            public ScriptEngine call() throws ScriptException {
+                ScriptEngine engine = new ScriptEngineManager().getEngineByName(ENGINE_NAME);
+                if (engine == null) {
+                    throw new ScriptException("There is no Python script engine, Jython is not on the classpath.");
+                }
+                engine.put("script_path", scriptPath);
+                engine.put("worker_dir", new File(ConfigurationPaths.getPathToWorker()).getParent());
+                engine.eval(BOOTSTRAP);
+                return engine;
+            }
+        });
+    }
+
+    /**
+     * Wait until the interpreter has compiled its script and is ready for a job.
+     *
+     * @throws IOException if the interpreter did not become ready
+     */
+    void awaitReady() throws IOException {
+        try {
+            this.scriptEngine.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            this.kill();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while starting a Jython interpreter for " + this.scriptPath);
+        } catch (ExecutionException | TimeoutException ex) {
+            this.kill();
+            throw new IOException("The Jython interpreter for " + this.scriptPath + " did not start.", ex);
+        }
+    }
+
+    /**
+     * Run a task on the thread of the interpreter once it has started (or failed to start).
+     *
+     * @param task the task to run
+     */
+    void whenStarted(final Runnable task) {
+        try {
+            this.thread.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // the interpreter has been stopped
+        }
+    }
+
+    /**
+     * Give this interpreter a job.
+     *
+     * @param arguments        the argument list of the script, starting with the path of the script itself
+     * @param stderrListener   the listener every output line of the job is passed to, or null
+     * @param wallClockSeconds the maximum time in seconds the job may run, 0 if there is no limit
+     * @return                 the started run
+     * @throws IOException if the interpreter can not take the job
+     */
+    SimulationRun run(final List<String> arguments, final StreamPump.LineListener stderrListener,
+                      final int wallClockSeconds) throws IOException {
+        final ScriptEngine engine;
+        try {
+            engine = this.scriptEngine.get(0, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException ex) {
+            throw new IOException("The Jython interpreter for " + this.scriptPath + " is not ready.", ex);
+        }
+        final JythonRun run = new JythonRun(stderrListener);
+        this.jobCount++;
+        try {
+            run.future = this.thread.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int exitValue = -1;
+                    try {
+                        Object result = ((Invocable) engine).invokeFunction("run_job", arguments, run.output);
+                        exitValue = ((Number) result).intValue();
+                    } catch (ScriptException | NoSuchMethodException | RuntimeException ex) {
+                        run.line(String.valueOf(ex));
+                        exitValue = 1;
+                    } finally {
+                        run.output.flushLine();
+                        run.complete(exitValue);
+                        owner.release(JythonInterpreter.this);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            throw new IOException("The Jython interpreter for " + this.scriptPath + " has been stopped.", ex);
+        }
+        if (wallClockSeconds > 0) {
+            run.timeout = this.owner.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    run.timedOut = true;
+                    run.destroy();
+                }
+            }, wallClockSeconds);
+        }
+        return run;
+    }
+
+    /**
+     * Tells whether this interpreter may take another job: it has not been stopped and has not run too many jobs.
+     *
+     * @return boolean whether the interpreter may be reused
+     */
+    boolean isReusable() {
+        return this.alive && this.jobCount < ConfigurationSettings.getWorkerMaxJobs();
+    }
+
+    /**
+     * Let the thread of the interpreter end after its current job.
+     */
+    void retire() {
+        this.alive = false;
+        this.thread.shutdown();
+    }
+
+    /**
+     * Throw the interpreter away, it is never used again. This is no hard stop: the thread is interrupted, but a
+     * running job only notices that when it waits or does I/O, a job that computes keeps running until it ends by
+     * itself (see isRunaway()).
+     */
+    void kill() {
+        if (!this.alive && this.thread.isShutdown()) {
+            return;
+        }
+        this.alive = false;
+        this.thread.shutdownNow();
+        this.owner.discard(this);
+    }
+
+    /**
+     * Tells whether this interpreter has been thrown away while its thread is still running a job.
+     *
+     * @return boolean whether the thread of the interpreter is still busy after it was killed
+     */
+    boolean isRunaway() {
+        return !this.alive && !this.thread.isTerminated();
+    }
+
+    /**
+     * One job running on an interpreter.
+     */
+    private class JythonRun implements SimulationRun {
+        /** The listener every output line of the job is passed to, or null. */
+        private final StreamPump.LineListener stderrListener;
+        /** The last output of the job. */
+        private final RingBuffer stderr;
+        /** The writer the job writes its output to. */
+        private final LineWriter output;
+        /** Counted down when the job is done. */
+        private final CountDownLatch done;
+        /** The exit value of the job. */
+        private volatile int exitValue;
+        /** Whether the job has been stopped because it ran longer than its wall clock limit. */
+        private volatile boolean timedOut;
+        /** The running job. */
+        private volatile Future<?> future;
+        /** The scheduled stop of the job when it exceeds its wall clock limit, or null if there is no limit. */
+        private volatile ScheduledFuture<?> timeout;
+
+        /**
+         * Create a new JythonRun.
+         *
+         * @param stderrListener the listener every output line of the job is passed to, or null
+         */
+        JythonRun(final StreamPump.LineListener stderrListener) {
+            this.stderrListener = stderrListener;
+            this.stderr = new RingBuffer(ConfigurationSettings.getOutputBufferBytes());
+            this.output = new LineWriter(this);
+            this.done = new CountDownLatch(1);
+            this.exitValue = -1;
+        }
+
+        /**
+         * Keep an output line of the job and pass it to the listener. Output written after the job was stopped is
+         * ignored.
+         *
+         * @param line the output line
+         */
+        void line(final String line) {
+            if (this.done.getCount() == 0) {
+                return;
+            }
+            if (!line.isEmpty()) {
+                byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                this.stderr.write(bytes, 0, bytes.length);
+            }
+            if (this.stderrListener != null) {
+                this.stderrListener.line(line);
+            }
+        }
+
+        /**
+         * Mark the job as done, only the first call counts.
+         *
+         * @param jobExitValue the exit value of the job
+         */
+        synchronized void complete(final int jobExitValue) {
+            if (this.done.getCount() == 0) {
+                return;
+            }
+            this.exitValue = jobExitValue;
+            ScheduledFuture<?> scheduledTimeout = this.timeout;
+            if (scheduledTimeout != null) {
+                scheduledTimeout.cancel(false);
+            }
+            this.done.countDown();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            try {
+                this.done.await();
+            } catch (InterruptedException ex) {
+                this.destroy();
+                throw ex;
+            }
+            return this.exitValue;
+        }
+
+        @Override
+        public void destroy() {
+            if (this.done.getCount() == 0) {
+                return;
+            }
+            kill();
+            Future<?> running = this.future;
+            if (running != null) {
+                running.cancel(true);
+            }
+            this.complete(-1);
+        }
+
+        @Override
+        public boolean isTimedOut() {
+            return this.timedOut;
+        }
+
+        @Override
+        public String getStderrTail(final int maxLines) {
+            return this.stderr.getTail(maxLines);
+        }
+    }
+
+    /**
+     * Splits the text a job writes into lines and passes them to the run.
+     */
+    private static class LineWriter extends Writer {
+        /** The run the lines are passed to. */
+        private final JythonRun run;
+        /** The current, unfinished line. */
+        private final StringBuilder line;
+
+        /**
+         * Create a new LineWriter.
+         *
+         * @param run the run the lines are passed to
+         */
+        LineWriter(final JythonRun run) {
+            this.run = run;
+            this.line = new StringBuilder();
+        }
+
+        @Override
+        public synchronized void write(final char[] chars, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                char c = chars[i];
+                if (c == '\n') {
+                    this.run.line(this.line.toString());
+                    this.line.setLength(0);
+                } else if (c != '\r' && this.line.length() < MAX_LINE_LENGTH) {
+                    this.line.append(c);
+                }
+            }
+        }
+
+        /**
+         * Pass the unfinished line to the run, if there is one.
+         */
+        synchronized void flushLine() {
+            if (this.line.length() > 0) {
+                this.run.line(this.line.toString());
+                this.line.setLength(0);
+            }
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() {
+            this.flushLine();
+        }
+    }
+}
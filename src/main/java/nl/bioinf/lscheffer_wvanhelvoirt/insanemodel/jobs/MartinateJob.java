@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.MartinateSimulationBuilder;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * This class contains everything needed for one martinate request. All state of the request lives in the job
+ * instead of in the servlet, because one servlet instance handles all requests at the same time.
+ * Like a SimulationJob, a martinate job has its own id and its own output folder named after that id.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class MartinateJob implements Callable<Integer> {
+    /** The unique id of this job. */
+    private final String id;
+    /** The settings given by the user. */
+    private final JSONObject settings;
+    /** The absolute(!) path to the input file, or null if no file was given. */
+    private final String infilePath;
+    /** The folder all output files of this job are written to. */
+    private final File outputDir;
+    /** The error messages of this job. */
+    private final LinkedList errorMessages;
+    /** The engine running martinate.sh. */
+    private final SimulationEngine engine;
+
+    /**
+     * Create a new MartinateJob.
+     *
+     * @param id         the unique id of this job
+     * @param settings   JSONObject containing all settings
+     * @param infilePath the absolute(!) path to the input file, or null if no file was given
+     * @param engine     the engine running martinate.sh
+     */
+    public MartinateJob(final String id, final JSONObject settings, final String infilePath,
+                        final SimulationEngine engine) {
+        this.id = id;
+        this.settings = settings;
+        this.infilePath = infilePath;
+        this.outputDir = new File(ConfigurationPaths.getAbsoluteOutFilePath(id));
+        this.errorMessages = new LinkedList();
+        this.engine = engine;
+    }
+
+    /**
+     * Run martinate.sh and wait for it to exit.
+     *
+     * @return the exit value of martinate.sh
+     * @throws IOException          if an I/O error occurs
+     * @throws InterruptedException if the thread is interrupted while waiting for martinate
+     */
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        if (!this.outputDir.exists()) {
+            this.outputDir.mkdirs();
+        }
+        MartinateSimulationBuilder martinateBuild = new MartinateSimulationBuilder(this.settings,
+                this.infilePath,
+                this.outputDir.getPath(),
+                ConfigurationPaths.getPathToMartinate());
+
+        SimulationRun process = this.engine.start(martinateBuild, null);
+        int exitValue = process.waitFor();
+        if (process.isTimedOut()) {
+            this.errorMessages.add("martinate took longer than " + martinateBuild.getWallClockLimitSeconds()
+                    + " seconds and has been stopped.");
+        }
+        if (exitValue != 0) {
+            this.errorMessages.add("The last output of martinate was:\n"
+                    + process.getStderrTail(SimulationProcess.MAX_TAIL_LINES));
+        }
+        return exitValue;
+    }
+
+    /**
+     * Get the unique id of this job.
+     *
+     * @return the id
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * Get the folder all output files of this job are written to.
+     *
+     * @return the output folder
+     */
+    public File getOutputDir() {
+        return this.outputDir;
+    }
+
+    /**
+     * Get the error messages of this job.
+     *
+     * @return List containing the error messages
+     */
+    public List<String> getErrorMessages() {
+        return this.errorMessages;
+    }
+}
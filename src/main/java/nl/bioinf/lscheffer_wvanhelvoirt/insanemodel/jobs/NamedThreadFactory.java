@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so they are recognizable in thread dumps and do not keep the JVM running.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+class NamedThreadFactory implements ThreadFactory {
+    /** The prefix of the thread names. */
+    private final String prefix;
+    /** The number of the next thread. */
+    private final AtomicInteger count = new AtomicInteger(1);
+
+    /**
+     * Create a new NamedThreadFactory.
+     *
+     * @param prefix the prefix of the thread names
+     */
+    NamedThreadFactory(final String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, this.prefix + this.count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
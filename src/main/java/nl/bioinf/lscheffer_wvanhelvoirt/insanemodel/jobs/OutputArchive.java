@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class writes the zip archive of all output files of a job (insane_model.zip) straight to a stream, when the
+ * user asks for it. Most users never download the archive, so it is not made after every simulation, and it never
+ * touches the disk: the DownloadServlet streams it into the response. The entries are compressed on all cores, so
+ * the archive of a large grid, with a .gro file of hundreds of megabytes, is not held up by a single Deflater.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class OutputArchive {
+    /** The name under which the archive is downloaded. */
+    public static final String FILE_NAME = "insane_model.zip";
+    /** The folder inside the archive the output files are put in. */
+    private static final String ENTRY_FOLDER = "insane_model/";
+    /** The size of the buffers used to read the files and to write the archive. */
+    private static final int BUFFER_BYTES = 256 * 1024;
+    /** The total file size from which the archive needs the zip64 extensions, with room for headers. */
+    private static final long MAX_PLAIN_ZIP_BYTES = 0xF0000000L;
+    /** The signature of a local file header. */
+    private static final long LOCAL_HEADER_SIGNATURE = 0x04034b50L;
+    /** The signature of a data descriptor. */
+    private static final long DATA_DESCRIPTOR_SIGNATURE = 0x08074b50L;
+    /** The signature of a central directory header. */
+    private static final long CENTRAL_HEADER_SIGNATURE = 0x02014b50L;
+    /** The signature of the end of central directory record. */
+    private static final long END_SIGNATURE = 0x06054b50L;
+    /** The zip version needed to extract deflated entries. */
+    private static final int VERSION = 20;
+    /** The general purpose flags: sizes in a data descriptor (bit 3) and UTF-8 names (bit 11). */
+    private static final int FLAGS = 0x0808;
+
+    /** The files in the archive, sorted by name. */
+    private final List<File> files;
+
+    /**
+     * Create a new OutputArchive of the files in the given output folder.
+     *
+     * @param outputDir the output folder of a job
+     */
+    public OutputArchive(final File outputDir) {
+        this.files = new ArrayList();
+        File[] listOfFiles = outputDir.listFiles();
+        if (listOfFiles != null) {
+            Arrays.sort(listOfFiles);
+            for (File file : listOfFiles) {
+                // an archive made by an older version may still be there, and the compressed copies, the reduced
+                // model and the tiles of the output are only there to be sent to browsers, none of them is archived
+                if (file.isFile() && !file.getName().equals(FILE_NAME)
+                        && !file.getName().endsWith(SimulationJob.GZIP_SUFFIX)
+                        && !file.getName().equals(SimulationJob.REDUCED_OUTPUT_FILE)
+                        && !file.getName().equals(SimulationJob.TILES_FILE)) {
+                    this.files.add(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether there is anything to archive.
+     *
+     * @return boolean whether the output folder has files
+     */
+    public boolean isEmpty() {
+        return this.files.isEmpty();
+    }
+
+    /**
+     * Get the time the newest file in the archive was last modified.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        long lastModified = 0;
+        for (File file : this.files) {
+            lastModified = Math.max(lastModified, file.lastModified());
+        }
+        return lastModified;
+    }
+
+    /**
+     * Get a validator of the archive that changes when a file in it changes. The bytes of the archive itself are not
+     * known until it is written, so the validator is weak.
+     *
+     * @return the weak ETag of the archive
+     */
+    public String getETag() {
+        int hash = 1;
+        for (File file : this.files) {
+            hash = 31 * hash + file.getName().hashCode();
+            hash = 31 * hash + Long.valueOf(file.length()).hashCode();
+            hash = 31 * hash + Long.valueOf(file.lastModified()).hashCode();
+        }
+        return "W/\"zip-" + Integer.toHexString(hash) + "\"";
+    }
+
+    /**
+     * Write the archive to the given stream. The entries are compressed on all cores with a ParallelDeflater. An
+     * archive too large for the plain zip format is written with a ZipOutputStream instead, which adds the zip64
+     * extensions. The stream is not closed.
+     *
+     * @param out the stream to write the archive to
+     * @throws IOException if a file can not be read or the stream can not be written
+     */
+    public void write(final OutputStream out) throws IOException {
+        long totalBytes = 0;
+        for (File file : this.files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes >= MAX_PLAIN_ZIP_BYTES) {
+            this.writeZip64(out);
+            return;
+        }
+
+        CountingOutputStream zout = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_BYTES));
+        ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        ParallelDeflater deflater = new ParallelDeflater(Deflater.DEFAULT_COMPRESSION);
+        for (File file : this.files) {
+            byte[] name = (ENTRY_FOLDER + file.getName()).getBytes(StandardCharsets.UTF_8);
+            long dosTime = OutputArchive.toDosTime(file.lastModified());
+            long headerOffset = zout.getCount();
+
+            // local file header, the sizes and CRC follow the data in a data descriptor
+            writeInt(zout, LOCAL_HEADER_SIGNATURE);
+            writeShort(zout, VERSION);
+            writeShort(zout, FLAGS);
+            writeShort(zout, ZipEntry.DEFLATED);
+            writeInt(zout, dosTime);
+            writeInt(zout, 0);
+            writeInt(zout, 0);
+            writeInt(zout, 0);
+            writeShort(zout, name.length);
+            writeShort(zout, 0);
+            zout.write(name);
+
+            try (InputStream in = new FileInputStream(file)) {
+                deflater.deflate(in, zout);
+            }
+
+            writeInt(zout, DATA_DESCRIPTOR_SIGNATURE);
+            writeInt(zout, deflater.getCrc());
+            writeInt(zout, deflater.getCompressedSize());
+            writeInt(zout, deflater.getSize());
+
+            writeInt(centralDirectory, CENTRAL_HEADER_SIGNATURE);
+            writeShort(centralDirectory, VERSION);
+            writeShort(centralDirectory, VERSION);
+            writeShort(centralDirectory, FLAGS);
+            writeShort(centralDirectory, ZipEntry.DEFLATED);
+            writeInt(centralDirectory, dosTime);
+            writeInt(centralDirectory, deflater.getCrc());
+            writeInt(centralDirectory, deflater.getCompressedSize());
+            writeInt(centralDirectory, deflater.getSize());
+            writeShort(centralDirectory, name.length);
+            // no extra field, no comment, disk 0, no attributes
+            writeShort(centralDirectory, 0);
+            writeShort(centralDirectory, 0);
+            writeShort(centralDirectory, 0);
+            writeShort(centralDirectory, 0);
+            writeInt(centralDirectory, 0);
+            writeInt(centralDirectory, headerOffset);
+            centralDirectory.write(name);
+        }
+
+        long centralDirectoryOffset = zout.getCount();
+        centralDirectory.writeTo(zout);
+        writeInt(zout, END_SIGNATURE);
+        writeShort(zout, 0);
+        writeShort(zout, 0);
+        writeShort(zout, this.files.size());
+        writeShort(zout, this.files.size());
+        writeInt(zout, centralDirectory.size());
+        writeInt(zout, centralDirectoryOffset);
+        writeShort(zout, 0);
+        zout.flush();
+    }
+
+    /**
+     * Write the archive with a ZipOutputStream, on one core. The stream is not closed.
+     *
+     * @param out the stream to write the archive to
+     * @throws IOException if a file can not be read or the stream can not be written
+     */
+    private void writeZip64(final OutputStream out) throws IOException {
+        ZipOutputStream zout = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_BYTES));
+        byte[] buffer = new byte[BUFFER_BYTES];
+        for (File file : this.files) {
+            ZipEntry entry = new ZipEntry(ENTRY_FOLDER + file.getName());
+            entry.setTime(file.lastModified());
+            zout.putNextEntry(entry);
+            try (InputStream in = new FileInputStream(file)) {
+                int length;
+                while ((length = in.read(buffer)) >= 0) {
+                    zout.write(buffer, 0, length);
+                }
+            }
+            zout.closeEntry();
+        }
+        // finish writes the central directory and flushes, without closing the response stream
+        zout.finish();
+        zout.flush();
+    }
+
+    /**
+     * Convert a time to the MS-DOS date and time format of zip files.
+     *
+     * @param millis the time in milliseconds since the epoch
+     * @return       the date in the high and the time in the low 16 bits
+     */
+    private static long toDosTime(final long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980L) << 25) | ((calendar.get(Calendar.MONTH) + 1L) << 21)
+                | ((long) calendar.get(Calendar.DAY_OF_MONTH) << 16) | ((long) calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | ((long) calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * Write a 16 bit little endian value.
+     *
+     * @param out   the stream to write to
+     * @param value the value
+     * @throws IOException if the stream can not be written
+     */
+    private static void writeShort(final OutputStream out, final int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    /**
+     * Write a 32 bit little endian value.
+     *
+     * @param out   the stream to write to
+     * @param value the value, only the low 32 bits are written
+     * @throws IOException if the stream can not be written
+     */
+    private static void writeInt(final OutputStream out, final long value) throws IOException {
+        writeShort(out, (int) (value & 0xffff));
+        writeShort(out, (int) ((value >>> 16) & 0xffff));
+    }
+
+    /**
+     * An output stream counting the bytes written through it, to know the offsets of the zip entries.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        /** The amount of bytes written. */
+        private long count;
+
+        /**
+         * Create a new CountingOutputStream.
+         *
+         * @param out the stream to write to
+         */
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+            this.count = 0;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+        /**
+         * Get the amount of bytes written.
+         *
+         * @return the byte count
+         */
+        long getCount() {
+            return this.count;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the output folders of finished jobs (in userOutputFiles) for as long as the disk allows, instead
+ * of deleting them together with the session of the user. Every folder is tracked with its size and the last time
+ * it was used, and folders are evicted least recently used first when:
+ *
+ * - they have not been used for longer than the time to live,
+ * - the folders together use more than the byte budget,
+ * - or the volume has less free space left than the minimum.
+ *
+ * Folders of jobs that are still running are not tracked, but no new job is accepted while the volume is low on
+ * space and nothing is left to evict (see makeRoom()).
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class OutputStore {
+    /** The folder containing the output folders, named after the job ids. */
+    private final File outputRoot;
+    /** The maximum amount of bytes all tracked folders may use together. */
+    private final long maxBytes;
+    /** The time in milliseconds a folder is kept after it was last used. */
+    private final long timeToLiveMillis;
+    /** The minimum amount of free bytes on the volume of the output folders. */
+    private final long minFreeBytes;
+    /** The tracked folders by job id, least recently used first. */
+    private final LinkedHashMap<String, Entry> entries;
+    /** The amount of bytes all tracked folders use together. */
+    private long totalBytes;
+
+    /**
+     * Create a new OutputStore, and start tracking the output folders of finished jobs that are already there (from
+     * before a restart) as if they were last used when they were last modified. The folders of jobs that did not
+     * finish are not tracked, they are orphans.
+     *
+     * @param outputRoot       the folder containing the output folders
+     * @param maxBytes         the maximum amount of bytes all tracked folders may use together
+     * @param timeToLiveMillis the time in milliseconds a folder is kept after it was last used
+     * @param minFreeBytes     the minimum amount of free bytes on the volume
+     */
+    public OutputStore(final File outputRoot, final long maxBytes, final long timeToLiveMillis,
+                       final long minFreeBytes) {
+        this.outputRoot = outputRoot;
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.minFreeBytes = minFreeBytes;
+        // access order: every get() moves the entry to the end
+        this.entries = new LinkedHashMap(16, 0.75f, true);
+        this.totalBytes = 0;
+
+        File[] folders = outputRoot.listFiles();
+        if (folders != null) {
+            Arrays.sort(folders, new Comparator<File>() {
+                @Override
+                public int compare(final File first, final File second) {
+                    return Long.compare(first.lastModified(), second.lastModified());
+                }
+            });
+            for (File folder : folders) {
+                if (new File(folder, SimulationJob.INSANE_OUTPUT_FILE).isFile()) {
+                    this.put(folder.getName(), FileUtils.sizeOfDirectory(folder), folder.lastModified());
+                }
+            }
+        }
+    }
+
+    /**
+     * Start tracking the output folder of the given job, now that the job is done.
+     *
+     * @param id the job id
+     */
+    public void add(final String id) {
+        File folder = new File(this.outputRoot, id);
+        if (folder.isDirectory()) {
+            this.put(id, FileUtils.sizeOfDirectory(folder), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Track a folder as most recently used.
+     *
+     * @param id               the job id
+     * @param bytes            the size of the folder
+     * @param lastAccessMillis the last time the folder was used
+     */
+    private synchronized void put(final String id, final long bytes, final long lastAccessMillis) {
+        Entry oldEntry = this.entries.put(id, new Entry(bytes, lastAccessMillis));
+        if (oldEntry != null) {
+            this.totalBytes -= oldEntry.bytes;
+        }
+        this.totalBytes += bytes;
+    }
+
+    /**
+     * Remember that the output of the given job has just been used, so it is evicted last.
+     *
+     * @param id the job id
+     */
+    public synchronized void touch(final String id) {
+        Entry entry = this.entries.get(id);
+        if (entry != null) {
+            entry.lastAccessMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Tells whether the output folder of the given job is tracked.
+     *
+     * @param id the job id
+     * @return   boolean whether the output is kept by this store
+     */
+    public synchronized boolean contains(final String id) {
+        return this.entries.containsKey(id);
+    }
+
+    /**
+     * Stop tracking the output folder of the given job, without deleting it.
+     *
+     * @param id the job id
+     */
+    public synchronized void remove(final String id) {
+        Entry entry = this.entries.remove(id);
+        if (entry != null) {
+            this.totalBytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * Delete the output folders that have not been used for longer than the time to live, and the least recently
+     * used folders while the budget is exceeded or the volume is low on space.
+     *
+     * @return the ids of the jobs whose output has been deleted
+     */
+    public synchronized List<String> evict() {
+        List<String> evicted = new LinkedList();
+        long oldest = System.currentTimeMillis() - this.timeToLiveMillis;
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getValue().lastAccessMillis >= oldest && this.totalBytes <= this.maxBytes
+                    && !this.isLowOnSpace()) {
+                // the entries are least recently used first, so all others are more recent
+                break;
+            }
+            iterator.remove();
+            this.totalBytes -= entry.getValue().bytes;
+            this.delete(entry.getKey());
+            evicted.add(entry.getKey());
+        }
+        return evicted;
+    }
+
+    /**
+     * Evict output folders until the volume has enough free space for a new job.
+     *
+     * @return boolean whether the volume has enough free space, false if it is still low after evicting everything
+     */
+    public synchronized boolean makeRoom() {
+        this.evict();
+        return !this.isLowOnSpace();
+    }
+
+    /**
+     * Tells whether the volume of the output folders has less free space than the minimum.
+     *
+     * @return boolean whether the volume is low on space
+     */
+    private boolean isLowOnSpace() {
+        // 0 means the volume could not be queried, in which case the budget alone has to do
+        long usableBytes = this.outputRoot.getUsableSpace();
+        return usableBytes > 0 && usableBytes < this.minFreeBytes;
+    }
+
+    /**
+     * Delete the output folder of the given job.
+     *
+     * @param id the job id
+     */
+    private void delete(final String id) {
+        try {
+            FileUtils.deleteDirectory(new File(this.outputRoot, id));
+        } catch (IOException ex) {
+            Logger.getLogger(OutputStore.class.getName()).log(Level.WARNING,
+                    "Could not delete the output of job " + id, ex);
+        }
+    }
+
+    /**
+     * Get the amount of bytes all tracked folders use together.
+     *
+     * @return the amount of bytes
+     */
+    public synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    /**
+     * The size and last use of one tracked folder.
+     */
+    private static class Entry {
+        /** The size of the folder in bytes. */
+        private final long bytes;
+        /** The last time the folder was used, in milliseconds since the epoch. */
+        private long lastAccessMillis;
+
+        /**
+         * Create a new Entry.
+         *
+         * @param bytes            the size of the folder in bytes
+         * @param lastAccessMillis the last time the folder was used
+         */
+        Entry(final long bytes, final long lastAccessMillis) {
+            this.bytes = bytes;
+            this.lastAccessMillis = lastAccessMillis;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This class compresses a stream to raw deflate data on all cores, like pigz does. The input is split into chunks
+ * that are compressed independently on a fork/join pool, each with the last 32 KB of the chunk before it as
+ * dictionary, so the compression ratio stays close to that of a single Deflater. Every chunk but the last ends with a
+ * sync flush, which ends on a byte boundary, so the compressed chunks can simply be written one after the other and
+ * form one standard deflate stream. That stream can be put in a zip entry, or in a gzip file with gzip().
+ *
+ * The CRC of the input is computed on the calling thread while the chunks are compressed. At most a few chunks per
+ * core are in memory at the same time.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+class ParallelDeflater {
+    /** The size of the chunks the input is split into. */
+    private static final int CHUNK_BYTES = 128 * 1024;
+    /** The size of the deflate window, the dictionary of a chunk is the end of the chunk before it. */
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+    /** The pool compressing the chunks, shared by all archives. Its threads are daemon threads. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(ConfigurationSettings.getCompressThreads());
+
+    /** The compression level. */
+    private final int level;
+
+    /** The CRC-32 of the input of the last deflate() call. */
+    private long crc;
+    /** The amount of input bytes of the last deflate() call. */
+    private long size;
+    /** The amount of compressed bytes written by the last deflate() call. */
+    private long compressedSize;
+
+    /**
+     * Create a new ParallelDeflater.
+     *
+     * @param level the compression level, see Deflater
+     */
+    ParallelDeflater(final int level) {
+        this.level = level;
+    }
+
+    /**
+     * Compress the input to raw deflate data (without zlib or gzip header). Afterwards getCrc(), getSize() and
+     * getCompressedSize() describe the input and the output. Neither stream is closed.
+     *
+     * @param in  the input to compress
+     * @param out the stream the deflate data is written to
+     * @throws IOException if the input can not be read or the output can not be written
+     */
+    void deflate(final InputStream in, final OutputStream out) throws IOException {
+        CRC32 checksum = new CRC32();
+        Deque<Future<byte[]>> pending = new ArrayDeque();
+        int maxPending = 2 * POOL.getParallelism();
+        this.size = 0;
+        this.compressedSize = 0;
+
+        byte[] dictionary = null;
+        byte[] chunk = this.readChunk(in);
+        try {
+            while (true) {
+                // read one chunk ahead, the last chunk is finished instead of flushed
+                byte[] nextChunk = chunk.length < CHUNK_BYTES ? new byte[0] : this.readChunk(in);
+                boolean last = nextChunk.length == 0;
+                checksum.update(chunk, 0, chunk.length);
+                this.size += chunk.length;
+                pending.add(POOL.submit(new ChunkTask(chunk, dictionary, last)));
+                while (pending.size() >= maxPending || (last && !pending.isEmpty())) {
+                    this.write(pending.poll(), out);
+                }
+                if (last) {
+                    break;
+                }
+                dictionary = Arrays.copyOfRange(chunk, Math.max(0, chunk.length - DICTIONARY_BYTES), chunk.length);
+                chunk = nextChunk;
+            }
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+        }
+        this.crc = checksum.getValue();
+    }
+
+    /**
+     * Compress the input to a gzip file (a single gzip member). Neither stream is closed.
+     *
+     * @param in  the input to compress
+     * @param out the stream the gzip data is written to
+     * @throws IOException if the input can not be read or the output can not be written
+     */
+    void gzip(final InputStream in, final OutputStream out) throws IOException {
+        // magic, deflate, no flags, no modification time, no extra flags, unknown operating system
+        out.write(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+        this.deflate(in, out);
+        for (long value : new long[] {this.crc, this.size}) {
+            // little endian, the size modulo 2^32
+            out.write((int) value & 0xff);
+            out.write((int) (value >>> 8) & 0xff);
+            out.write((int) (value >>> 16) & 0xff);
+            out.write((int) (value >>> 24) & 0xff);
+        }
+    }
+
+    /**
+     * Read the next chunk of the input.
+     *
+     * @param in the input
+     * @return   the chunk, shorter than CHUNK_BYTES only at the end of the input
+     * @throws IOException if the input can not be read
+     */
+    private byte[] readChunk(final InputStream in) throws IOException {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        int filled = 0;
+        int length;
+        while (filled < chunk.length && (length = in.read(chunk, filled, chunk.length - filled)) >= 0) {
+            filled += length;
+        }
+        return filled == chunk.length ? chunk : Arrays.copyOf(chunk, filled);
+    }
+
+    /**
+     * Wait for a compressed chunk and write it.
+     *
+     * @param future the compression of the chunk
+     * @param out    the stream to write the chunk to
+     * @throws IOException if the chunk can not be written, or compressing it failed
+     */
+    private void write(final Future<byte[]> future, final OutputStream out) throws IOException {
+        try {
+            byte[] compressed = future.get();
+            out.write(compressed);
+            this.compressedSize += compressed.length;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException ex) {
+            throw new IOException("Could not compress a chunk", ex.getCause());
+        }
+    }
+
+    /**
+     * Get the CRC-32 of the input of the last deflate() call.
+     *
+     * @return the CRC-32
+     */
+    long getCrc() {
+        return this.crc;
+    }
+
+    /**
+     * Get the amount of input bytes of the last deflate() call.
+     *
+     * @return the uncompressed size
+     */
+    long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Get the amount of compressed bytes written by the last deflate() call.
+     *
+     * @return the compressed size
+     */
+    long getCompressedSize() {
+        return this.compressedSize;
+    }
+
+    /**
+     * Compresses one chunk.
+     */
+    private class ChunkTask implements Callable<byte[]> {
+        /** The input of the chunk. */
+        private final byte[] chunk;
+        /** The end of the chunk before this one, or null for the first chunk. */
+        private final byte[] dictionary;
+        /** Whether this is the last chunk, which ends the deflate stream. */
+        private final boolean last;
+
+        /**
+         * Create a new ChunkTask.
+         *
+         * @param chunk      the input of the chunk
+         * @param dictionary the end of the chunk before this one, or null for the first chunk
+         * @param last       whether this is the last chunk
+         */
+        ChunkTask(final byte[] chunk, final byte[] dictionary, final boolean last) {
+            this.chunk = chunk;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call() {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (this.dictionary != null) {
+                    deflater.setDictionary(this.dictionary);
+                }
+                deflater.setInput(this.chunk);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(this.chunk.length / 3 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                if (this.last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        compressed.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // a sync flush ends on a byte boundary, so the next chunk can follow directly
+                    int length;
+                    do {
+                        length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        compressed.write(buffer, 0, length);
+                    } while (length == buffer.length);
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class fills the result cache when the web application starts, with the simulations of the default settings of
+ * the page and of the featured presets in json/options.json. The first request of the day and the most common
+ * requests are then served from the cache instead of waiting for insane.
+ * Only presets with a fixed seed (given by the preset or the default seed) are run, the others give a new model on
+ * every request and can not be served from the cache.
+ *
+ * The warm-up has a low priority. It submits one simulation at a time through the JobManager as background work, so
+ * it is subject to the same queue limit as the users, and only when the SimulationExecutor is idle. The processes of
+ * the simulation run with a high niceness (with the process engine, the shared processes of the worker engine and
+ * the threads of the jython engine keep their priority). As soon as a user has to wait for a free worker, the running
+ * warm-up simulation is cancelled, and tried again when the executor is idle again. A user requesting the same
+ * simulation while it runs waits for it instead of starting another one.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class PresetWarmUp implements Runnable {
+    /** The time in milliseconds between two checks whether the executor is idle. */
+    private static final long IDLE_POLL_MILLIS = 1000;
+
+    /** The job manager running the simulations. */
+    private final JobManager jobManager;
+    /** The executor that has to be idle before a simulation starts. */
+    private final SimulationExecutor executor;
+    /** The settings of every simulation to run, the default settings first. */
+    private final List<JSONObject> presets;
+
+    /**
+     * Create a new PresetWarmUp.
+     *
+     * @param jobManager the job manager running the simulations
+     * @param executor   the executor that has to be idle before a simulation starts
+     * @param presets    the settings of every simulation to run
+     */
+    public PresetWarmUp(final JobManager jobManager, final SimulationExecutor executor,
+                        final List<JSONObject> presets) {
+        this.jobManager = jobManager;
+        this.executor = executor;
+        this.presets = presets;
+    }
+
+    /**
+     * Read the settings to warm up from options.json: the default value of every input, as the page posts them when
+     * the user changes nothing, and every featured preset (the defaults with the settings of the preset on top).
+     *
+     * @param optionsJson the contents of options.json
+     * @return            the settings of every simulation to run, the default settings first
+     * @throws IOException    if options.json can not be read
+     * @throws ParseException if options.json is not valid JSON
+     */
+    public static List<JSONObject> readPresets(final InputStream optionsJson) throws IOException, ParseException {
+        JSONArray options;
+        try (Reader reader = new InputStreamReader(optionsJson, StandardCharsets.UTF_8)) {
+            options = (JSONArray) new JSONParser().parse(reader);
+        }
+
+        // [general texts, menus, featured presets], every menu has inputs with an id and a default
+        JSONObject defaults = new JSONObject();
+        for (Object menu : (JSONArray) options.get(1)) {
+            for (Object input : (JSONArray) ((JSONObject) menu).get("inputs")) {
+                JSONObject inputObject = (JSONObject) input;
+                if (inputObject.get("default") != null) {
+                    defaults.put(inputObject.get("id"), inputObject.get("default"));
+                }
+            }
+        }
+
+        List<JSONObject> presets = new LinkedList();
+        presets.add(defaults);
+        if (options.size() > 2) {
+            for (Object preset : (JSONArray) options.get(2)) {
+                JSONObject settings = new JSONObject();
+                settings.putAll(defaults);
+                settings.putAll((JSONObject) ((JSONObject) preset).get("settings"));
+                presets.add(settings);
+            }
+        }
+        return presets;
+    }
+
+    /**
+     * Run the simulation of every preset that is not cached yet, one at a time, whenever the executor is idle.
+     */
+    @Override
+    public void run() {
+        if (this.jobManager.getResultCache() == null) {
+            return;
+        }
+        try {
+            for (JSONObject settings : this.presets) {
+                SimulationJob job;
+                do {
+                    job = new SimulationJob(this.jobManager.createJobId(), settings, null, false,
+                            this.jobManager.getEngine(), this.jobManager.getResultCache());
+                    if (!job.hasFixedSeed()) {
+                        break;
+                    }
+                    this.waitUntilIdle();
+                } while (!this.runInBackground(job));
+                Logger.getLogger(PresetWarmUp.class.getName()).log(Level.INFO, "Warm-up simulation "
+                        + job.getId() + " is " + job.getStatus());
+            }
+        } catch (InterruptedException ex) {
+            // the web application is shutting down
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until no simulation is running or waiting for a free worker.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void waitUntilIdle() throws InterruptedException {
+        while (!this.executor.isIdle()) {
+            Thread.sleep(IDLE_POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Submit the given job as background work and wait until it is done. The job is cancelled as soon as a user has
+     * to wait for a free worker.
+     *
+     * @param job the job to run
+     * @return    boolean whether the job is done, false if it has been rejected or has given way to a user
+     * @throws InterruptedException if the thread is interrupted while waiting, the job is cancelled then
+     */
+    private boolean runInBackground(final SimulationJob job) throws InterruptedException {
+        try {
+            this.jobManager.submitInBackground(job);
+        } catch (RejectedExecutionException ex) {
+            // the queue or the disk is full, try again later
+            Thread.sleep(IDLE_POLL_MILLIS);
+            return false;
+        }
+        try {
+            while (!job.getStatus().isDone()) {
+                Thread.sleep(IDLE_POLL_MILLIS);
+                if (this.executor.getQueueDepth() > 0 && job.cancel()) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException ex) {
+            job.cancel();
+            throw ex;
+        }
+        return job.getStatus() != JobStatus.CANCELLED;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.SimulationBuilder;
+
+import java.io.IOException;
+
+/**
+ * This engine starts a new process for every run. It can run every simulation program.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class ProcessEngine implements SimulationEngine {
+
+    @Override
+    public SimulationRun start(final SimulationBuilder builder, final StreamPump.LineListener stderrListener)
+            throws IOException {
+        return new SimulationProcess(builder, stderrListener);
+    }
+
+    @Override
+    public void shutdown() { }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * This class recognizes the progress messages insane.py and martinize.py print on stderr.
+ * Every recognized message is mapped to the fraction of the stage that is done when the message is printed.
+ * The fractions are rough estimates based on which parts of the programs take the most time.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public final class ProgressParser {
+    /** The progress parser for insane.py. */
+    private static final ProgressParser INSANE = new ProgressParser();
+    /** The progress parser for martinize.py. */
+    private static final ProgressParser MARTINIZE = new ProgressParser();
+    static {
+        // insane: the lipid grid is set up, the lipids are placed, the solvent is added and the output is written
+        INSANE.addRule("^; Making a hole", 0.1);
+        INSANE.addRule("^; X: .* in upper leaflet", 0.15);
+        INSANE.addRule("^; X: .* in lower leaflet", 0.2);
+        INSANE.addRule("^; \\d+ lipids in upper leaflet", 0.3);
+        INSANE.addRule("^; NDX Solute", 0.4);
+        INSANE.addRule("^; NDX Membrane", 0.5);
+        INSANE.addRule("^; NDX Solvent", 0.85);
+        INSANE.addRule("^; NDX System", 0.9);
+        // martinize: the structure is read, the chains are analysed, and the structure and topologies are written
+        MARTINIZE.addRule("MARTINIZE, script version", 0.05);
+        MARTINIZE.addRule("Read input structure", 0.1);
+        MARTINIZE.addRule("Found \\d+ chains", 0.2);
+        MARTINIZE.addRule("Total size of the system", 0.3);
+        MARTINIZE.addRule("[Ss]econdary structure", 0.4);
+        MARTINIZE.addRule("Writing coarse grained structure", 0.6);
+        MARTINIZE.addRule("Writing index file", 0.7);
+        MARTINIZE.addRule("Checking for cystine bridges", 0.75);
+        MARTINIZE.addRule("Written \\d+ ITP file", 0.9);
+        MARTINIZE.addRule("Output contains \\d+ molecules", 0.95);
+    }
+
+    /** The recognized messages, in the order they are tested, with the progress they stand for. */
+    private final Map<Pattern, Double> rules;
+
+    private ProgressParser() {
+        this.rules = new LinkedHashMap();
+    }
+
+    /**
+     * Get the progress parser for insane.py.
+     *
+     * @return the insane progress parser
+     */
+    public static ProgressParser forInsane() {
+        return ProgressParser.INSANE;
+    }
+
+    /**
+     * Get the progress parser for martinize.py.
+     *
+     * @return the martinize progress parser
+     */
+    public static ProgressParser forMartinize() {
+        return ProgressParser.MARTINIZE;
+    }
+
+    /**
+     * Add a recognized message.
+     *
+     * @param regex    the regular expression the message should contain
+     * @param progress the fraction of the stage that is done when the message is printed
+     */
+    private void addRule(final String regex, final double progress) {
+        this.rules.put(Pattern.compile(regex), progress);
+    }
+
+    /**
+     * Get the progress the given line stands for.
+     *
+     * @param line a line printed by the simulation program
+     * @return     the fraction of the stage that is done, or -1 if the line is not a progress message
+     */
+    public double parse(final String line) {
+        for (Map.Entry<Pattern, Double> rule : this.rules.entrySet()) {
+            if (rule.getKey().matcher(line).find()) {
+                return rule.getValue();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.SimulationBuilder;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class manages one worker.py process, a long-lived Python interpreter that has compiled insane.py or
+ * martinize.py once and runs it for one job at a time. The worker writes the output of its jobs and its own
+ * messages (lines starting with MARKER) to stderr, this class reads them and passes the output to the current run.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+class PythonWorker implements StreamPump.LineListener {
+    /** The start of the lines worker.py writes its own messages on. */
+    private static final String MARKER = "@@insanemodel-worker ";
+    /** The maximum time in seconds a new worker may take to compile its script. */
+    private static final long START_TIMEOUT_SECONDS = 60;
+
+    /** The absolute(!) path to the script this worker runs. */
+    private final String scriptPath;
+    /** The pool this worker belongs to. */
+    private final PythonWorkerPool pool;
+    /** The worker process. */
+    private final SimulationProcess process;
+    /** Counted down when the worker is ready for its first job, or has died. */
+    private final CountDownLatch ready;
+    /** The run that is currently using this worker, null if the worker is idle. */
+    private volatile WorkerRun currentRun;
+    /** Whether the worker process can still take jobs. */
+    private volatile boolean alive;
+    /** The amount of jobs this worker has run. */
+    private volatile int jobCount;
+    /** The peak memory use of the worker in kilobytes, as reported after its last job. */
+    private volatile long maxRssKb;
+
+    /**
+     * Start a new worker process for the given script. Use awaitReady() before giving it a job.
+     *
+     * @param scriptPath the absolute(!) path to the script the worker runs
+     * @param pool       the pool the worker belongs to
+     * @throws IOException if the worker process could not be started
+     */
+    PythonWorker(final String scriptPath, final PythonWorkerPool pool) throws IOException {
+        this.scriptPath = scriptPath;
+        this.pool = pool;
+        this.ready = new CountDownLatch(1);
+        this.alive = true;
+        this.jobCount = 0;
+        this.maxRssKb = 0;
+        this.process = new SimulationProcess(new WorkerBuilder(scriptPath), this, true);
+
+        // notice when the worker process exits, for instance because it was killed while running a job
+        pool.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                int exitValue = -1;
+                try {
+                    exitValue = process.waitFor();
+                } catch (InterruptedException ex) {
+                    process.destroy();
+                } finally {
+                    died(exitValue);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until the worker has compiled its script and is ready for a job.
+     *
+     * @throws IOException if the worker did not become ready
+     */
+    void awaitReady() throws IOException {
+        try {
+            if (this.ready.await(START_TIMEOUT_SECONDS, TimeUnit.SECONDS) && this.alive) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            this.kill();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while starting a Python worker for " + this.scriptPath);
+        }
+        this.kill();
+        throw new IOException("The Python worker for " + this.scriptPath + " did not start:\n"
+                + this.process.getStderrTail(SimulationProcess.MAX_TAIL_LINES));
+    }
+
+    /**
+     * Give this worker a job.
+     *
+     * @param arguments         the argument list of the script, starting with the path of the script itself
+     * @param stderrListener    the listener every output line of the job is passed to, or null
+     * @param wallClockSeconds  the maximum time in seconds the job may run, 0 if there is no limit
+     * @return                  the started run
+     * @throws IOException if the job could not be sent to the worker
+     */
+    synchronized SimulationRun run(final List<String> arguments, final StreamPump.LineListener stderrListener,
+                                   final int wallClockSeconds) throws IOException {
+        if (!this.alive || this.currentRun != null) {
+            throw new IOException("The Python worker for " + this.scriptPath + " can not take a job.");
+        }
+        final WorkerRun run = new WorkerRun(stderrListener);
+        this.currentRun = run;
+        this.jobCount++;
+        try {
+            OutputStream stdin = this.process.getStdin();
+            stdin.write((JSONArray.toJSONString(arguments) + "\n").getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+        } catch (IOException ex) {
+            this.currentRun = null;
+            this.kill();
+            throw ex;
+        }
+        if (wallClockSeconds > 0) {
+            run.timeout = this.pool.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    run.timedOut = true;
+                    run.destroy();
+                }
+            }, wallClockSeconds);
+        }
+        return run;
+    }
+
+    @Override
+    public void line(final String line) {
+        if (line.startsWith(MARKER)) {
+            String[] message = line.substring(MARKER.length()).trim().split("\\s+");
+            if ("READY".equals(message[0])) {
+                this.ready.countDown();
+            } else if ("DONE".equals(message[0]) && message.length == 3) {
+                this.maxRssKb = Long.parseLong(message[2]);
+                this.finishRun(Integer.parseInt(message[1]));
+            }
+            return;
+        }
+        WorkerRun run = this.currentRun;
+        if (run != null) {
+            run.line(line);
+        }
+    }
+
+    /**
+     * Finish the current run with the given exit value, and hand the worker back to the pool.
+     *
+     * @param exitValue the exit value of the job
+     */
+    private void finishRun(final int exitValue) {
+        WorkerRun run;
+        synchronized (this) {
+            run = this.currentRun;
+            this.currentRun = null;
+        }
+        if (run != null) {
+            run.complete(exitValue);
+            this.pool.release(this);
+        }
+    }
+
+    /**
+     * Called when the worker process has exited.
+     *
+     * @param exitValue the exit value of the worker process
+     */
+    private void died(final int exitValue) {
+        this.alive = false;
+        this.ready.countDown();
+        this.finishRun(exitValue == 0 ? -1 : exitValue);
+    }
+
+    /**
+     * Tells whether this worker may take another job: it is still running, has not run too many jobs and has not
+     * grown too big.
+     *
+     * @return boolean whether the worker may be reused
+     */
+    boolean isReusable() {
+        return this.alive
+                && this.jobCount < ConfigurationSettings.getWorkerMaxJobs()
+                && this.maxRssKb < ConfigurationSettings.getWorkerMaxRssMb() * 1024L;
+    }
+
+    /**
+     * Let the worker exit after its current job, by closing its stdin.
+     */
+    void retire() {
+        this.alive = false;
+        try {
+            this.process.getStdin().close();
+        } catch (IOException ex) {
+            this.process.destroy();
+        }
+    }
+
+    /**
+     * Stop the worker process right away, including the job it is running.
+     */
+    void kill() {
+        this.alive = false;
+        this.process.destroy();
+    }
+
+    /**
+     * Get the absolute(!) path to the script this worker runs.
+     *
+     * @return the script path
+     */
+    String getScriptPath() {
+        return this.scriptPath;
+    }
+
+    /**
+     * One job running on a worker.
+     */
+    private class WorkerRun implements SimulationRun {
+        /** The listener every output line of the job is passed to, or null. */
+        private final StreamPump.LineListener stderrListener;
+        /** The last output of the job. */
+        private final RingBuffer stderr;
+        /** Counted down when the job is done. */
+        private final CountDownLatch done;
+        /** The exit value of the job. */
+        private volatile int exitValue;
+        /** Whether the job has been stopped because it ran longer than its wall clock limit. */
+        private volatile boolean timedOut;
+        /** The scheduled stop of the job when it exceeds its wall clock limit, or null if there is no limit. */
+        private volatile ScheduledFuture<?> timeout;
+
+        /**
+         * Create a new WorkerRun.
+         *
+         * @param stderrListener the listener every output line of the job is passed to, or null
+         */
+        WorkerRun(final StreamPump.LineListener stderrListener) {
+            this.stderrListener = stderrListener;
+            this.stderr = new RingBuffer(ConfigurationSettings.getOutputBufferBytes());
+            this.done = new CountDownLatch(1);
+            this.exitValue = -1;
+        }
+
+        /**
+         * Keep an output line of the job and pass it to the listener.
+         *
+         * @param line the output line
+         */
+        void line(final String line) {
+            if (!line.isEmpty()) {
+                byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                this.stderr.write(bytes, 0, bytes.length);
+            }
+            if (this.stderrListener != null) {
+                this.stderrListener.line(line);
+            }
+        }
+
+        /**
+         * Mark the job as done.
+         *
+         * @param jobExitValue the exit value of the job
+         */
+        void complete(final int jobExitValue) {
+            this.exitValue = jobExitValue;
+            ScheduledFuture<?> scheduledTimeout = this.timeout;
+            if (scheduledTimeout != null) {
+                scheduledTimeout.cancel(false);
+            }
+            this.done.countDown();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            try {
+                this.done.await();
+            } catch (InterruptedException ex) {
+                this.destroy();
+                throw ex;
+            }
+            return this.exitValue;
+        }
+
+        @Override
+        public void destroy() {
+            // a job can not be stopped without stopping the interpreter it runs in
+            if (this.done.getCount() > 0) {
+                kill();
+            }
+        }
+
+        @Override
+        public boolean isTimedOut() {
+            return this.timedOut;
+        }
+
+        @Override
+        public String getStderrTail(final int maxLines) {
+            return this.stderr.getTail(maxLines);
+        }
+    }
+
+    /**
+     * Builds the command line of a worker process: the interpreter of the script, worker.py and the script.
+     */
+    private static class WorkerBuilder extends SimulationBuilder {
+
+        /**
+         * Create a new WorkerBuilder.
+         *
+         * @param scriptPath the absolute(!) path to the script the worker runs
+         * @throws IOException if the script can not be read
+         */
+        WorkerBuilder(final String scriptPath) throws IOException {
+            super(new JSONObject(), null);
+            this.arguments.addAll(WorkerBuilder.getInterpreter(scriptPath));
+            this.arguments.add(ConfigurationPaths.getPathToWorker());
+            this.arguments.add(scriptPath);
+            this.isBuildable = true;
+        }
+
+        /**
+         * Get the interpreter the script asks for on its first line (for instance '#!/usr/bin/env python'), so
+         * insane.py still runs on Python 2 and martinize.py on Python 3.
+         *
+         * @param scriptPath the absolute(!) path to the script
+         * @return           the interpreter command
+         * @throws IOException if the script can not be read
+         */
+        private static List<String> getInterpreter(final String scriptPath) throws IOException {
+            try (BufferedReader reader = new BufferedReader(new FileReader(scriptPath))) {
+                String firstLine = reader.readLine();
+                if (firstLine != null && firstLine.startsWith("#!")) {
+                    return Arrays.asList(firstLine.substring(2).trim().split("\\s+"));
+                }
+            }
+            return Arrays.asList("python");
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.SimulationBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This engine runs Python scripts (insane.py and martinize.py) on long-lived worker.py processes. Starting a Python
+ * interpreter and compiling the script takes longer than running insane for a small grid, so the workers are
+ * started in advance and reused: a run is sent to an idle worker of its script over stdin.
+ *
+ * A worker is replaced by a fresh one after a number of runs, when its memory use has grown too much, or when it is
+ * killed because its run was cancelled or timed out. Programs that are not Python scripts (martinate.sh) are run by
+ * the fallback engine.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class PythonWorkerPool implements SimulationEngine {
+    /** The engine running everything that is not a Python script. */
+    private final SimulationEngine fallback;
+    /** The idle workers of every script, by script path. */
+    private final ConcurrentMap<String, BlockingQueue<PythonWorker>> idleWorkers;
+    /** The threads starting workers in the background and noticing when workers exit. */
+    private final ExecutorService background;
+    /** The thread stopping runs that exceed their wall clock limit. */
+    private final ScheduledExecutorService timer;
+    /** Whether the pool has been shut down. */
+    private volatile boolean shutdown;
+
+    /**
+     * Create a new PythonWorkerPool.
+     *
+     * @param fallback the engine running everything that is not a Python script
+     */
+    public PythonWorkerPool(final SimulationEngine fallback) {
+        this.fallback = fallback;
+        this.idleWorkers = new ConcurrentHashMap();
+        this.background = Executors.newCachedThreadPool(new NamedThreadFactory("python-worker-"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("python-worker-timer-"));
+        this.shutdown = false;
+    }
+
+    /**
+     * Start idle workers for the given script in the background, so the first runs do not have to wait for them.
+     * There are never more idle workers per script than the amount of simulations that may run at the same time.
+     *
+     * @param scriptPath the absolute(!) path to the script
+     */
+    public void prewarm(final String scriptPath) {
+        int missing = ConfigurationSettings.getWorkerThreads() - this.getIdleWorkers(scriptPath).size();
+        for (int i = 0; i < missing; i++) {
+            this.startIdleWorker(scriptPath);
+        }
+    }
+
+    @Override
+    public SimulationRun start(final SimulationBuilder builder, final StreamPump.LineListener stderrListener)
+            throws IOException {
+        List<String> arguments = builder.getArguments();
+        if (arguments.isEmpty() || !arguments.get(0).endsWith(".py")) {
+            return this.fallback.start(builder, stderrListener);
+        }
+        String scriptPath = arguments.get(0);
+
+        PythonWorker worker = this.getIdleWorkers(scriptPath).poll();
+        if (worker != null) {
+            try {
+                return worker.run(arguments, stderrListener, builder.getWallClockLimitSeconds());
+            } catch (IOException ex) {
+                // the idle worker died, start a fresh one below
+                worker.kill();
+            }
+        }
+        // no idle worker: start one now, this run has to wait for the script to compile
+        worker = new PythonWorker(scriptPath, this);
+        worker.awaitReady();
+        return worker.run(arguments, stderrListener, builder.getWallClockLimitSeconds());
+    }
+
+    /**
+     * Take back a worker that finished a run. A worker that may not be reused is retired and replaced.
+     *
+     * @param worker the worker that finished a run
+     */
+    void release(final PythonWorker worker) {
+        if (!this.shutdown && worker.isReusable()
+                && this.getIdleWorkers(worker.getScriptPath()).offer(worker)) {
+            return;
+        }
+        worker.retire();
+        if (!this.shutdown) {
+            this.startIdleWorker(worker.getScriptPath());
+        }
+    }
+
+    /**
+     * Start a worker for the given script in the background, and make it idle when it is ready.
+     *
+     * @param scriptPath the absolute(!) path to the script
+     */
+    private void startIdleWorker(final String scriptPath) {
+        this.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PythonWorker worker = new PythonWorker(scriptPath, PythonWorkerPool.this);
+                    worker.awaitReady();
+                    if (shutdown || !getIdleWorkers(scriptPath).offer(worker)) {
+                        worker.retire();
+                    }
+                } catch (IOException ex) {
+                    Logger.getLogger(PythonWorkerPool.class.getName()).log(Level.WARNING,
+                            "Could not start a Python worker for " + scriptPath, ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the queue of idle workers of the given script.
+     *
+     * @param scriptPath the absolute(!) path to the script
+     * @return           the queue of idle workers
+     */
+    private BlockingQueue<PythonWorker> getIdleWorkers(final String scriptPath) {
+        BlockingQueue<PythonWorker> workers = this.idleWorkers.get(scriptPath);
+        if (workers == null) {
+            BlockingQueue<PythonWorker> newWorkers = new LinkedBlockingQueue(ConfigurationSettings.getWorkerThreads());
+            workers = this.idleWorkers.putIfAbsent(scriptPath, newWorkers);
+            if (workers == null) {
+                workers = newWorkers;
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Run a task on a background thread of the pool.
+     *
+     * @param task the task to run
+     */
+    void runInBackground(final Runnable task) {
+        try {
+            this.background.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // the pool has been shut down
+        }
+    }
+
+    /**
+     * Run a task once after the given delay.
+     *
+     * @param task    the task to run
+     * @param seconds the delay in seconds
+     * @return        the scheduled task, or null if the pool has been shut down
+     */
+    ScheduledFuture<?> schedule(final Runnable task, final long seconds) {
+        try {
+            return this.timer.schedule(task, seconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.shutdown = true;
+        for (BlockingQueue<PythonWorker> workers : this.idleWorkers.values()) {
+            PythonWorker worker;
+            while ((worker = workers.poll()) != null) {
+                worker.retire();
+            }
+        }
+        this.background.shutdownNow();
+        this.timer.shutdownNow();
+        this.fallback.shutdown();
+    }
+}
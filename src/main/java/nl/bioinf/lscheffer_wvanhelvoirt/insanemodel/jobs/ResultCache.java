@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class stores the output files of simulation stages on disk, by a key computed from everything the output
+ * depends on: the program, its arguments and the contents of its input file. Many users submit the same settings
+ * (the defaults of the page for instance), the output of such a request can be restored from the cache instead of
+ * running the program again. Only insane runs with a seed given by the user or the default seed are cached: the seed
+ * is part of the arguments, so the same key really means the same output. A run with a seed drawn for itself gives a
+ * new model every time and is never cached.
+ *
+ * Every entry is a folder named after its key. An entry is written to a temporary folder first and renamed when it
+ * is complete, so an entry that exists is always complete, also when several jobs store the same entry at once.
+ * Files are hard linked between the cache and the output folders of the jobs where possible, and copied otherwise.
+ *
+ * Every entry is tracked with its size, and entries are evicted least recently used first when they use more than
+ * the byte budget together, or when the volume has less free space left than the minimum.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class ResultCache {
+    /** Separates the parts of the text a key is computed from, it can not appear in a command line argument. */
+    private static final char SEPARATOR = '\0';
+    /** The characters of a hexadecimal number. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The part of the name of a folder that marks it as an entry that is being written. */
+    private static final String TEMPORARY_MARK = ".tmp-";
+
+    /** The folder the entries are stored in. */
+    private final Path cacheDir;
+    /** The maximum amount of bytes all entries may use together. */
+    private final long maxBytes;
+    /** The minimum amount of free bytes on the volume of the cache. */
+    private final long minFreeBytes;
+    /** The size in bytes of every entry by key, least recently used first. */
+    private final LinkedHashMap<String, Long> entries;
+    /** The amount of bytes all entries use together. */
+    private long totalBytes;
+
+    /**
+     * Create a new ResultCache, and start tracking the entries that are already there (from before a restart) as if
+     * they were last used when they were last modified. Entries that were not completely written are deleted.
+     *
+     * @param cacheDir     the folder the entries are stored in, it is created when the first entry is stored
+     * @param maxBytes     the maximum amount of bytes all entries may use together
+     * @param minFreeBytes the minimum amount of free bytes on the volume
+     */
+    public ResultCache(final File cacheDir, final long maxBytes, final long minFreeBytes) {
+        this.cacheDir = cacheDir.toPath();
+        this.maxBytes = maxBytes;
+        this.minFreeBytes = minFreeBytes;
+        // access order: every get() moves the entry to the end
+        this.entries = new LinkedHashMap(16, 0.75f, true);
+        this.totalBytes = 0;
+
+        File[] folders = cacheDir.listFiles();
+        if (folders != null) {
+            Arrays.sort(folders, new Comparator<File>() {
+                @Override
+                public int compare(final File first, final File second) {
+                    return Long.compare(first.lastModified(), second.lastModified());
+                }
+            });
+            for (File folder : folders) {
+                if (folder.getName().contains(TEMPORARY_MARK)) {
+                    FileUtils.deleteQuietly(folder);
+                } else if (folder.isDirectory()) {
+                    this.put(folder.getName(), FileUtils.sizeOfDirectory(folder));
+                }
+            }
+            this.evict();
+        }
+    }
+
+    /**
+     * Compute the key of the output of a program run. The arguments are made independent of the job that runs them:
+     * the program and the input file are replaced by a hash of their contents, and paths inside the output folder by
+     * their file name.
+     *
+     * @param stage      the name of the stage, keeps the keys of different programs apart
+     * @param arguments  the argument list of the program, starting with the program itself
+     * @param inputPath  the absolute(!) path to the input file, or null if there is none
+     * @param outputDir  the output folder of the job
+     * @return           the key, a hexadecimal SHA-256 hash
+     * @throws IOException if the program or the input file can not be read
+     */
+    public static String createKey(final String stage, final List<String> arguments, final String inputPath,
+                                   final File outputDir) throws IOException {
+        String outputPrefix = outputDir.getPath() + File.separator;
+        StringBuilder canonical = new StringBuilder(stage);
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i);
+            canonical.append(SEPARATOR);
+            if (i == 0) {
+                // a changed program gives different output
+                canonical.append("program:").append(ResultCache.hashFile(new File(argument)));
+            } else if (argument.equals(inputPath)) {
+                canonical.append("input:").append(ResultCache.hashFile(new File(argument)));
+            } else if (argument.startsWith(outputPrefix)) {
+                canonical.append("output:").append(argument.substring(outputPrefix.length()));
+            } else {
+                canonical.append(argument);
+            }
+        }
+        return ResultCache.toHex(ResultCache.newDigest().digest(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Restore the files of an entry into the given folder.
+     *
+     * @param key       the key of the entry
+     * @param targetDir the folder to restore the files into
+     * @return          boolean whether the entry exists and has been restored
+     */
+    public boolean restore(final String key, final File targetDir) {
+        Path entry = this.cacheDir.resolve(key);
+        if (!Files.isDirectory(entry)) {
+            return false;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(entry)) {
+            for (Path file : files) {
+                ResultCache.linkOrCopy(file, targetDir.toPath().resolve(file.getFileName().toString()));
+            }
+            // remember when the entry was used last, also after a restart
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            this.touch(key);
+            return true;
+        } catch (IOException ex) {
+            // removed while it was restored, or the output folder is gone: run the program instead
+            Logger.getLogger(ResultCache.class.getName()).log(Level.WARNING,
+                    "Could not restore cache entry " + key, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Store the given files of a folder as an entry. Nothing happens if the entry already exists. A failure is
+     * logged and otherwise ignored, the job does not depend on the cache.
+     *
+     * @param key       the key of the entry
+     * @param sourceDir the folder containing the files
+     * @param fileNames the names of the files to store
+     */
+    public void store(final String key, final File sourceDir, final List<String> fileNames) {
+        Path entry = this.cacheDir.resolve(key);
+        if (Files.isDirectory(entry)) {
+            return;
+        }
+        Path temporary = this.cacheDir.resolve(key + TEMPORARY_MARK + UUID.randomUUID());
+        try {
+            Files.createDirectories(temporary);
+            for (String fileName : fileNames) {
+                ResultCache.linkOrCopy(sourceDir.toPath().resolve(fileName), temporary.resolve(fileName));
+            }
+            Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+            this.put(key, FileUtils.sizeOfDirectory(entry.toFile()));
+            this.evict();
+        } catch (FileAlreadyExistsException ex) {
+            // another job stored the same entry first
+        } catch (IOException ex) {
+            if (!Files.isDirectory(entry)) {
+                Logger.getLogger(ResultCache.class.getName()).log(Level.WARNING,
+                        "Could not store cache entry " + key, ex);
+            }
+        } finally {
+            FileUtils.deleteQuietly(temporary.toFile());
+        }
+    }
+
+    /**
+     * Track an entry as most recently used.
+     *
+     * @param key   the key of the entry
+     * @param bytes the size of the entry
+     */
+    private synchronized void put(final String key, final long bytes) {
+        Long oldBytes = this.entries.put(key, bytes);
+        if (oldBytes != null) {
+            this.totalBytes -= oldBytes;
+        }
+        this.totalBytes += bytes;
+    }
+
+    /**
+     * Remember that the given entry has just been used, so it is evicted last.
+     *
+     * @param key the key of the entry
+     */
+    private synchronized void touch(final String key) {
+        this.entries.get(key);
+    }
+
+    /**
+     * Delete the least recently used entries while the budget is exceeded or the volume is low on space. A job that
+     * is restoring a deleted entry runs the program instead.
+     */
+    public synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = this.entries.entrySet().iterator();
+        while (iterator.hasNext() && (this.totalBytes > this.maxBytes || this.isLowOnSpace())) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            this.totalBytes -= entry.getValue();
+            try {
+                FileUtils.deleteDirectory(this.cacheDir.resolve(entry.getKey()).toFile());
+            } catch (IOException ex) {
+                Logger.getLogger(ResultCache.class.getName()).log(Level.WARNING,
+                        "Could not delete cache entry " + entry.getKey(), ex);
+            }
+        }
+    }
+
+    /**
+     * Tells whether the volume of the cache has less free space than the minimum.
+     *
+     * @return boolean whether the volume is low on space
+     */
+    private boolean isLowOnSpace() {
+        // 0 means the volume could not be queried (or the folder does not exist yet), the budget alone has to do
+        long usableBytes = this.cacheDir.toFile().getUsableSpace();
+        return usableBytes > 0 && usableBytes < this.minFreeBytes;
+    }
+
+    /**
+     * Get the amount of bytes all entries use together.
+     *
+     * @return the amount of bytes
+     */
+    public synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    /**
+     * Hard link a file to a new path, or copy it if it can not be linked (for instance on another file system).
+     *
+     * @param source the existing file
+     * @param target the new path, replaced if it exists
+     * @throws IOException if the file could not be linked or copied
+     */
+    static void linkOrCopy(final Path source, final Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException ex) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Compute the SHA-256 hash of the contents of a file.
+     *
+     * @param file the file
+     * @return     the hash, as hexadecimal number
+     * @throws IOException if the file can not be read
+     */
+    static String hashFile(final File file) throws IOException {
+        MessageDigest digest = ResultCache.newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        return ResultCache.toHex(digest.digest());
+    }
+
+    /**
+     * Create a new SHA-256 digest.
+     *
+     * @return the digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Write bytes as a hexadecimal number.
+     *
+     * @param bytes the bytes
+     * @return      the hexadecimal number
+     */
+    private static String toHex(final byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class keeps the last bytes written to it in a fixed-size array. When the array is full, the oldest bytes are
+ * overwritten, so the memory used by a buffer never grows, no matter how much output a process writes.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class RingBuffer {
+    /** The array containing the bytes. */
+    private final byte[] buffer;
+    /** The position the next byte is written to. */
+    private int writePosition;
+    /** The total amount of bytes ever written to this buffer. */
+    private long totalWritten;
+
+    /**
+     * Create a new RingBuffer.
+     *
+     * @param capacity the amount of bytes the buffer keeps
+     */
+    public RingBuffer(final int capacity) {
+        this.buffer = new byte[capacity];
+        this.writePosition = 0;
+        this.totalWritten = 0;
+    }
+
+    /**
+     * Write the given bytes to the buffer, overwriting the oldest bytes if the buffer is full.
+     *
+     * @param bytes  the array containing the bytes
+     * @param offset the position of the first byte in the array
+     * @param length the amount of bytes to write
+     */
+    public synchronized void write(final byte[] bytes, final int offset, final int length) {
+        int start = offset;
+        int remaining = length;
+        // only the last 'capacity' bytes can be kept anyway
+        if (remaining > this.buffer.length) {
+            start += remaining - this.buffer.length;
+            remaining = this.buffer.length;
+        }
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, this.buffer.length - this.writePosition);
+            System.arraycopy(bytes, start, this.buffer, this.writePosition, chunk);
+            this.writePosition = (this.writePosition + chunk) % this.buffer.length;
+            start += chunk;
+            remaining -= chunk;
+        }
+        this.totalWritten += length;
+    }
+
+    /**
+     * Get the bytes currently kept in the buffer, oldest first.
+     *
+     * @return a copy of the kept bytes
+     */
+    public synchronized byte[] toByteArray() {
+        if (this.totalWritten < this.buffer.length) {
+            return Arrays.copyOf(this.buffer, this.writePosition);
+        }
+        byte[] bytes = new byte[this.buffer.length];
+        int oldestLength = this.buffer.length - this.writePosition;
+        System.arraycopy(this.buffer, this.writePosition, bytes, 0, oldestLength);
+        System.arraycopy(this.buffer, 0, bytes, oldestLength, this.writePosition);
+        return bytes;
+    }
+
+    /**
+     * Get the last lines kept in the buffer as text. If the oldest bytes have been overwritten, the first (partial)
+     * line is left out.
+     *
+     * @param maxLines the maximum amount of lines to return
+     * @return         the last lines, separated by newlines
+     */
+    public String getTail(final int maxLines) {
+        String text = new String(this.toByteArray(), StandardCharsets.UTF_8);
+        if (this.getTotalWritten() > this.buffer.length && text.indexOf('\n') >= 0) {
+            text = text.substring(text.indexOf('\n') + 1);
+        }
+        String[] lines = text.trim().split("\r?\n");
+        int first = Math.max(0, lines.length - maxLines);
+        StringBuilder tail = new StringBuilder();
+        for (int i = first; i < lines.length; i++) {
+            if (tail.length() > 0) {
+                tail.append('\n');
+            }
+            tail.append(lines[i]);
+        }
+        return tail.toString();
+    }
+
+    /**
+     * Get the total amount of bytes ever written to this buffer, including the overwritten ones.
+     *
+     * @return the total amount of bytes written
+     */
+    public synchronized long getTotalWritten() {
+        return this.totalWritten;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.SimulationBuilder;
+
+import java.io.IOException;
+
+/**
+ * A SimulationEngine runs the program of a SimulationBuilder with the arguments the builder produced.
+ * Which engine is used is set with the system property insanemodel.engine, see ConfigurationSettings.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public interface SimulationEngine {
+
+    /**
+     * Start running the program of the given simulation builder.
+     *
+     * @param builder        the simulation builder to run
+     * @param stderrListener the listener every stderr line of the program is passed to, or null
+     * @return               the started run
+     * @throws IOException if the program could not be started
+     */
+    SimulationRun start(SimulationBuilder builder, StreamPump.LineListener stderrListener) throws IOException;
+
+    /**
+     * Stop the engine and release everything it holds.
+     */
+    void shutdown();
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+
+import javax.servlet.ServletContext;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class owns all simulation process launches. Simulations run on a fixed amount of worker threads, and only a
+ * limited amount of simulations may wait for a free worker. If that queue is full, a submitted simulation is
+ * rejected instead of queued, so the latency of accepted simulations stays predictable under load.
+ *
+ * There is one SimulationExecutor per web application, it is stored as attribute of the ServletContext.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class SimulationExecutor {
+    /** The name of the ServletContext attribute the SimulationExecutor is stored in. */
+    public static final String CONTEXT_ATTRIBUTE = SimulationExecutor.class.getName();
+    /** The weight of the newest duration in the moving average of simulation durations. */
+    private static final double DURATION_WEIGHT = 0.2;
+
+    /** The thread pool running the simulations. */
+    private final ThreadPoolExecutor threadPool;
+    /** The moving average of the duration of finished simulations, in milliseconds. */
+    private volatile double averageDurationMillis;
+
+    /**
+     * Create a new SimulationExecutor with the worker and queue sizes from ConfigurationSettings.
+     */
+    public SimulationExecutor() {
+        this(ConfigurationSettings.getWorkerThreads(), ConfigurationSettings.getQueueCapacity());
+    }
+
+    /**
+     * Create a new SimulationExecutor.
+     *
+     * @param workers       the amount of simulations that may run at the same time
+     * @param queueCapacity the amount of simulations that may wait for a free worker
+     */
+    public SimulationExecutor(final int workers, final int queueCapacity) {
+        this.averageDurationMillis = ConfigurationSettings.getExpectedJobMillis();
+        this.threadPool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new NamedThreadFactory("simulation-worker-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Get the SimulationExecutor of the web application.
+     *
+     * @param context the ServletContext of the web application
+     * @return        the SimulationExecutor
+     */
+    public static SimulationExecutor getInstance(final ServletContext context) {
+        return (SimulationExecutor) context.getAttribute(SimulationExecutor.CONTEXT_ATTRIBUTE);
+    }
+
+    /**
+     * Queue a simulation to run on a worker thread.
+     *
+     * @param simulation the simulation to run
+     * @throws RejectedExecutionException if the queue is full or the executor has been shut down
+     */
+    public void execute(final Runnable simulation) {
+        this.threadPool.execute(new TimedRunnable(simulation));
+    }
+
+    /**
+     * Queue a simulation to run on a worker thread, and get a Future for its result.
+     *
+     * @param simulation the simulation to run
+     * @param <T>        the result type of the simulation
+     * @return           a Future that can be used to wait for the result
+     * @throws RejectedExecutionException if the queue is full or the executor has been shut down
+     */
+    public <T> Future<T> submit(final Callable<T> simulation) {
+        FutureTask<T> task = new FutureTask(simulation);
+        this.execute(task);
+        return task;
+    }
+
+    /**
+     * Get the amount of simulations waiting for a free worker.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return this.threadPool.getQueue().size();
+    }
+
+    /**
+     * Tells whether no simulation is running or waiting for a free worker.
+     *
+     * @return boolean whether the executor is idle
+     */
+    public boolean isIdle() {
+        return this.threadPool.getActiveCount() == 0 && this.threadPool.getQueue().isEmpty();
+    }
+
+    /**
+     * Estimate after how many seconds a rejected request may be retried. This is the time it takes the workers to
+     * work through the current queue, based on the average duration of the finished simulations.
+     *
+     * @return the estimated amount of seconds, at least 1
+     */
+    public long getRetryAfterSeconds() {
+        int workers = this.threadPool.getMaximumPoolSize();
+        // the queued simulations and the running simulations have to be done before there is room again
+        int waves = (this.getQueueDepth() + this.threadPool.getActiveCount() + workers - 1) / workers;
+        long millis = Math.round(Math.max(1, waves) * this.averageDurationMillis);
+        return Math.max(1, (millis + 999) / 1000);
+    }
+
+    /**
+     * Stop accepting simulations and interrupt the running ones.
+     */
+    public void shutdown() {
+        this.threadPool.shutdownNow();
+    }
+
+    /**
+     * Add the duration of a finished simulation to the moving average. Only simulations that ran all their stages
+     * are added: a result restored from the cache or a cancelled simulation is done almost at once, and would make
+     * the estimate of getRetryAfterSeconds() far too low.
+     *
+     * @param durationMillis the duration of the simulation in milliseconds
+     */
+    private synchronized void recordDuration(final long durationMillis) {
+        this.averageDurationMillis = DURATION_WEIGHT * durationMillis
+                + (1 - DURATION_WEIGHT) * this.averageDurationMillis;
+    }
+
+    /**
+     * A simulation that tells whether it ran all its stages, so its duration can be used to estimate how long the
+     * next simulations take.
+     */
+    public interface Measurable {
+        /**
+         * Tells whether the last run did all the work of the simulation, instead of being cancelled, failing or
+         * taking its result from somewhere else.
+         *
+         * @return boolean whether all stages have run
+         */
+        boolean hasRunAllStages();
+    }
+
+    /**
+     * Runs a simulation and records how long it took, if it ran all its stages.
+     */
+    private class TimedRunnable implements Runnable {
+        /** The simulation to run. */
+        private final Runnable simulation;
+
+        /**
+         * Create a new TimedRunnable.
+         *
+         * @param simulation the simulation to run
+         */
+        TimedRunnable(final Runnable simulation) {
+            this.simulation = simulation;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                this.simulation.run();
+            } finally {
+                if (this.simulation instanceof Measurable && ((Measurable) this.simulation).hasRunAllStages()) {
+                    recordDuration(System.currentTimeMillis() - start);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,900 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.InsaneSimulationBuilder;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.MartinizeSimulationBuilder;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.SimulationBuilder;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure.GroReader;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure.GroWriter;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure.LevelOfDetail;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure.ParticleSystem;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure.TileWriter;
+import org.apache.commons.io.FileUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * This class contains everything needed for one insane model request: it runs martinize (if needed), insane and
+ * zips the output files. A job is meant to be run on a worker thread, so the request thread can be released while
+ * the external processes are running. When the job is done, all registered JobListeners are notified.
+ *
+ * Every job has its own id, and its own output folder named after that id, so jobs never overwrite each other's
+ * output files.
+ *
+ * While the job runs, it publishes JobEvents: the stages it goes through and the progress messages the simulation
+ * programs print on stderr. The last events are kept, so a client that starts listening late can catch up.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class SimulationJob implements Runnable, SimulationExecutor.Measurable {
+    /** The maximum amount of events that is kept for clients that start listening late. */
+    private static final int MAX_EVENT_HISTORY = 200;
+    /** The output file of insane. */
+    static final String INSANE_OUTPUT_FILE = "output_insane.gro";
+    /** The suffix of the gzip compressed copy of an output file, which is sent to browsers that accept gzip. */
+    public static final String GZIP_SUFFIX = ".gz";
+    /** The reduced model of an output that is too big to display, which the viewer shows instead. */
+    public static final String REDUCED_OUTPUT_FILE = "output_insane_reduced.gro";
+    /** The output of insane split into tiles, so the viewer can load a region of a large system in full detail. */
+    public static final String TILES_FILE = "output_insane.tiles";
+    /** The zip file containing all output files, made by the DownloadServlet when it is downloaded. */
+    private static final String ZIP_FILE = OutputArchive.FILE_NAME;
+    /** The niceness the processes of a background job run with, so they only get the cpu the users leave free. */
+    private static final int BACKGROUND_NICENESS = 19;
+    /** The random number generator drawing the seed of insane when neither the user nor the settings give one. */
+    private static final Random SEED_GENERATOR = new Random();
+
+    /** The unique id of this job. */
+    private final String id;
+    /** The settings given by the user, with the seed insane runs with. */
+    private final JSONObject settings;
+    /** The seed for the random number generator of insane. */
+    private final int seed;
+    /** Whether the seed has been given by the user or the default seed, instead of drawn for this job only. */
+    private final boolean fixedSeed;
+    /** The folder all output files of this job are written to. */
+    private final File outputDir;
+    /** Whether martinize should run on the input file before insane. */
+    private final boolean runMartinize;
+    /** The engine running the simulation programs. */
+    private final SimulationEngine engine;
+    /** The cache the output of insane is stored in, null if there is no cache. */
+    private final ResultCache resultCache;
+    /** The error message list this job and its simulation builders add error messages to. */
+    private final LinkedList errorMessages;
+    /** The listeners that are notified when this job is done. */
+    private final List<JobListener> listeners;
+    /** The time this job was created, in milliseconds since the epoch. */
+    private final long createdMillis;
+    /** The last events of this job, oldest first. */
+    private final Deque<JobEvent> eventHistory;
+    /** The listeners that are notified of every event of this job. */
+    private final List<JobEventListener> eventListeners;
+
+    /** The absolute(!) path to the input file, this is the martinized file once martinize has run. */
+    private String infilePath;
+    /** The current status of this job. */
+    private volatile JobStatus status;
+    /** The process that is currently running for this job, null if none. */
+    private volatile SimulationRun currentProcess;
+    /** The time this job was done, in milliseconds since the epoch, 0 if it is not done yet. */
+    private volatile long doneMillis;
+    /** The sequence number of the last published event. */
+    private long lastEventSequence;
+    /** The current stage of this job. */
+    private volatile String stage;
+    /** The exit value of insane.py, -1 if insane did not run (successfully). */
+    private int exitValue;
+    /** Whether the output may be displayed by JSmol. */
+    private boolean display;
+    /** Whether the output is too big to display and the reduced model has been written, so the viewer shows it. */
+    private boolean reduced;
+    /** The key of the output of insane in the result cache, null if it is not cached. */
+    private String cacheKey;
+    /** Whether the output has been restored from the result cache instead of running insane. */
+    private volatile boolean fromCache;
+    /** The id of the newer job of the same client that replaced this job, null if it has not been replaced. */
+    private volatile String supersededBy;
+    /** Whether this job is background work that nobody waits for, like the warm-up. */
+    private volatile boolean background;
+
+    /**
+     * Create a new SimulationJob. If the settings give no seed for insane and there is no default seed, a new seed
+     * is drawn, so every run gives a new model. The seed is stored in the settings, so every stage and every key of
+     * this job uses the same seed.
+     *
+     * @param id           the unique id of this job
+     * @param settings     JSONObject containing all settings
+     * @param infilePath   the absolute(!) path to the input file, or null if no file was given
+     * @param runMartinize whether martinize should run on the input file before insane
+     * @param engine       the engine running the simulation programs
+     * @param resultCache  the cache the output of insane is stored in, or null if there is no cache
+     */
+    public SimulationJob(final String id,
+                         final JSONObject settings,
+                         final String infilePath,
+                         final boolean runMartinize,
+                         final SimulationEngine engine,
+                         final ResultCache resultCache) {
+        this.id = id;
+        Integer givenSeed = SimulationJob.getGivenSeed(settings);
+        this.fixedSeed = givenSeed != null;
+        this.seed = this.fixedSeed ? givenSeed : SEED_GENERATOR.nextInt(Integer.MAX_VALUE);
+        this.settings = new JSONObject();
+        this.settings.putAll(settings);
+        this.settings.put("insane_seed", Integer.toString(this.seed));
+        this.infilePath = infilePath;
+        this.outputDir = new File(ConfigurationPaths.getAbsoluteOutFilePath(id));
+        this.runMartinize = runMartinize;
+        this.engine = engine;
+        this.resultCache = resultCache;
+        this.errorMessages = new LinkedList();
+        this.listeners = new LinkedList();
+        this.createdMillis = System.currentTimeMillis();
+        this.eventHistory = new ArrayDeque();
+        this.eventListeners = new LinkedList();
+        this.lastEventSequence = 0;
+        this.status = JobStatus.QUEUED;
+        this.stage = "queue";
+        this.exitValue = -1;
+        this.display = false;
+    }
+
+    /**
+     * Get the seed the settings give for insane: the seed given by the user, or else the default seed.
+     *
+     * @param settings JSONObject containing all settings
+     * @return         the seed, or null if there is none
+     */
+    private static Integer getGivenSeed(final JSONObject settings) {
+        Object seed = settings.get("insane_seed");
+        if (seed != null) {
+            try {
+                return (int) Math.round(Double.parseDouble(seed.toString().trim()));
+            } catch (NumberFormatException ex) {
+                // no valid seed given, use the default seed
+            }
+        }
+        return ConfigurationSettings.getDefaultSeed();
+    }
+
+    /**
+     * Run martinize (if needed) and insane, and notify the listeners.
+     * The listeners are always notified, also if something went wrong.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (this.status != JobStatus.QUEUED) {
+                // cancelled while waiting in the queue
+                return;
+            }
+            this.status = JobStatus.RUNNING;
+        }
+        this.publishEvent(JobEvent.Type.STATUS, this.status.name(), -1);
+
+        try {
+            if (!this.outputDir.exists()) {
+                this.outputDir.mkdirs();
+            }
+
+            if (this.runMartinize && this.infilePath != null && !this.isCancelled()) {
+                this.runMartinize();
+            }
+
+            if (!this.isCancelled()) {
+                this.exitValue = this.runInsane();
+                if (this.exitValue == 0 && !this.isCancelled()) {
+                    List<String> outputFiles = new ArrayList(Arrays.asList(INSANE_OUTPUT_FILE));
+                    if (this.compressOutput(INSANE_OUTPUT_FILE)) {
+                        outputFiles.add(INSANE_OUTPUT_FILE + GZIP_SUFFIX);
+                    }
+                    // a grid that is small enough can still hold more particles than the viewer may be sent
+                    if (!this.display || this.hasTooManyParticles()) {
+                        // the whole model is never displayed, only the reduced model if it has been written
+                        this.display = false;
+                        if (this.writeReducedOutput()) {
+                            outputFiles.add(REDUCED_OUTPUT_FILE);
+                            outputFiles.add(TILES_FILE);
+                            this.reduced = true;
+                            this.display = true;
+                        }
+                    }
+                    if (!this.fromCache && this.cacheKey != null) {
+                        this.resultCache.store(this.cacheKey, this.outputDir, outputFiles);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(SimulationJob.class.getName()).log(Level.SEVERE, null, ex);
+            this.exitValue = -1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            this.exitValue = -1;
+        } finally {
+            this.finish(this.exitValue == 0 ? JobStatus.FINISHED : JobStatus.FAILED);
+            if (this.isCancelled()) {
+                // nobody will look at the output anymore, and the process might have written more before it stopped
+                FileUtils.deleteQuietly(this.outputDir);
+            }
+        }
+    }
+
+    /**
+     * Tells whether this job has run martinize (if needed) and insane itself, instead of being cancelled, failing or
+     * taking the output from the result cache. The stages of a background job run with a high niceness, so how long
+     * they took says nothing about the jobs of users, they are not counted either.
+     *
+     * @return boolean whether all stages have run
+     */
+    @Override
+    public boolean hasRunAllStages() {
+        return this.status == JobStatus.FINISHED && !this.fromCache && !this.background;
+    }
+
+    /**
+     * Set whether this job is background work that nobody waits for. The processes of a background job run with a
+     * high niceness, so they only get the cpu the jobs of users leave free.
+     *
+     * @param background whether this job is background work
+     */
+    public void setBackground(final boolean background) {
+        this.background = background;
+    }
+
+    /**
+     * Cancel this job. A queued job will not run anymore, the process of a running job is destroyed together with
+     * every process it started.
+     *
+     * @return boolean whether the job was cancelled, false if it was already done
+     */
+    public boolean cancel() {
+        if (!this.finish(JobStatus.CANCELLED)) {
+            return false;
+        }
+        SimulationRun process = this.currentProcess;
+        if (process != null) {
+            process.destroy();
+        }
+        return true;
+    }
+
+    /**
+     * Cancel this job because the same client submitted a newer job.
+     *
+     * @param newerJobId the id of the newer job
+     * @return           boolean whether the job was cancelled, false if it was already done
+     */
+    public boolean supersede(final String newerJobId) {
+        if (!this.status.isDone()) {
+            this.supersededBy = newerJobId;
+        }
+        return this.cancel();
+    }
+
+    /**
+     * Compute the key of the request of this job: everything the output depends on, the arguments martinize (if
+     * needed) and insane will be started with and the contents of the input file. Jobs with the same request key
+     * produce the same output. A job with a seed drawn for itself has no request key, it produces a model of its own.
+     *
+     * @return the request key, or null if it can not be computed (the job will fail when it runs in that case) or the
+     *         job has no fixed seed
+     */
+    public String getRequestKey() {
+        if (!this.fixedSeed) {
+            return null;
+        }
+        try {
+            // the simulation builders add their warnings to this list, the job itself adds them when it runs
+            LinkedList scratchMessages = new LinkedList();
+            String insaneInfilePath = this.infilePath;
+            String stages = "request";
+            if (this.runMartinize && this.infilePath != null) {
+                MartinizeSimulationBuilder martbuild = new MartinizeSimulationBuilder(this.settings,
+                        this.infilePath,
+                        this.getOutputPath("output_martinate"),
+                        ConfigurationPaths.getPathToMartinize(),
+                        scratchMessages);
+                stages += ":" + ResultCache.createKey("martinize", martbuild.getArguments(), this.infilePath,
+                        this.outputDir);
+                insaneInfilePath = martbuild.getOutputPdbPath();
+            }
+            InsaneSimulationBuilder simbuild = new InsaneSimulationBuilder(this.settings,
+                    insaneInfilePath,
+                    this.getOutputPath(INSANE_OUTPUT_FILE),
+                    ConfigurationPaths.getPathToInsane(),
+                    scratchMessages);
+            return ResultCache.createKey(stages, simbuild.getArguments(), this.infilePath, this.outputDir);
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Tell this queued job that another job with the same request key is running, and that this job will take over
+     * its result instead of running itself.
+     */
+    void waitForSameRequest() {
+        this.startStage("wait");
+        this.publishEvent(JobEvent.Type.LOG, "The same simulation is already running, waiting for its output.", -1);
+    }
+
+    /**
+     * Take over the result of a job with the same request key that is done. All output files of that job are linked
+     * into the output folder of this job, so both jobs keep their own files.
+     *
+     * @param doneJob the job with the same request key
+     * @return        boolean whether this job is done now, false if the other job was cancelled and this job has to
+     *                run itself
+     */
+    boolean adoptResult(final SimulationJob doneJob) {
+        if (this.status.isDone()) {
+            // cancelled while waiting, its files are gone already
+            return true;
+        }
+        if (doneJob.getStatus() == JobStatus.CANCELLED) {
+            return false;
+        }
+        this.errorMessages.addAll(doneJob.errorMessages);
+        this.display = doneJob.display;
+        this.reduced = doneJob.reduced;
+        if (doneJob.getStatus() == JobStatus.FINISHED) {
+            try {
+                this.outputDir.mkdirs();
+                File[] doneFiles = doneJob.outputDir.listFiles();
+                if (doneFiles == null) {
+                    throw new IOException("The output of job " + doneJob.getId() + " is gone.");
+                }
+                for (File doneFile : doneFiles) {
+                    if (doneFile.isFile()) {
+                        ResultCache.linkOrCopy(doneFile.toPath(),
+                                new File(this.getOutputPath(doneFile.getName())).toPath());
+                    }
+                }
+                this.exitValue = 0;
+                this.fromCache = true;
+            } catch (IOException ex) {
+                Logger.getLogger(SimulationJob.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        this.finish(this.exitValue == 0 ? JobStatus.FINISHED : JobStatus.FAILED);
+        return true;
+    }
+
+    /**
+     * Move this job to the given final state and notify the listeners, unless the job was already done.
+     *
+     * @param finalStatus the final state
+     * @return            boolean whether the state changed
+     */
+    private boolean finish(final JobStatus finalStatus) {
+        List<JobListener> toNotify;
+        synchronized (this) {
+            if (this.status.isDone()) {
+                return false;
+            }
+            this.status = finalStatus;
+            this.doneMillis = System.currentTimeMillis();
+            toNotify = new LinkedList(this.listeners);
+            this.listeners.clear();
+        }
+        this.publishEvent(JobEvent.Type.STATUS, finalStatus.name(), 1);
+        for (JobListener listener : toNotify) {
+            listener.jobFinished(this);
+        }
+        return true;
+    }
+
+    /**
+     * Register a listener that is notified when this job is done.
+     * If the job is already done, the listener is notified immediately on the calling thread.
+     *
+     * @param listener the listener to notify
+     */
+    public void addListener(final JobListener listener) {
+        synchronized (this) {
+            if (!this.status.isDone()) {
+                this.listeners.add(listener);
+                return;
+            }
+        }
+        listener.jobFinished(this);
+    }
+
+    /**
+     * Stop notifying the given listener when this job is done, for instance because it stopped waiting.
+     *
+     * @param listener the listener to remove
+     */
+    public synchronized void removeListener(final JobListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Register a listener that is notified of every new event of this job.
+     * The events that happened before the listener was registered are returned, so nothing is missed or duplicated.
+     *
+     * @param listener the listener to notify
+     * @return         the events that were published before the listener was registered, oldest first
+     */
+    public List<JobEvent> addEventListener(final JobEventListener listener) {
+        synchronized (this.eventHistory) {
+            this.eventListeners.add(listener);
+            return new ArrayList(this.eventHistory);
+        }
+    }
+
+    /**
+     * Stop notifying the given listener of new events.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeEventListener(final JobEventListener listener) {
+        synchronized (this.eventHistory) {
+            this.eventListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Publish a new event in the current stage, and notify the event listeners.
+     *
+     * @param type     the type of the event
+     * @param message  the message of the event
+     * @param progress the progress within the stage, between 0 and 1, or -1 if unknown
+     */
+    private void publishEvent(final JobEvent.Type type, final String message, final double progress) {
+        JobEvent event;
+        List<JobEventListener> toNotify;
+        synchronized (this.eventHistory) {
+            event = new JobEvent(++this.lastEventSequence, type, this.stage, message, progress);
+            this.eventHistory.addLast(event);
+            if (this.eventHistory.size() > MAX_EVENT_HISTORY) {
+                this.eventHistory.removeFirst();
+            }
+            toNotify = new ArrayList(this.eventListeners);
+        }
+        // notify outside the lock, so a slow listener does not hold up the others
+        for (JobEventListener listener : toNotify) {
+            listener.jobEvent(this, event);
+        }
+    }
+
+    /**
+     * Move this job to a new stage, and publish the stage change.
+     *
+     * @param newStage the name of the new stage
+     */
+    private void startStage(final String newStage) {
+        this.stage = newStage;
+        this.publishEvent(JobEvent.Type.STAGE, newStage, 0);
+    }
+
+    /**
+     * Start the program of the given simulation builder on the engine and wait for it to exit.
+     * The process is remembered while it runs, so it can be destroyed when the job is cancelled.
+     * The stderr lines of the process are published as events. If the process fails, the last stderr lines are
+     * added to the error messages, so the user can see why.
+     *
+     * @param builder   the simulation builder to start the process of
+     * @param stageName the name of the stage the process runs in
+     * @param parser    the parser recognizing the progress messages of the process
+     * @return          the exit value of the process
+     * @throws IOException          if an I/O error occurs
+     * @throws InterruptedException if the thread is interrupted while waiting for the process
+     */
+    private int runProcess(final SimulationBuilder builder, final String stageName, final ProgressParser parser)
+            throws IOException, InterruptedException {
+        this.startStage(stageName);
+        builder.setNiceness(this.background ? BACKGROUND_NICENESS : 0);
+        SimulationRun process = this.engine.start(builder, new StreamPump.LineListener() {
+            @Override
+            public void line(String line) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    double progress = parser.parse(line);
+                    publishEvent(progress < 0 ? JobEvent.Type.LOG : JobEvent.Type.PROGRESS, line, progress);
+                }
+            }
+        });
+        this.currentProcess = process;
+        try {
+            // cancel() might have been called just before the process was remembered
+            if (this.isCancelled()) {
+                process.destroy();
+            }
+            int processExitValue = process.waitFor();
+            if (process.isTimedOut()) {
+                this.errorMessages.add(stageName + " took longer than " + builder.getWallClockLimitSeconds()
+                        + " seconds and has been stopped.");
+            }
+            if (processExitValue != 0 && !this.isCancelled()) {
+                String tail = process.getStderrTail(SimulationProcess.MAX_TAIL_LINES);
+                if (!tail.isEmpty()) {
+                    this.errorMessages.add("The last output of " + stageName + " was:\n" + tail);
+                }
+            }
+            return processExitValue;
+        } finally {
+            this.currentProcess = null;
+        }
+    }
+
+    /**
+     * Run martinize.py on the input file, and use the coarse grained output as input file for insane. Martinizing a
+     * big protein takes much longer than insane, and users often only change the membrane or solvent, so the output
+     * of martinize is restored from the result cache if the same protein was martinized with the same options before.
+     *
+     * @return the exit value of martinize.py
+     * @throws IOException          if an I/O error occurs
+     * @throws InterruptedException if the thread is interrupted while waiting for martinize
+     */
+    private int runMartinize() throws IOException, InterruptedException {
+        MartinizeSimulationBuilder martbuild = new MartinizeSimulationBuilder(this.settings,
+                this.infilePath,
+                this.getOutputPath("output_martinate"),
+                ConfigurationPaths.getPathToMartinize(),
+                this.errorMessages);
+
+        String martinizeCacheKey = null;
+        if (this.resultCache != null) {
+            martinizeCacheKey = ResultCache.createKey("martinize", martbuild.getArguments(), this.infilePath,
+                    this.outputDir);
+            if (this.resultCache.restore(martinizeCacheKey, this.outputDir)
+                    && this.isOutputReady(martbuild.getOutputPdbPath())) {
+                this.startStage("martinize");
+                this.publishEvent(JobEvent.Type.LOG, "This protein has been coarse grained before, its output is"
+                        + " reused.", 1);
+                this.infilePath = martbuild.getOutputPdbPath();
+                return 0;
+            }
+        }
+        int martinizeExitValue = this.runProcess(martbuild, "martinize", ProgressParser.forMartinize());
+
+        // Only use the martinized file if martinize exited normally and actually wrote it
+        if (martinizeExitValue == 0 && this.isOutputReady(martbuild.getOutputPdbPath())) {
+            if (martinizeCacheKey != null && !this.isCancelled()) {
+                List<String> outputFiles = new LinkedList();
+                for (String outputPath : martbuild.getOutputPaths()) {
+                    if (new File(outputPath).isFile()) {
+                        outputFiles.add(new File(outputPath).getName());
+                    }
+                }
+                this.resultCache.store(martinizeCacheKey, this.outputDir, outputFiles);
+            }
+            this.infilePath = martbuild.getOutputPdbPath();
+        } else if (!this.isCancelled()) {
+            this.errorMessages.add("martinize.py exited with a non-zero exit value, the protein has not been"
+                    + " coarse grained.");
+        }
+
+        return martinizeExitValue;
+    }
+
+    /**
+     * Run insane.py with the user settings, or restore its output from the result cache if the same simulation has
+     * run before.
+     *
+     * @return the exit value of insane.py, or -1 if insane exited normally but did not write an output file
+     * @throws IOException          if an I/O error occurs
+     * @throws InterruptedException if the thread is interrupted while waiting for insane
+     */
+    private int runInsane() throws IOException, InterruptedException {
+        String outfilePath = this.getOutputPath(INSANE_OUTPUT_FILE);
+        InsaneSimulationBuilder simbuild = new InsaneSimulationBuilder(this.settings,
+                this.infilePath,
+                outfilePath,
+                ConfigurationPaths.getPathToInsane(),
+                this.errorMessages);
+
+        // Only display the whole model if the grid is not too big, otherwise a reduced model is displayed
+        this.display = !simbuild.isTooBig();
+
+        // a job with a seed drawn for itself gives a model of its own, which no other request asks for again
+        if (this.resultCache != null && this.fixedSeed) {
+            this.cacheKey = ResultCache.createKey("insane", simbuild.getArguments(), this.infilePath,
+                    this.outputDir);
+            if (this.resultCache.restore(this.cacheKey, this.outputDir)) {
+                this.fromCache = true;
+                this.startStage("cache");
+                this.publishEvent(JobEvent.Type.LOG, "The same simulation has run before, its output is reused.", 1);
+                return 0;
+            }
+        }
+        int insaneExitValue = this.runProcess(simbuild, "insane", ProgressParser.forInsane());
+
+        if (insaneExitValue == 0 && !this.isOutputReady(outfilePath)) {
+            return -1;
+        }
+        return insaneExitValue;
+    }
+
+    /**
+     * Write a gzip compressed copy next to an output file, unless it is already there (for instance restored from
+     * the result cache). The DownloadServlet sends the copy to browsers that accept gzip, so the file is compressed
+     * once instead of on every download. The copy is written to a temporary file first, so a half written copy is
+     * never sent. A failure is logged and otherwise ignored, the output file itself can still be sent.
+     *
+     * @param fileName the name of the output file
+     * @return         boolean whether the compressed copy exists
+     */
+    private boolean compressOutput(final String fileName) {
+        File compressed = new File(this.getOutputPath(fileName + GZIP_SUFFIX));
+        if (compressed.isFile()) {
+            return true;
+        }
+        this.startStage("compress");
+        File temporary = new File(this.getOutputPath(fileName + GZIP_SUFFIX + ".tmp"));
+        try {
+            // the streams are closed before the file is moved into place
+            try (InputStream in = new FileInputStream(this.getOutputPath(fileName));
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary), 256 * 1024)) {
+                new ParallelDeflater(Deflater.DEFAULT_COMPRESSION).gzip(in, out);
+            }
+            Files.move(temporary.toPath(), compressed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(SimulationJob.class.getName()).log(Level.WARNING,
+                    "Could not compress " + fileName + " of job " + this.id, ex);
+            temporary.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether the output of insane has more particles than the viewer may be sent. The amount is read from the
+     * second line of the .gro file.
+     *
+     * @return boolean whether the output has too many particles to display, false if the amount can not be read
+     */
+    private boolean hasTooManyParticles() {
+        try (BufferedReader reader = Files.newBufferedReader(new File(this.getOutputPath(INSANE_OUTPUT_FILE)).toPath(),
+                StandardCharsets.US_ASCII)) {
+            reader.readLine();
+            String countLine = reader.readLine();
+            return countLine != null && Long.parseLong(countLine.trim()) > ConfigurationSettings.getViewParticles();
+        } catch (IOException | NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the reduced model of an output that is too big to display, and the tiles of the whole output, unless
+     * they are already there. The reduced model has the protein backbone, one bead per lipid and as much solvent as
+     * fits in the amount of particles the viewer may be sent. With the tiles, the viewer can show a region of the
+     * output in full detail. A failure is logged and otherwise ignored, the output is then not displayed at all.
+     *
+     * @return boolean whether the reduced model and the tiles exist
+     */
+    private boolean writeReducedOutput() {
+        if (new File(this.getOutputPath(REDUCED_OUTPUT_FILE)).isFile()
+                && new File(this.getOutputPath(TILES_FILE)).isFile()) {
+            return true;
+        }
+        this.startStage("reduce");
+        try {
+            ParticleSystem system = new GroReader(new File(this.getOutputPath(INSANE_OUTPUT_FILE))).read();
+            ParticleSystem reducedSystem = new LevelOfDetail(ConfigurationSettings.getViewParticles()).reduce(system);
+            this.writeStructure(REDUCED_OUTPUT_FILE, reducedSystem);
+            this.writeTiles(system);
+            this.publishEvent(JobEvent.Type.LOG, "The model is too big to display, the viewer shows a reduced"
+                    + " model of " + reducedSystem.size() + " particles.", 1);
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(SimulationJob.class.getName()).log(Level.WARNING,
+                    "Could not write the reduced model of job " + this.id, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Write a .gro file into the output folder. Like the compressed copy, it is written to a temporary file first,
+     * so a half written file is never sent.
+     *
+     * @param fileName the name of the file
+     * @param system   the particles to write
+     * @throws IOException if the file can not be written
+     */
+    private void writeStructure(final String fileName, final ParticleSystem system) throws IOException {
+        File temporary = new File(this.getOutputPath(fileName + ".tmp"));
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            new GroWriter().write(system, out);
+        } catch (IOException ex) {
+            temporary.delete();
+            throw ex;
+        }
+        Files.move(temporary.toPath(), new File(this.getOutputPath(fileName)).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write the tiles of the output into the output folder, through a temporary file like the other structure files.
+     *
+     * @param system the particles of the output
+     * @throws IOException if the file can not be written
+     */
+    private void writeTiles(final ParticleSystem system) throws IOException {
+        File temporary = new File(this.getOutputPath(TILES_FILE + ".tmp"));
+        try {
+            new TileWriter().write(system, temporary);
+        } catch (IOException ex) {
+            temporary.delete();
+            throw ex;
+        }
+        Files.move(temporary.toPath(), new File(this.getOutputPath(TILES_FILE)).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks if an output file has been written. The process has already exited at this point, so its output file
+     * has been closed and is complete if it exists.
+     *
+     * @param path the absolute(!) path to the output file
+     * @return     boolean whether the output file exists and is not empty
+     */
+    private boolean isOutputReady(final String path) {
+        File outputFile = new File(path);
+        return outputFile.isFile() && outputFile.length() > 0;
+    }
+
+    /**
+     * Get the absolute path of a file inside the output folder of this job.
+     *
+     * @param fileName the name of the file
+     * @return         the absolute path to the file
+     */
+    private String getOutputPath(final String fileName) {
+        return this.outputDir.getPath() + System.getProperty("file.separator") + fileName;
+    }
+
+    /**
+     * Get the relative web path of a file inside the output folder of this job, served by the DownloadServlet.
+     *
+     * @param fileName the name of the file
+     * @return         the relative web path to the file
+     */
+    public String getWebOutputPath(final String fileName) {
+        return ConfigurationPaths.getWebDownloadPath(this.id, fileName);
+    }
+
+    /**
+     * Get the status of this job as JSON: the id, the status and the time the job was created.
+     *
+     * @return JSONObject containing the status
+     */
+    public JSONObject getStatusJson() {
+        JSONObject statusJson = new JSONObject();
+        statusJson.put("id", this.id);
+        statusJson.put("status", this.status.name());
+        statusJson.put("stage", this.stage);
+        statusJson.put("created", this.createdMillis);
+        statusJson.put("seed", this.seed);
+        if (this.supersededBy != null && this.status == JobStatus.CANCELLED) {
+            statusJson.put("supersededBy", this.supersededBy);
+        }
+        return statusJson;
+    }
+
+    /**
+     * Get the result of this job as JSON, as expected by the web page: the error messages, the output file paths and
+     * whether the output can be downloaded and displayed.
+     *
+     * @return JSONObject containing the result
+     */
+    public JSONObject getResultJson() {
+        JSONObject outputJson = this.getStatusJson();
+        List<String> errors = new LinkedList(this.errorMessages);
+
+        if (this.status != JobStatus.FINISHED) {
+            if (this.status == JobStatus.CANCELLED && this.supersededBy != null) {
+                errors.add("The simulation has been replaced by a newer request.");
+            } else if (this.status == JobStatus.CANCELLED) {
+                errors.add("The simulation has been cancelled.");
+            } else {
+                errors.add("insane.py exited with a non-zero exit value, so no output file has been written. Please"
+                        + " check your given arguments and/or input file and try again.");
+            }
+            outputJson.put("errorMessages", JSONArray.toJSONString(errors));
+            outputJson.put("outfile", "no_output_available");
+            outputJson.put("outfileZip", "no_output_available");
+            outputJson.put("download", false);
+            outputJson.put("display", false);
+        } else {
+            outputJson.put("errorMessages", JSONArray.toJSONString(errors));
+            outputJson.put("outfile",
+                    this.getWebOutputPath(this.reduced ? REDUCED_OUTPUT_FILE : INSANE_OUTPUT_FILE));
+            outputJson.put("outfileZip", this.getWebOutputPath(ZIP_FILE));
+            outputJson.put("download", true);
+            outputJson.put("display", this.display);
+            outputJson.put("reduced", this.reduced);
+            outputJson.put("cached", this.fromCache);
+            if (this.display && this.reduced && new File(this.getOutputPath(TILES_FILE)).isFile()) {
+                outputJson.put("tiles", ConfigurationPaths.getWebTilesPath(this.id));
+            }
+        }
+        return outputJson;
+    }
+
+    /**
+     * Tells whether insane runs with a seed given by the user or the default seed, so the output of this job is the
+     * same as the output of earlier jobs with the same settings.
+     *
+     * @return boolean whether the seed is fixed
+     */
+    public boolean hasFixedSeed() {
+        return this.fixedSeed;
+    }
+
+    /**
+     * Get the unique id of this job.
+     *
+     * @return the id
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * Get the folder all output files of this job are written to.
+     *
+     * @return the output folder
+     */
+    public File getOutputDir() {
+        return this.outputDir;
+    }
+
+    /**
+     * Get the current status of this job.
+     *
+     * @return the status
+     */
+    public JobStatus getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Tells whether this job has been cancelled.
+     *
+     * @return boolean whether the job has been cancelled
+     */
+    public boolean isCancelled() {
+        return this.status == JobStatus.CANCELLED;
+    }
+
+    /**
+     * Get the time this job was done.
+     *
+     * @return the time in milliseconds since the epoch, 0 if the job is not done yet
+     */
+    public long getDoneMillis() {
+        return this.doneMillis;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.SimulationBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class starts the process of a SimulationBuilder, and reads its stdout and stderr output while it runs.
+ * Both streams are read by a StreamPump on a shared thread pool, and the last output is kept in a RingBuffer per
+ * stream, so the process can never block on a full pipe and the memory used for its output stays bounded.
+ *
+ * The process is started by run_stage.sh in its own process group, with the cpu time limit of its builder. When the
+ * process runs longer than the wall clock limit of its builder, or when it is destroyed, the whole process group is
+ * stopped: first politely with SIGTERM, and with SIGKILL if it is still running after a grace period. This also
+ * stops the processes started by the process itself, which a plain Process.destroy() would leave running.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class SimulationProcess implements SimulationRun {
+    /** The maximum amount of stderr lines added to the error messages when a process fails. */
+    public static final int MAX_TAIL_LINES = 10;
+    /** The maximum time in milliseconds to wait for the last output after a process exited. */
+    private static final long PUMP_JOIN_MILLIS = 2000;
+    /** The time in milliseconds a stopped process group gets to exit before it is killed. */
+    private static final long KILL_GRACE_MILLIS = 5000;
+    /** The threads running the stream pumps, shared by all processes. A pump only lives as long as its process. */
+    private static final ExecutorService PUMP_POOL = Executors.newCachedThreadPool(
+            new NamedThreadFactory("stream-pump-"));
+    /** The thread stopping processes that run too long, shared by all processes. */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("process-timer-"));
+
+    /** The running process. */
+    private final Process process;
+    /** The last stdout output of the process. */
+    private final RingBuffer stdout;
+    /** The last stderr output of the process. */
+    private final RingBuffer stderr;
+    /** The pump reading stdout. */
+    private final StreamPump stdoutPump;
+    /** The pump reading stderr. */
+    private final StreamPump stderrPump;
+    /** The file run_stage.sh writes the process group id to. */
+    private final File pidFile;
+    /** The scheduled stop of the process when it exceeds its wall clock limit, or null if there is no limit. */
+    private final ScheduledFuture<?> timeout;
+    /** Whether the process has been stopped because it exceeded its wall clock limit. */
+    private volatile boolean timedOut;
+    /** Whether the process has been destroyed. */
+    private volatile boolean destroyed;
+
+    /**
+     * Start the process of the given simulation builder and start reading its output.
+     *
+     * @param builder        the simulation builder to start the process of
+     * @param stderrListener the listener every stderr line is passed to, or null
+     * @throws IOException if the process could not be started
+     */
+    public SimulationProcess(final SimulationBuilder builder, final StreamPump.LineListener stderrListener)
+            throws IOException {
+        this(builder, stderrListener, false);
+    }
+
+    /**
+     * Start the process of the given simulation builder and start reading its output.
+     *
+     * @param builder        the simulation builder to start the process of
+     * @param stderrListener the listener every stderr line is passed to, or null
+     * @param keepStdin      whether stdin of the process is kept open, to send it input with getStdin()
+     * @throws IOException if the process could not be started
+     */
+    SimulationProcess(final SimulationBuilder builder, final StreamPump.LineListener stderrListener,
+                      final boolean keepStdin) throws IOException {
+        int bufferBytes = ConfigurationSettings.getOutputBufferBytes();
+        this.pidFile = File.createTempFile("simulation-", ".pid");
+        try {
+            this.process = builder.build(this.pidFile);
+        } catch (IOException | RuntimeException ex) {
+            this.pidFile.delete();
+            throw ex;
+        }
+        this.stdout = new RingBuffer(bufferBytes);
+        this.stderr = new RingBuffer(bufferBytes);
+        if (!keepStdin) {
+            // nobody writes to the process
+            this.process.getOutputStream().close();
+        }
+        this.stdoutPump = new StreamPump(this.process.getInputStream(), this.stdout, null);
+        this.stderrPump = new StreamPump(this.process.getErrorStream(), this.stderr, stderrListener);
+        PUMP_POOL.execute(this.stdoutPump);
+        PUMP_POOL.execute(this.stderrPump);
+
+        if (builder.getWallClockLimitSeconds() > 0) {
+            this.timeout = TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut = true;
+                    destroy();
+                }
+            }, builder.getWallClockLimitSeconds(), TimeUnit.SECONDS);
+        } else {
+            this.timeout = null;
+        }
+    }
+
+    /**
+     * Wait for the process to exit, and give the pumps a little time to read the last output.
+     *
+     * @return the exit value of the process
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public int waitFor() throws InterruptedException {
+        try {
+            int exitValue = this.process.waitFor();
+            if (this.timeout != null) {
+                this.timeout.cancel(false);
+            }
+            if (this.destroyed) {
+                // the process itself has exited, make sure nothing it started keeps running
+                this.signalGroup("KILL");
+            }
+            // a child process of the process might keep the streams open, so do not wait forever
+            this.stdoutPump.await(PUMP_JOIN_MILLIS);
+            this.stderrPump.await(PUMP_JOIN_MILLIS);
+            return exitValue;
+        } catch (InterruptedException ex) {
+            this.destroy();
+            throw ex;
+        } finally {
+            if (this.hasExited()) {
+                this.pidFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Get stdin of the process, only open if the process was started with keepStdin.
+     *
+     * @return the stream to write input for the process to
+     */
+    OutputStream getStdin() {
+        return this.process.getOutputStream();
+    }
+
+    /**
+     * Stop the process and every process it started. The group is asked to stop with SIGTERM, and killed with
+     * SIGKILL if it is still running after the grace period. The pumps stop as soon as the streams are closed.
+     */
+    @Override
+    public void destroy() {
+        if (this.destroyed) {
+            return;
+        }
+        this.destroyed = true;
+        if (!this.signalGroup("TERM")) {
+            // the process group is not known yet, at least stop the process itself
+            this.process.destroy();
+        }
+        TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                signalGroup("KILL");
+                process.destroy();
+                if (hasExited()) {
+                    pidFile.delete();
+                }
+            }
+        }, KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send a signal to the process group of the process.
+     *
+     * @param signal the name of the signal, for instance 'TERM'
+     * @return       boolean whether the signal could be sent
+     */
+    private boolean signalGroup(final String signal) {
+        String groupId = this.readGroupId();
+        if (groupId == null) {
+            return false;
+        }
+        try {
+            Process kill = new ProcessBuilder("kill", "-" + signal, "--", "-" + groupId)
+                    .redirectErrorStream(true).start();
+            kill.getOutputStream().close();
+            kill.getInputStream().close();
+            return kill.waitFor() == 0;
+        } catch (IOException ex) {
+            Logger.getLogger(SimulationProcess.class.getName()).log(Level.WARNING,
+                    "Could not send SIG" + signal + " to process group " + groupId, ex);
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Read the process group id written by run_stage.sh.
+     *
+     * @return the process group id, or null if it has not been written (yet)
+     */
+    private String readGroupId() {
+        try {
+            String groupId = new String(Files.readAllBytes(this.pidFile.toPath()), StandardCharsets.US_ASCII).trim();
+            // a group id of 1 or less would signal far more than this process group
+            if (groupId.matches("\\d+") && Long.parseLong(groupId) > 1) {
+                return groupId;
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // not written yet
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether the process has exited.
+     *
+     * @return boolean whether the process has exited
+     */
+    private boolean hasExited() {
+        try {
+            this.process.exitValue();
+            return true;
+        } catch (IllegalThreadStateException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether the process has been stopped because it ran longer than its wall clock limit.
+     *
+     * @return boolean whether the process timed out
+     */
+    @Override
+    public boolean isTimedOut() {
+        return this.timedOut;
+    }
+
+    /**
+     * Get the last lines the process wrote to stdout.
+     *
+     * @param maxLines the maximum amount of lines
+     * @return         the last lines, separated by newlines
+     */
+    public String getStdoutTail(final int maxLines) {
+        return this.stdout.getTail(maxLines);
+    }
+
+    /**
+     * Get the last lines the process wrote to stderr.
+     *
+     * @param maxLines the maximum amount of lines
+     * @return         the last lines, separated by newlines
+     */
+    @Override
+    public String getStderrTail(final int maxLines) {
+        return this.stderr.getTail(maxLines);
+    }
+}
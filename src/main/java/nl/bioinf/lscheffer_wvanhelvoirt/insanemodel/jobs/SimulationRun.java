@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+/**
+ * A SimulationRun is one run of a simulation program, started by a SimulationEngine.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public interface SimulationRun {
+
+    /**
+     * Wait for the run to end.
+     *
+     * @return the exit value of the simulation program
+     * @throws InterruptedException if the thread is interrupted while waiting, the run is stopped in that case
+     */
+    int waitFor() throws InterruptedException;
+
+    /**
+     * Stop the run.
+     */
+    void destroy();
+
+    /**
+     * Tells whether the run has been stopped because it ran longer than its wall clock limit.
+     *
+     * @return boolean whether the run timed out
+     */
+    boolean isTimedOut();
+
+    /**
+     * Get the last lines the simulation program wrote to stderr.
+     *
+     * @param maxLines the maximum amount of lines
+     * @return         the last lines, separated by newlines
+     */
+    String getStderrTail(int maxLines);
+}
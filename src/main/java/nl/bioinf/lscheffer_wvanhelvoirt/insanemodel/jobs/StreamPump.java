@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class reads an output stream of a process until it is closed, and keeps the last bytes in a RingBuffer.
+ * Reading the stream all the time is necessary: if nobody reads it, the pipe buffer of the operating system fills up
+ * and the process blocks forever on its next write.
+ * Optionally every complete line is also passed to a LineListener.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class StreamPump implements Runnable {
+    /** The size of the read buffer in bytes. */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /** The maximum length of a line passed to the LineListener, longer lines are cut off. */
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    /**
+     * A LineListener is passed every line read by a StreamPump.
+     */
+    public interface LineListener {
+
+        /**
+         * Called on the pump thread for every line read from the stream.
+         *
+         * @param line the line without line separator
+         */
+        void line(String line);
+    }
+
+    /** The stream to read. */
+    private final InputStream stream;
+    /** The buffer keeping the last bytes of the stream. */
+    private final RingBuffer ringBuffer;
+    /** The listener to pass the lines to, or null. */
+    private final LineListener lineListener;
+    /** Counted down when the stream has been read completely. */
+    private final CountDownLatch done;
+
+    /**
+     * Create a new StreamPump.
+     *
+     * @param stream       the stream to read
+     * @param ringBuffer   the buffer keeping the last bytes of the stream
+     * @param lineListener the listener to pass the lines to, or null
+     */
+    public StreamPump(final InputStream stream, final RingBuffer ringBuffer, final LineListener lineListener) {
+        this.stream = stream;
+        this.ringBuffer = ringBuffer;
+        this.lineListener = lineListener;
+        this.done = new CountDownLatch(1);
+    }
+
+    @Override
+    public void run() {
+        byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        try {
+            int length;
+            while ((length = this.stream.read(readBuffer)) >= 0) {
+                this.ringBuffer.write(readBuffer, 0, length);
+                if (this.lineListener != null) {
+                    this.splitLines(readBuffer, length, line);
+                }
+            }
+            if (this.lineListener != null && line.size() > 0) {
+                this.lineListener.line(new String(line.toByteArray(), StandardCharsets.UTF_8));
+            }
+        } catch (IOException ex) {
+            // the stream is closed when the process is destroyed, there is nothing left to read
+        } finally {
+            try {
+                this.stream.close();
+            } catch (IOException ex) {
+                // already closed
+            }
+            this.done.countDown();
+        }
+    }
+
+    /**
+     * Pass every complete line in the read buffer to the LineListener, and keep the incomplete rest.
+     *
+     * @param readBuffer the bytes just read
+     * @param length     the amount of bytes just read
+     * @param line       the bytes of the current line so far
+     */
+    private void splitLines(final byte[] readBuffer, final int length, final ByteArrayOutputStream line) {
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (readBuffer[i] == '\n') {
+                this.appendToLine(line, readBuffer, lineStart, i - lineStart);
+                byte[] lineBytes = line.toByteArray();
+                int lineLength = lineBytes.length;
+                if (lineLength > 0 && lineBytes[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                this.lineListener.line(new String(lineBytes, 0, lineLength, StandardCharsets.UTF_8));
+                line.reset();
+                lineStart = i + 1;
+            }
+        }
+        this.appendToLine(line, readBuffer, lineStart, length - lineStart);
+    }
+
+    /**
+     * Append bytes to the current line, without letting the line grow beyond MAX_LINE_LENGTH.
+     *
+     * @param line   the bytes of the current line so far
+     * @param bytes  the array containing the bytes to append
+     * @param offset the position of the first byte to append
+     * @param length the amount of bytes to append
+     */
+    private void appendToLine(final ByteArrayOutputStream line, final byte[] bytes, final int offset,
+                              final int length) {
+        int room = MAX_LINE_LENGTH - line.size();
+        if (room > 0) {
+            line.write(bytes, offset, Math.min(room, length));
+        }
+    }
+
+    /**
+     * Wait until the stream has been read completely.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return              boolean whether the stream has been read completely
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean await(final long timeoutMillis) throws InterruptedException {
+        return this.done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
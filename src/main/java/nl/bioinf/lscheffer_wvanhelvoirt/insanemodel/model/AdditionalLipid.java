@@ -17,8 +17,6 @@ import java.util.Set;
  * @version 1.0.0
  */
 public class AdditionalLipid extends SettingManager {
-    /** The AdditionalLipids are counted to create unique names. */
-    private static int count = 0;
     /** The set of valid head groups. */
     private static final Set<String> VALID_HEAD = new HashSet();
     /** The set of valid linker groups. */
@@ -39,6 +37,8 @@ public class AdditionalLipid extends SettingManager {
         VALID_TAIL.add("T");
     }
 
+    /** The number of this lipid within its simulation, used to create a unique name. */
+    private final int number;
     /** The unique name of the created lipid. */
     private final String name;
     /** The array of head groups. */
@@ -58,6 +58,7 @@ public class AdditionalLipid extends SettingManager {
      * Create a new AdditionalLipid given the head-, linker- and tailgroups, and the membrane leaflet ratios.
      *
      * @param errorMessages     the list to add error messages to
+     * @param number            the number of this lipid within its simulation, starting at 1
      * @param headGroups        the array of head groups
      * @param linkerGroups      the array of linker groups
      * @param tailGroups        the array of tail groups
@@ -65,13 +66,14 @@ public class AdditionalLipid extends SettingManager {
      * @param upperLeafletRatio the ratio in the lower membrane leaflet
      */
     public AdditionalLipid(final List<String> errorMessages,
+                           final int number,
                            final String[] headGroups,
                            final String[] linkerGroups,
                            final String[] tailGroups,
                            final int upperLeafletRatio,
                            final int lowerLeafletRatio) {
         super(errorMessages);
-        AdditionalLipid.count++;
+        this.number = number;
         this.name = this.defineName();
         this.headGroups = this.validateHeadGroups(headGroups);
         this.linkerGroups = this.validateLinkerGroups(linkerGroups);
@@ -80,21 +82,13 @@ public class AdditionalLipid extends SettingManager {
         this.upperLeafletRatio = upperLeafletRatio;
     }
 
-    /**
-     * Resets the counter that is used to create the lipid name.
-     *
-     */
-    public static void resetCounter() {
-        AdditionalLipid.count = 0;
-    }
-
     /**
      * Define the unique lipid name.
      *
      * @return lipid name
      */
     private String defineName() {
-        return "LIP" + AdditionalLipid.count;
+        return "LIP" + this.number;
     }
 
     /**
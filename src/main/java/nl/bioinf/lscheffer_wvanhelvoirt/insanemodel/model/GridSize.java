@@ -79,8 +79,9 @@ public final class GridSize extends SettingManager {
         } else if (givenDistance > GridSize.MAX_GRID_SIZE_WITH_VIEW) {
             this.tooBigToDisplay = true;
 
-            errorMessage += "Note that grid size values above " + GridSize.MAX_GRID_SIZE_WITH_VIEW 
-                    + " will not be displayed by JSmol, there is only a downloadable output file available.";
+            errorMessage += "Note that grid size values above " + GridSize.MAX_GRID_SIZE_WITH_VIEW
+                    + " are displayed by JSmol as a reduced model (protein backbone, one bead per lipid and less or"
+                    + " no solvent), the whole model is in the downloadable output file.";
 
             if (givenDistance > GridSize.MAX_GRID_SIZE) {
                 errorMessage = "Given grid size '" + givenDistance + "' is too big and has been set to "
@@ -5,6 +5,7 @@
  */
 package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model;
 
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
@@ -137,8 +138,6 @@ public class InsaneSimulationBuilder extends SimulationBuilder {
         String[] tails;
         Integer[] upperLowerRatio;
 
-        AdditionalLipid.resetCounter();
-
         // [["head", "linker", "tail", "ratio"], ["head", "linker", "tail", "ratio"]]
         JSONArray lipidArray = (JSONArray) this.settings.get("insane_al");
         List<AdditionalLipid> listAddLip = new LinkedList();
@@ -154,8 +153,9 @@ public class InsaneSimulationBuilder extends SimulationBuilder {
                 tails = singleLipid.get(2).toString().toUpperCase().split(" ");
                 upperLowerRatio = this.getValidRatios(singleLipid.get(3).toString());
 
-                listAddLip.add(new AdditionalLipid(this.errorMessages, heads, linkers, tails, upperLowerRatio[0],
-                        upperLowerRatio[1]));
+                // the lipids are numbered per simulation, so concurrent simulations do not affect each other
+                listAddLip.add(new AdditionalLipid(this.errorMessages, listAddLip.size() + 1, heads, linkers, tails,
+                        upperLowerRatio[0], upperLowerRatio[1]));
             }
         }
 
@@ -248,11 +248,29 @@ public class InsaneSimulationBuilder extends SimulationBuilder {
         }
     }
 
-    
+    /**
+     * Get the seed for the random number generator of insane: the seed given by the user, or the default seed. With
+     * the same seed, insane gives the same output for the same settings.
+     *
+     * @return the seed, or null if there is none and insane has to draw its own
+     */
+    private Integer getSeed() {
+        Integer defaultSeed = ConfigurationSettings.getDefaultSeed();
+        if (defaultSeed == null && Double.isNaN(this.getParameterDouble("insane_seed", Double.NaN))) {
+            return null;
+        }
+        return this.getParameterInt("insane_seed", defaultSeed == null ? 0 : defaultSeed);
+    }
+
     private void buildArguments(){
         this.arguments.add(this.insanePath);
         this.arguments.add("-o");
         this.arguments.add(this.outfilePath);
+        Integer seed = this.getSeed();
+        if (seed != null) {
+            this.arguments.add("-seed");
+            this.arguments.add(seed.toString());
+        }
         this.gridSize.addArguments(this.arguments);
         this.membrane.addArguments(this.arguments);
         this.protein.addArguments(this.arguments);
@@ -299,4 +317,24 @@ public class InsaneSimulationBuilder extends SimulationBuilder {
     public boolean isTooBig() {
         return this.gridSize.isTooBig();
     }
+
+    /**
+     * Get the maximum time in seconds insane.py may run, system property: insanemodel.insane.wallClockSeconds
+     *
+     * @return the wall clock limit in seconds, 0 if there is no limit
+     */
+    @Override
+    public int getWallClockLimitSeconds() {
+        return ConfigurationSettings.getStageLimitSeconds("insane", "wallClockSeconds", 300);
+    }
+
+    /**
+     * Get the maximum cpu time in seconds insane.py may use, system property: insanemodel.insane.cpuSeconds
+     *
+     * @return the cpu time limit in seconds, 0 if there is no limit
+     */
+    @Override
+    public int getCpuLimitSeconds() {
+        return ConfigurationSettings.getStageLimitSeconds("insane", "cpuSeconds", 300);
+    }
 }
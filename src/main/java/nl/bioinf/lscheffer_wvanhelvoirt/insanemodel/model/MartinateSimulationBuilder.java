@@ -5,6 +5,7 @@
  */
 package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model;
 
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
 import java.io.IOException;
 import java.util.LinkedList;
 import org.json.simple.JSONObject;
@@ -77,5 +78,26 @@ public class MartinateSimulationBuilder extends SimulationBuilder {
         this.insaneBuild.addMartinateArguments(this.arguments);
         
     }
-    
+
+    /**
+     * Get the maximum time in seconds martinate.sh may run, including the GROMACS runs it starts.
+     * System property: insanemodel.martinate.wallClockSeconds
+     *
+     * @return the wall clock limit in seconds, 0 if there is no limit
+     */
+    @Override
+    public int getWallClockLimitSeconds() {
+        return ConfigurationSettings.getStageLimitSeconds("martinate", "wallClockSeconds", 3600);
+    }
+
+    /**
+     * Get the maximum cpu time in seconds every process of martinate.sh may use. GROMACS uses several threads, so
+     * this limit is higher than the wall clock limit. System property: insanemodel.martinate.cpuSeconds
+     *
+     * @return the cpu time limit in seconds, 0 if there is no limit
+     */
+    @Override
+    public int getCpuLimitSeconds() {
+        return ConfigurationSettings.getStageLimitSeconds("martinate", "cpuSeconds", 14400);
+    }
 }
@@ -5,7 +5,9 @@
  */
 package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model;
 
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import org.apache.commons.io.FilenameUtils;
@@ -29,7 +31,7 @@ public class MartinizeSimulationBuilder extends SimulationBuilder {
                                       String outfilePath,
                                       String martinizePath,
                                       LinkedList errorMessages) {
-        super(settings, infilePath);
+        super(settings, infilePath, errorMessages);
         this.martinizePath = martinizePath;
         this.outTopologyPath = this.replaceExtension(outfilePath, "-cg.top");
         this.outPdbPath = this.replaceExtension(outfilePath, "-mart.pdb");
@@ -76,6 +78,16 @@ public class MartinizeSimulationBuilder extends SimulationBuilder {
     public String getOutputPdbPath(){
         return this.outPdbPath;
     }
+
+    /**
+     * Get the absolute(!) paths to all output files of martinize: the coarse grained structure, the topology and the
+     * index file.
+     *
+     * @return List containing the output file paths
+     */
+    public List<String> getOutputPaths() {
+        return Arrays.asList(this.outPdbPath, this.outTopologyPath, this.outIndexPath);
+    }
     
     private void buildArguments(){
         this.arguments.add(this.martinizePath);
@@ -113,6 +125,23 @@ public class MartinizeSimulationBuilder extends SimulationBuilder {
         return martinateArguments;
     }
 
-    
-    
+    /**
+     * Get the maximum time in seconds martinize.py may run, system property: insanemodel.martinize.wallClockSeconds
+     *
+     * @return the wall clock limit in seconds, 0 if there is no limit
+     */
+    @Override
+    public int getWallClockLimitSeconds() {
+        return ConfigurationSettings.getStageLimitSeconds("martinize", "wallClockSeconds", 300);
+    }
+
+    /**
+     * Get the maximum cpu time in seconds martinize.py may use, system property: insanemodel.martinize.cpuSeconds
+     *
+     * @return the cpu time limit in seconds, 0 if there is no limit
+     */
+    @Override
+    public int getCpuLimitSeconds() {
+        return ConfigurationSettings.getStageLimitSeconds("martinize", "cpuSeconds", 300);
+    }
 }
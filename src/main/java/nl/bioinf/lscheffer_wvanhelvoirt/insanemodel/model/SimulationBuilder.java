@@ -5,9 +5,11 @@
  */
 package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
 import org.json.simple.JSONObject;
 
 /**
@@ -25,6 +27,8 @@ public abstract class SimulationBuilder {
     protected final String infilePath;
     
     protected boolean isBuildable;
+    /** The niceness the process of the simulation runs with, 0 for the normal priority. */
+    private int niceness;
     
 
     public SimulationBuilder(JSONObject settings, String infilePath) {
@@ -51,15 +55,74 @@ public abstract class SimulationBuilder {
      * @throws IOException if an I/O error occurs
      */
     public Process build() throws IOException {
+        return this.start(this.arguments);
+    }
+
+    /**
+     * Build the simulation and start the process with the limits of this simulation, using run_stage.sh.
+     * The process runs in its own process group, the id of that group is written to the given pid file.
+     * The process runs with the niceness of this simulation, see setNiceness().
+     *
+     * @param pidFile the file the process group id is written to
+     * @return        the process
+     * @throws IOException if an I/O error occurs
+     */
+    public Process build(final File pidFile) throws IOException {
+        List<String> command = new LinkedList();
+        command.add("/bin/sh");
+        command.add(ConfigurationPaths.getPathToStageRunner());
+        command.add(pidFile.getAbsolutePath());
+        command.add(Integer.toString(this.getCpuLimitSeconds()));
+        command.add(Integer.toString(this.niceness));
+        command.addAll(this.arguments);
+        return this.start(command);
+    }
+
+    /**
+     * Start the process with the given command, if this simulation is buildable.
+     *
+     * @param command the command and its arguments
+     * @return        the process
+     * @throws IOException if an I/O error occurs
+     */
+    private Process start(final List<String> command) throws IOException {
         if (this.isBuildable){
-            ProcessBuilder processBuilder = new ProcessBuilder(this.arguments);
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
             return processBuilder.start();
         } else {
             throw new UnsupportedOperationException("Can not build a SimulationBuilder that has been instantiated with only an input JSONObject!");
         }
+    }
 
+    /**
+     * Get the maximum time in seconds the process may run before it is stopped.
+     * Subclasses override this with the limit of their program.
+     *
+     * @return the wall clock limit in seconds, 0 if there is no limit
+     */
+    public int getWallClockLimitSeconds() {
+        return 0;
+    }
+
+    /**
+     * Get the maximum cpu time in seconds every process of the simulation may use before it is stopped.
+     * Subclasses override this with the limit of their program.
+     *
+     * @return the cpu time limit in seconds, 0 if there is no limit
+     */
+    public int getCpuLimitSeconds() {
+        return 0;
+    }
+
+    /**
+     * Set the niceness the process of the simulation runs with. A process with a higher niceness only gets the cpu
+     * when the processes with a lower niceness leave it free.
+     *
+     * @param niceness the niceness, 0 for the normal priority and at most 19
+     */
+    public void setNiceness(final int niceness) {
+        this.niceness = niceness;
     }
-    
     
     protected int getRatioInt(String stringForm) {
         try {
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.servlets;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobListener;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationJob;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Completes an asynchronous request when its job is done, or when the request times out.
+ * Whichever comes first answers the request, the other one is ignored. A request that times out or fails stops
+ * listening to its job, so polling a long job does not leave a listener behind for every request.
+ *
+ * The container does not tell when the client of an idle asynchronous request disconnects. A request that waits
+ * long can therefore send a heartbeat (see startHeartbeat()): a space is written every now and then, which fails
+ * once the connection is closed. Leading whitespace does not change the JSON that is written at the end.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+abstract class AsyncJobResponder implements JobListener, AsyncListener {
+    /** The asynchronous context of the waiting request. */
+    private final AsyncContext asyncContext;
+    /** The job the request waits for. */
+    private final SimulationJob job;
+    /** Whether the request has already been answered. */
+    private final AtomicBoolean answered;
+    /** The heartbeat checking whether the client is still connected, null if there is none. */
+    private volatile ScheduledFuture<?> heartbeat;
+
+    /**
+     * Create a new AsyncJobResponder for the given asynchronous context.
+     *
+     * @param asyncContext  the asynchronous context of the waiting request
+     * @param job           the job the request waits for
+     * @param timeoutMillis the time in milliseconds after which the request times out
+     */
+    AsyncJobResponder(final AsyncContext asyncContext, final SimulationJob job, final long timeoutMillis) {
+        this.asyncContext = asyncContext;
+        this.job = job;
+        this.answered = new AtomicBoolean(false);
+        this.asyncContext.setTimeout(timeoutMillis);
+        this.asyncContext.addListener(this);
+    }
+
+    /**
+     * Write the response for a job that is done.
+     *
+     * @param response the response to write to
+     * @param job      the job that is done
+     * @throws IOException if an I/O error occurs
+     */
+    abstract void writeDone(HttpServletResponse response, SimulationJob job) throws IOException;
+
+    /**
+     * Write the response for a request that timed out before its job was done.
+     *
+     * @param response the response to write to
+     * @param job      the job that is not done yet
+     * @throws IOException if an I/O error occurs
+     */
+    abstract void writeTimeout(HttpServletResponse response, SimulationJob job) throws IOException;
+
+    /**
+     * Called when the connection to the client is lost before the job is done. Does nothing by default, subclasses
+     * that are the only interested party in the job can cancel it here.
+     *
+     * @param job the job nobody waits for anymore
+     */
+    void abandoned(SimulationJob job) { }
+
+    /**
+     * Write a space to the client every period, until the request is answered. When the write fails, the client is
+     * gone and the request is handled as abandoned. The response is committed by the first heartbeat, so after that
+     * the status can not be changed anymore: the content type has to be set before, and writeDone() and
+     * writeTimeout() have to write their outcome in the body.
+     *
+     * @param jobManager   the job manager running the heartbeat
+     * @param periodMillis the time in milliseconds between two heartbeats
+     */
+    void startHeartbeat(final JobManager jobManager, final long periodMillis) {
+        this.heartbeat = jobManager.scheduleHeartbeat(new Runnable() {
+            @Override
+            public void run() {
+                sendHeartbeat();
+            }
+        }, periodMillis);
+        if (this.answered.get()) {
+            // answered before the heartbeat was scheduled
+            this.heartbeat.cancel(false);
+        }
+    }
+
+    /**
+     * Write a space to the client, and handle the request as abandoned if that fails.
+     */
+    private synchronized void sendHeartbeat() {
+        if (this.answered.get()) {
+            return;
+        }
+        boolean connected;
+        try {
+            PrintWriter out = this.asyncContext.getResponse().getWriter();
+            out.write(' ');
+            out.flush();
+            // a PrintWriter does not throw, it only remembers that a write failed
+            connected = !out.checkError();
+        } catch (IOException | IllegalStateException ex) {
+            connected = false;
+        }
+        if (!connected && this.answered.compareAndSet(false, true)) {
+            this.stopListening();
+            this.abandoned(this.job);
+            this.asyncContext.complete();
+        }
+    }
+
+    /**
+     * Stop listening to the job and stop the heartbeat, the request does not wait anymore.
+     */
+    private void stopListening() {
+        this.job.removeListener(this);
+        ScheduledFuture<?> currentHeartbeat = this.heartbeat;
+        if (currentHeartbeat != null) {
+            currentHeartbeat.cancel(false);
+        }
+    }
+
+    @Override
+    public synchronized void jobFinished(SimulationJob finishedJob) {
+        if (!this.answered.compareAndSet(false, true)) {
+            return;
+        }
+        this.stopListening();
+        try {
+            this.writeDone((HttpServletResponse) this.asyncContext.getResponse(), finishedJob);
+        } catch (IOException | IllegalStateException ex) {
+            // the client is gone, there is nobody left to answer
+            Logger.getLogger(AsyncJobResponder.class.getName()).log(Level.FINE, null, ex);
+        } finally {
+            this.asyncContext.complete();
+        }
+    }
+
+    /**
+     * Answer the request with '503 Service Unavailable' because the job could not be queued.
+     *
+     * @param retryAfterSeconds the amount of seconds after which the client may retry
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized void rejected(final long retryAfterSeconds) throws IOException {
+        this.stopListening();
+        if (this.answered.compareAndSet(false, true)) {
+            HttpServletResponse response = (HttpServletResponse) this.asyncContext.getResponse();
+            response.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "The server is busy, please try again in " + retryAfterSeconds + " seconds.");
+            this.asyncContext.complete();
+        }
+    }
+
+    @Override
+    public synchronized void onTimeout(AsyncEvent event) throws IOException {
+        this.stopListening();
+        if (this.answered.compareAndSet(false, true)) {
+            try {
+                this.writeTimeout((HttpServletResponse) this.asyncContext.getResponse(), this.job);
+            } finally {
+                this.asyncContext.complete();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onError(AsyncEvent event) throws IOException {
+        this.stopListening();
+        if (this.answered.compareAndSet(false, true)) {
+            this.abandoned(this.job);
+        }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+        this.stopListening();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException { }
+}
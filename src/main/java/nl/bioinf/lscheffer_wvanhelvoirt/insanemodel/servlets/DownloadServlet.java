@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.servlets;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.OutputArchive;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationJob;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This servlet serves the output files of jobs:
+ *
+ * GET  /download/{id}/{file}   download an output file, for instance output_insane.gro or insane_model.zip
+ * HEAD /download/{id}/{file}   only the headers of the download
+ *
+ * The output files never change once a job is done, so every file gets a strong ETag and a Last-Modified date,
+ * and a client that revalidates its copy (If-None-Match or If-Modified-Since) gets '304 Not Modified' instead of the
+ * whole file again. A single byte range (Range, optionally with If-Range) is answered with '206 Partial Content', so
+ * interrupted downloads can be resumed.
+ *
+ * When a gzip compressed copy of a file was written next to it (output_insane.gro.gz), that copy is sent with
+ * 'Content-Encoding: gzip' to clients that accept gzip, so the structure the viewer loads is not sent uncompressed
+ * and not compressed again for every request.
+ *
+ * The zip archive of all output files (insane_model.zip) is not stored, it is streamed into the response when it is
+ * downloaded. Its bytes are not known in advance, so it has a weak ETag and can not be downloaded in ranges.
+ *
+ * The file is copied to the response with FileChannel.transferTo, without a buffer of our own. When the servlet
+ * container supports sendfile (Tomcat), the container sends the file itself and it is not copied at all.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+@WebServlet(name = "DownloadServlet", urlPatterns = {"/download/*"})
+public class DownloadServlet extends HttpServlet {
+    /** The request attribute Tomcat sets when it can send files itself. */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    /** The request attribute prefix Tomcat reads the file to send from. */
+    private static final String SENDFILE = "org.apache.tomcat.sendfile.";
+
+    /**
+     * Handles the HTTP <code>GET</code> method: send (a range of) the output file.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        this.serve(request, response, true);
+    }
+
+    /**
+     * Handles the HTTP <code>HEAD</code> method: send only the headers of the output file.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doHead(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        this.serve(request, response, false);
+    }
+
+    /**
+     * Answer a download request: '304 Not Modified' if the client has the current file, '206 Partial Content' for a
+     * satisfiable byte range, and the whole file otherwise.
+     *
+     * @param request  servlet request
+     * @param response servlet response
+     * @param sendBody whether the file itself is sent, or only the headers
+     * @throws IOException if an I/O error occurs
+     */
+    private void serve(HttpServletRequest request, HttpServletResponse response, boolean sendBody)
+            throws IOException {
+        File file = this.findFile(request);
+        if (file == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no such output file.");
+            return;
+        }
+        // the output is being used, so keep it longer
+        String jobId = file.getParentFile().getName();
+        JobManager jobManager = JobManager.getInstance(this.getServletContext());
+        if (jobManager != null) {
+            jobManager.getOutputStore().touch(jobId);
+        }
+        if (!file.isFile()) {
+            this.serveArchive(request, response, new OutputArchive(file.getParentFile()), sendBody);
+            return;
+        }
+        String fileName = file.getName();
+
+        String eTagSuffix = "";
+        File compressed = new File(file.getPath() + SimulationJob.GZIP_SUFFIX);
+        if (compressed.isFile()) {
+            // caches have to keep the compressed and the plain file apart
+            response.setHeader("Vary", "Accept-Encoding");
+            if (this.acceptsGzip(request)) {
+                file = compressed;
+                eTagSuffix = "-gzip";
+                response.setHeader("Content-Encoding", "gzip");
+            }
+        }
+
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String eTag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + eTagSuffix + "\"";
+        response.setHeader("ETag", eTag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Cache-Control", "private, no-cache");
+
+        if (this.isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        if (range != null && this.isRangeCurrent(request, eTag, lastModified)) {
+            long[] bounds = this.parseRange(range, length);
+            if (bounds == null) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        String contentType = this.getServletContext().getMimeType(fileName);
+        if (contentType == null) {
+            contentType = fileName.endsWith(".gro") ? "text/plain" : "application/octet-stream";
+        }
+        response.setContentType(contentType);
+        if (fileName.endsWith(".zip")) {
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        }
+        response.setHeader("Content-Length", Long.toString(end - start + 1));
+        if (sendBody) {
+            this.sendFile(request, response, file, start, end - start + 1);
+        }
+    }
+
+    /**
+     * Answer a request for the zip archive of all output files, by streaming the archive into the response.
+     *
+     * @param request  servlet request
+     * @param response servlet response
+     * @param archive  the archive of the output folder
+     * @param sendBody whether the archive itself is sent, or only the headers
+     * @throws IOException if an I/O error occurs
+     */
+    private void serveArchive(HttpServletRequest request, HttpServletResponse response, OutputArchive archive,
+                              boolean sendBody) throws IOException {
+        if (archive.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no such output file.");
+            return;
+        }
+        String eTag = archive.getETag();
+        long lastModified = archive.getLastModified();
+        response.setHeader("ETag", eTag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Accept-Ranges", "none");
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (this.isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + OutputArchive.FILE_NAME + "\"");
+        if (sendBody) {
+            archive.write(response.getOutputStream());
+        }
+    }
+
+    /**
+     * Tells whether the client accepts gzip compressed content, according to its Accept-Encoding header.
+     *
+     * @param request servlet request
+     * @return        boolean whether gzip may be sent
+     */
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.trim().split("\\s*;\\s*");
+            if (parameters[0].equalsIgnoreCase("gzip") || parameters[0].equals("*")) {
+                // 'gzip;q=0' explicitly refuses gzip
+                for (int i = 1; i < parameters.length; i++) {
+                    if (parameters[i].matches("[qQ]\\s*=\\s*0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the output file the request asks for. The job id and file name may only contain letters, digits, dots,
+     * underscores and dashes, so the request can not reach outside the output folder of the job. The zip archive is
+     * returned even though it does not exist, it is made when it is sent.
+     *
+     * @param request servlet request
+     * @return        the output file, or null if the path is invalid or the file does not exist
+     */
+    private File findFile(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null) {
+            return null;
+        }
+        String[] pathParts = pathInfo.replaceAll("^/+|/+$", "").split("/+");
+        if (pathParts.length != 2 || !pathParts[0].matches("[A-Za-z0-9-]+")
+                || !pathParts[1].matches("[A-Za-z0-9_-][A-Za-z0-9._-]*")) {
+            return null;
+        }
+        File file = new File(ConfigurationPaths.getAbsoluteOutFilePath(pathParts[0]), pathParts[1]);
+        if (file.isFile() || (pathParts[1].equals(OutputArchive.FILE_NAME) && file.getParentFile().isDirectory())) {
+            return file;
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether the copy of the client is still current, according to If-None-Match or, if that is not sent,
+     * If-Modified-Since.
+     *
+     * @param request      servlet request
+     * @param eTag         the ETag of the file
+     * @param lastModified the time the file was last modified
+     * @return             boolean whether the file has not been modified
+     */
+    private boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split("\\s*,\\s*")) {
+                // a weak comparison is used for If-None-Match
+                if (candidate.trim().equals("*") || candidate.trim().replaceFirst("^W/", "").equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = this.getDateHeader(request, "If-Modified-Since");
+        // HTTP dates have a precision of seconds
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Tells whether the Range header may be used: if the request has an If-Range header, only when it matches the
+     * current file. Otherwise the whole file is sent.
+     *
+     * @param request      servlet request
+     * @param eTag         the ETag of the file
+     * @param lastModified the time the file was last modified
+     * @return             boolean whether the range applies to the current file
+     */
+    private boolean isRangeCurrent(HttpServletRequest request, String eTag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"")) {
+            // a strong comparison is used for If-Range
+            return ifRange.trim().equals(eTag);
+        }
+        long date = this.getDateHeader(request, "If-Range");
+        return date >= 0 && lastModified / 1000 == date / 1000;
+    }
+
+    /**
+     * Parse a Range header with a single byte range: 'bytes=first-last', 'bytes=first-' or 'bytes=-suffixLength'.
+     *
+     * @param range  the value of the Range header
+     * @param length the length of the file
+     * @return       {first, last} of the range, an empty array if the whole file should be sent (for instance for a
+     *               header with more than one range, which is not supported), or null if the range is not
+     *               satisfiable
+     */
+    private long[] parseRange(String range, long length) {
+        String trimmed = range.replaceAll("\\s", "");
+        if (!trimmed.matches("bytes=\\d*-\\d*") || trimmed.equals("bytes=-")) {
+            return new long[0];
+        }
+        String first = trimmed.substring("bytes=".length(), trimmed.indexOf('-'));
+        String last = trimmed.substring(trimmed.indexOf('-') + 1);
+        try {
+            long start;
+            long end = length - 1;
+            if (first.isEmpty()) {
+                // the last bytes of the file
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength == 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffixLength);
+            } else {
+                start = Long.parseLong(first);
+                if (!last.isEmpty()) {
+                    if (Long.parseLong(last) < start) {
+                        // an invalid range is ignored
+                        return new long[0];
+                    }
+                    end = Math.min(Long.parseLong(last), length - 1);
+                }
+            }
+            if (start >= length) {
+                return null;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException ex) {
+            // a number too large for a long
+            return new long[0];
+        }
+    }
+
+    /**
+     * Get a date header, ignoring a value that is not a valid date.
+     *
+     * @param request servlet request
+     * @param name    the name of the header
+     * @return        the date in milliseconds since the epoch, or -1 if there is no valid date
+     */
+    private long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Send a part of the file: let the servlet container send it when it supports sendfile, otherwise copy it to the
+     * response with FileChannel.transferTo.
+     *
+     * @param request  servlet request
+     * @param response servlet response
+     * @param file     the file to send
+     * @param start    the first byte to send
+     * @param count    the amount of bytes to send
+     * @throws IOException if an I/O error occurs
+     */
+    private void sendFile(HttpServletRequest request, HttpServletResponse response, File file, long start, long count)
+            throws IOException {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE + "filename", file.getCanonicalPath());
+            request.setAttribute(SENDFILE + "start", start);
+            request.setAttribute(SENDFILE + "end", start + count);
+            return;
+        }
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    // the file is shorter than it was when the headers were written
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Download the output files of jobs, with byte ranges and conditional requests";
+    }
+}
@@ -5,12 +5,10 @@
  */
 package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.servlets;
 
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.InsaneSimulationBuilder;
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.MartinizeSimulationBuilder;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationExecutor;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationJob;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.sessionListeners.FileControlSessionListener;
 import org.json.simple.parser.ParseException;
 
 import javax.servlet.ServletException;
@@ -19,65 +17,28 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.Part;
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.MartinateSimulationBuilder;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  *
  * @author Wout van Helvoirt
  */
-@WebServlet(name = "InsaneModelServlet", urlPatterns = {"/InsaneModelServlet"})
+@WebServlet(name = "InsaneModelServlet", urlPatterns = {"/InsaneModelServlet"}, asyncSupported = true)
 @MultipartConfig
 public class InsaneModelServlet extends HttpServlet {
-    
-    private String infilePath;
-    private File outputDir;
-    private LinkedList errorMessages;
-    private boolean display;
-    private String sessionId;
- 
-
-    private String streamToString(InputStream stream) throws IOException {
-        StringBuilder builder;
-        BufferedReader reader;
-        String line;
-
-        builder = new StringBuilder();
-        reader = new BufferedReader(new InputStreamReader(stream));
-        line = null;
-
-        while (((line = reader.readLine()) != null)) {
-            builder.append(line);
-        }
-
-        stream.close();
-
-        return builder.toString();
-    }
-
-    private JSONObject parseFormInputPart(Part masterPart) throws IOException, ParseException {
-        String jsonString;
-        JSONParser parser;
-        JSONObject outputJson;
-
-        jsonString = this.streamToString(masterPart.getInputStream());
-        parser = new JSONParser();
-        outputJson = (JSONObject) parser.parse(jsonString);
-
-        return outputJson;
-    }
+    /** The maximum time in milliseconds a request may wait for its job before it times out. */
+    private static final long ASYNC_TIMEOUT = 10 * 60 * 1000;
+    /** The time in milliseconds between two heartbeats, which find out whether the client is still connected. */
+    private static final long HEARTBEAT_PERIOD = 5 * 1000;
 
     /**
      * Handles the HTTP <code>POST</code> method.
+     * The request is put in asynchronous mode and a new simulation job is handed to the JobManager, so the
+     * request thread returns immediately. The response is written when the job is done. If the executor queue is
+     * full, the request is rejected with '503 Service Unavailable' and a 'Retry-After' estimate. While the job runs,
+     * a heartbeat is sent to the client, and when the client has disconnected the job is cancelled.
      *
      * @param request servlet request
      * @param response servlet response
@@ -87,144 +48,56 @@ public class InsaneModelServlet extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-        this.sessionId = request.getSession().getId();
-        this.errorMessages = new LinkedList();
-        boolean fileGiven = this.getInputFile(request);
-        boolean runMartinize = false;
-
-        // parse the master json
-        Part masterPart = request.getPart("master");
+        final JobManager jobManager = JobManager.getInstance(this.getServletContext());
 
         try {
-            JSONObject settings = this.parseFormInputPart(masterPart);
-
-            this.outputDir = new File(ConfigurationPaths.getAbsoluteOutFilePath(this.sessionId));
-            if (!this.outputDir.exists()) {
-                this.outputDir.mkdir();
-            }
-            
-            try {
-                runMartinize = Boolean.parseBoolean(settings.get("martinize").toString());
-            } catch (IllegalArgumentException | NullPointerException ex) { } // runMartinize remains false
-            
-            if (fileGiven && runMartinize){
-                this.runMartinize(settings);
-            }
+            SimulationJob job = SimulationRequest.createJob(request, jobManager);
+            FileControlSessionListener.addJob(request.getSession(), job.getId());
 
-            int exitValInsane = this.runInsane(settings);
-            this.zipOutputFiles();
-            this.returnOutput(response, this.errorMessages, exitValInsane);
-            
-        } catch (ParseException | InterruptedException ex) {  // iets aan de warnings toevoegen?
-        }
-    }
-    
-    private boolean getInputFile(HttpServletRequest request) throws IOException, ServletException {
-        // test if there was an input file given
-        boolean fileGiven = Boolean.parseBoolean(this.streamToString(request.getPart("wasFileGiven").getInputStream()));
-
-        // if given, save the input file
-        if (fileGiven) {
-            Part filePart = request.getPart("file");
-            this.infilePath = ConfigurationPaths.getAbsoluteInFilePath(request.getSession().getId());
-            Path pathToInputFile = Paths.get(this.infilePath);
-            Files.copy(filePart.getInputStream(), pathToInputFile, StandardCopyOption.REPLACE_EXISTING);
-        }
-        
-        return fileGiven;
-    }
-    
-    private int runMartinize(JSONObject settings) throws IOException, InterruptedException {
-        MartinizeSimulationBuilder martbuild = new MartinizeSimulationBuilder(settings, 
-                        this.infilePath,
-                        this.outputDir.getPath() + System.getProperty("file.separator") + "output_martinate",
-                        ConfigurationPaths.getPathToMartinize(),
-                        this.errorMessages);
-        Process martinizeProcess = martbuild.build();
-        martinizeProcess.waitFor();
-        Thread.sleep(2500);
-        this.infilePath = martbuild.getOutputPdbPath();
-
-        return martinizeProcess.exitValue();
-    }
-    
-    private int runInsane(JSONObject settings) throws IOException, InterruptedException {
-        InsaneSimulationBuilder simbuild = new InsaneSimulationBuilder(settings,
-                    this.infilePath,
-                    this.outputDir.getPath() + System.getProperty("file.separator") + "output_insane.gro",
-                    ConfigurationPaths.getPathToInsane(),
-                    this.errorMessages);
-
-        Process insaneProcess = simbuild.build();
-        // Only display if the grid is not too big
-        this.display = !simbuild.isTooBig();
-        insaneProcess.waitFor();
-        Thread.sleep(2500);
-        
-//        MartinateSimulationBuilder m = new MartinateSimulationBuilder(settings, this.infilePath, this.outputDir.getPath(), ConfigurationPaths.getPathToMartinate());
-//        Process p = m.build();
-//        p.waitFor();
-//        System.out.println("exval was" + p.exitValue()); <- exit val is 1!
-        
-        
-        return insaneProcess.exitValue();
-    }
-
-    private void zipOutputFiles() throws IOException {
-        // Make file from directory and search it for files.
-        File f = new File(ConfigurationPaths.getAbsoluteOutFilePath(this.sessionId + System.getProperty("file.separator")));
-        File[] listOfFiles = f.listFiles();
-
-        // Create file and zip output streams.
-        FileOutputStream fout = new FileOutputStream(new File(f.getAbsolutePath() + System.getProperty("file.separator") + "insane_model.zip"));
-        ZipOutputStream zout = new ZipOutputStream(fout);
+            AsyncJobResponder responder = new AsyncJobResponder(request.startAsync(), job, ASYNC_TIMEOUT) {
+                @Override
+                void writeDone(HttpServletResponse response, SimulationJob job) throws IOException {
+                    returnOutput(response, job);
+                }
 
-        // For each found file, make a new zip entry and write the file contents to it.
-        for (int i = 0; i < listOfFiles.length; i++) {
-            if (listOfFiles[i].isFile()) {
-                FileInputStream in = new FileInputStream(listOfFiles[i]);
-                ZipEntry e = new ZipEntry("insane_model" + System.getProperty("file.separator") + listOfFiles[i].getName());
-                zout.putNextEntry(e);
+                @Override
+                void writeTimeout(HttpServletResponse response, SimulationJob job) throws IOException {
+                    // the heartbeat has committed the response, so the cancelled job is reported in the body
+                    jobManager.cancel(job.getId());
+                    returnOutput(response, job);
+                }
 
-                byte[] bytes = new byte[1024];
-                int length;
-                while ((length = in.read(bytes)) >= 0) {
-                    zout.write(bytes, 0, length);
+                @Override
+                void abandoned(SimulationJob job) {
+                    // the client closed the connection, nobody will ever ask for this result
+                    jobManager.cancel(job.getId());
                 }
+            };
 
-                // Close entry.
-                zout.closeEntry();
+            try {
+                // a newer request of the same session replaces the older one, which is answered as cancelled
+                jobManager.submit(job, SimulationRequest.getClientKey(request));
+                response.setContentType("text/html");
+                job.addListener(responder);
+                responder.startHeartbeat(jobManager, HEARTBEAT_PERIOD);
+            } catch (RejectedExecutionException ex) {
+                responder.rejected(SimulationExecutor.getInstance(this.getServletContext()).getRetryAfterSeconds());
             }
+        } catch (ParseException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The given settings could not be parsed.");
+        } catch (RejectedExecutionException ex) {
+            // no room on the disk for the job, it has not been created
+            long retryAfter = SimulationExecutor.getInstance(this.getServletContext()).getRetryAfterSeconds();
+            response.setHeader("Retry-After", Long.toString(retryAfter));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "The server is busy, please try again in " + retryAfter + " seconds.");
         }
-
-        // Close zip output stream.
-        zout.close();
     }
-    
-    private void returnOutput(HttpServletResponse response, List<String> errors, int insaneExitValue) throws IOException {
-        JSONObject outputJson = new JSONObject();
 
-        if (insaneExitValue != 0) {
-            //List<String> errors = simbuild.getErrorMessages();
-            errors.add("insane.py exited with a non-zero exit value, so no output file has been written. Please"
-                + " check your given arguments and/or input file and try again.");
-            outputJson.put("errorMessages", JSONArray.toJSONString(errors));
-            outputJson.put("outfile", "no_output_available");
-            outputJson.put("outfileZip", "no_output_available");
-            outputJson.put("download", false);
-            outputJson.put("display", false);
-        } else {
-            outputJson.put("errorMessages", JSONArray.toJSONString(errors));
-            outputJson.put("outfile", ConfigurationPaths.getWebOutFilePath(this.sessionId
-                    + System.getProperty("file.separator") + "output_insane.gro"));
-            outputJson.put("outfileZip", ConfigurationPaths.getWebOutFilePath(this.sessionId
-                    + System.getProperty("file.separator") + "insane_model.zip"));
-            outputJson.put("download", true);
-            outputJson.put("display", this.display);
-        }
+    private void returnOutput(HttpServletResponse response, SimulationJob job) throws IOException {
         response.setContentType("text/html");
         PrintWriter out = response.getWriter();
-        out.write(outputJson.toString());
+        out.write(job.getResultJson().toString());
         out.flush();
         out.close();
     }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.servlets;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobEvent;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobEventListener;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationJob;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * This class streams the events of a SimulationJob to a client as Server-Sent Events (text/event-stream).
+ * Each event is sent with its sequence number as id, so a reconnecting EventSource sends the 'Last-Event-ID' header
+ * and only receives the events it missed. The stream is closed after the job is done.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+class JobEventStream implements JobEventListener, AsyncListener {
+    /** The asynchronous context of the streaming request. */
+    private final AsyncContext asyncContext;
+    /** The job whose events are streamed. */
+    private final SimulationJob job;
+    /** The sequence number of the last event that has been sent. */
+    private long lastSentSequence;
+    /** Whether the stream has been closed. */
+    private boolean closed;
+
+    /**
+     * Create a new JobEventStream. Call start() to begin streaming.
+     *
+     * @param asyncContext      the asynchronous context of the streaming request
+     * @param job               the job whose events are streamed
+     * @param lastEventSequence the sequence number of the last event the client has already seen
+     * @param timeoutMillis     the time in milliseconds after which the stream is closed, the client reconnects then
+     */
+    JobEventStream(final AsyncContext asyncContext,
+                   final SimulationJob job,
+                   final long lastEventSequence,
+                   final long timeoutMillis) {
+        this.asyncContext = asyncContext;
+        this.job = job;
+        this.lastSentSequence = lastEventSequence;
+        this.closed = false;
+        this.asyncContext.setTimeout(timeoutMillis);
+        this.asyncContext.addListener(this);
+    }
+
+    /**
+     * Send the response headers and the events the client missed, and start listening for new events.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void start() throws IOException {
+        HttpServletResponse response = (HttpServletResponse) this.asyncContext.getResponse();
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        // tell proxies like nginx not to buffer the stream
+        response.setHeader("X-Accel-Buffering", "no");
+        response.flushBuffer();
+
+        List<JobEvent> history = this.job.addEventListener(this);
+        for (JobEvent event : history) {
+            this.jobEvent(this.job, event);
+        }
+        if (this.job.getStatus().isDone()) {
+            this.close();
+        }
+    }
+
+    @Override
+    public synchronized void jobEvent(SimulationJob eventJob, JobEvent event) {
+        // events can arrive twice or out of order when they are published from different threads
+        if (this.closed || event.getSequence() <= this.lastSentSequence) {
+            return;
+        }
+        try {
+            PrintWriter out = this.asyncContext.getResponse().getWriter();
+            out.write("id: " + event.getSequence() + "\n");
+            out.write("event: " + event.getType().name().toLowerCase() + "\n");
+            out.write("data: " + event.toJson().toString() + "\n\n");
+            out.flush();
+            if (out.checkError()) {
+                throw new IOException("The client closed the event stream.");
+            }
+            this.lastSentSequence = event.getSequence();
+        } catch (IOException | IllegalStateException ex) {
+            this.close();
+            return;
+        }
+        if (event.getType() == JobEvent.Type.STATUS && this.job.getStatus().isDone()) {
+            this.close();
+        }
+    }
+
+    /**
+     * Stop listening for events and complete the request.
+     */
+    private synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.job.removeEventListener(this);
+        this.asyncContext.complete();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+        this.close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+        this.close();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+        synchronized (this) {
+            this.closed = true;
+        }
+        this.job.removeEventListener(this);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException { }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.servlets;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationExecutor;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationJob;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.sessionListeners.FileControlSessionListener;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This servlet offers a job oriented API, so clients do not have to keep a connection open while a simulation runs:
+ *
+ * POST   /jobs                     submit a new job (same form as the InsaneModelServlet), returns its id.
+ *                                  A new job replaces the unfinished job with the same 'clientId' (or session)
+ * GET    /jobs/{id}[?wait=seconds] get the status of a job, optionally waiting until the job is done
+ * GET    /jobs/{id}/result         get the result of a job that is done
+ * GET    /jobs/{id}/events         stream the stages and progress of a job as Server-Sent Events
+ * DELETE /jobs/{id}                cancel a job, stopping its processes and deleting its files
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+@WebServlet(name = "JobServlet", urlPatterns = {"/jobs/*"}, asyncSupported = true)
+@MultipartConfig
+public class JobServlet extends HttpServlet {
+    /** The time in milliseconds after which an event stream is closed, the EventSource of the client reconnects. */
+    private static final long EVENT_STREAM_TIMEOUT = 5 * 60 * 1000;
+
+    /**
+     * Handles the HTTP <code>POST</code> method: submit a new job.
+     * Answers '202 Accepted' with the status of the new job, or '503 Service Unavailable' if the queue is full.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (this.getPathParts(request).length != 0) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        JobManager jobManager = JobManager.getInstance(this.getServletContext());
+
+        try {
+            SimulationJob job = SimulationRequest.createJob(request, jobManager);
+            jobManager.submit(job, SimulationRequest.getClientKey(request));
+            // if the client has a session, the job is removed together with the session, unless it has finished
+            if (request.getSession(false) != null) {
+                FileControlSessionListener.addJob(request.getSession(false), job.getId());
+            }
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            response.setHeader("Location", request.getContextPath() + "/jobs/" + job.getId());
+            this.writeJson(response, job.getStatusJson());
+        } catch (ParseException ex) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The given settings could not be parsed.");
+        } catch (RejectedExecutionException ex) {
+            long retryAfter = SimulationExecutor.getInstance(this.getServletContext()).getRetryAfterSeconds();
+            response.setHeader("Retry-After", Long.toString(retryAfter));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "The server is busy, please try again in " + retryAfter + " seconds.");
+        }
+    }
+
+    /**
+     * Handles the HTTP <code>GET</code> method: get the status or the result of a job.
+     * With the parameter 'wait', the status request is answered as soon as the job is done, or after the given
+     * amount of seconds (long-polling).
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String[] pathParts = this.getPathParts(request);
+        SimulationJob job = this.findJob(pathParts, response);
+        if (job == null) {
+            return;
+        }
+
+        if (pathParts.length == 1) {
+            int waitSeconds = this.getWaitSeconds(request);
+            if (waitSeconds <= 0 || job.getStatus().isDone()) {
+                this.writeJson(response, job.getStatusJson());
+            } else {
+                this.waitForJob(request, job, waitSeconds);
+            }
+        } else if (pathParts.length == 2 && "result".equals(pathParts[1])) {
+            if (job.getStatus().isDone()) {
+                this.writeJson(response, job.getResultJson());
+            } else {
+                response.setStatus(HttpServletResponse.SC_CONFLICT);
+                this.writeJson(response, job.getStatusJson());
+            }
+        } else if (pathParts.length == 2 && "events".equals(pathParts[1])) {
+            JobEventStream stream = new JobEventStream(request.startAsync(), job,
+                    this.getLastEventId(request), EVENT_STREAM_TIMEOUT);
+            stream.start();
+        } else {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    /**
+     * Handles the HTTP <code>DELETE</code> method: cancel a job.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String[] pathParts = this.getPathParts(request);
+        SimulationJob job = this.findJob(pathParts, response);
+        if (job == null) {
+            return;
+        }
+        if (pathParts.length != 1) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        JobManager.getInstance(this.getServletContext()).cancel(job.getId());
+        this.writeJson(response, job.getStatusJson());
+    }
+
+    /**
+     * Answer the request asynchronously with the job status, as soon as the job is done or the wait time is over.
+     *
+     * @param request     servlet request
+     * @param job         the job to wait for
+     * @param waitSeconds the maximum amount of seconds to wait
+     */
+    private void waitForJob(HttpServletRequest request, SimulationJob job, int waitSeconds) {
+        AsyncJobResponder responder = new AsyncJobResponder(request.startAsync(), job, waitSeconds * 1000L) {
+            @Override
+            void writeDone(HttpServletResponse response, SimulationJob job) throws IOException {
+                writeJson(response, job.getStatusJson());
+            }
+
+            @Override
+            void writeTimeout(HttpServletResponse response, SimulationJob job) throws IOException {
+                writeJson(response, job.getStatusJson());
+            }
+        };
+        job.addListener(responder);
+    }
+
+    /**
+     * Get the job from the first part of the path, or send '404 Not Found' if there is no such job.
+     *
+     * @param pathParts the parts of the path after /jobs
+     * @param response  servlet response
+     * @return          the job, or null if the job does not exist
+     * @throws IOException if an I/O error occurs
+     */
+    private SimulationJob findJob(String[] pathParts, HttpServletResponse response) throws IOException {
+        SimulationJob job = null;
+        if (pathParts.length > 0) {
+            job = JobManager.getInstance(this.getServletContext()).getJob(pathParts[0]);
+        }
+        if (job == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no job with this id.");
+        }
+        return job;
+    }
+
+    /**
+     * Split the path after /jobs into its parts, ignoring empty parts.
+     *
+     * @param request servlet request
+     * @return        the parts of the path
+     */
+    private String[] getPathParts(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || pathInfo.replace("/", "").isEmpty()) {
+            return new String[0];
+        }
+        return pathInfo.replaceAll("^/+|/+$", "").split("/+");
+    }
+
+    /**
+     * Get the amount of seconds a long-polling request wants to wait, limited to the maximum poll time.
+     *
+     * @param request servlet request
+     * @return        the amount of seconds to wait, 0 if the request does not want to wait
+     */
+    private int getWaitSeconds(HttpServletRequest request) {
+        try {
+            int waitSeconds = Integer.parseInt(request.getParameter("wait"));
+            return Math.min(waitSeconds, ConfigurationSettings.getMaxPollSeconds());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Get the sequence number of the last event a reconnecting EventSource has seen.
+     *
+     * @param request servlet request
+     * @return        the sequence number from the 'Last-Event-ID' header, 0 if there is none
+     */
+    private long getLastEventId(HttpServletRequest request) {
+        try {
+            return Long.parseLong(request.getHeader("Last-Event-ID"));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Write the given JSON object as response.
+     *
+     * @param response servlet response
+     * @param json     the JSON object to write
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeJson(HttpServletResponse response, JSONObject json) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = response.getWriter();
+        out.write(json.toString());
+        out.flush();
+        out.close();
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Submit, poll, fetch and cancel simulation jobs";
+    }
+}
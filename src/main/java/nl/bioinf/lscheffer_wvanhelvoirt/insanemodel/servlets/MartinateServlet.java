@@ -5,12 +5,11 @@
  */
 package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.servlets;
 
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.InsaneSimulationBuilder;
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.MartinizeSimulationBuilder;
-import org.json.simple.JSONArray;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.MartinateJob;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationExecutor;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.sessionListeners.FileControlSessionListener;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import javax.servlet.ServletException;
@@ -21,15 +20,11 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.MartinateSimulationBuilder;
 
 /**
  *
@@ -38,43 +33,8 @@ import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.model.MartinateSimulationBui
 @WebServlet(name = "MartinateServlet", urlPatterns = {"/MartinateServlet"})
 @MultipartConfig
 public class MartinateServlet extends HttpServlet {
-    
-    private String infilePath;
-    private File outputDir;
-    private LinkedList errorMessages;
-    private boolean display;
-    private String sessionId;
- 
-
-    private String streamToString(InputStream stream) throws IOException {
-        StringBuilder builder;
-        BufferedReader reader;
-        String line;
-
-        builder = new StringBuilder();
-        reader = new BufferedReader(new InputStreamReader(stream));
-        line = null;
-
-        while (((line = reader.readLine()) != null)) {
-            builder.append(line);
-        }
-
-        stream.close();
-
-        return builder.toString();
-    }
-
-    private JSONObject parseFormInputPart(Part masterPart) throws IOException, ParseException {
-        String jsonString;
-        JSONParser parser;
-        JSONObject outputJson;
-
-        jsonString = this.streamToString(masterPart.getInputStream());
-        parser = new JSONParser();
-        outputJson = (JSONObject) parser.parse(jsonString);
-
-        return outputJson;
-    }
+    // This servlet has no fields: one instance handles all requests at the same time, so everything a request needs
+    // lives in its own MartinateJob.
 
     /**
      * Handles the HTTP <code>POST</code> method.
@@ -87,9 +47,12 @@ public class MartinateServlet extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-        this.sessionId = request.getSession().getId();
-        boolean fileGiven = this.getInputFile(request);
-        boolean runMartinize = false;
+        JobManager jobManager = JobManager.getInstance(this.getServletContext());
+        String jobId = jobManager.createJobId();
+        // the input and output files of the job are removed together with the session, martinate output is not kept
+        // by the OutputStore
+        FileControlSessionListener.addJob(request.getSession(), jobId);
+        String infilePath = SimulationRequest.getInputFile(request, jobId);
 
         // parse the master json
         Part masterPart = request.getPart("master");
@@ -97,16 +60,19 @@ public class MartinateServlet extends HttpServlet {
 
         try {
             
-            JSONObject settings = this.parseFormInputPart(masterPart);
-            
-
-            this.outputDir = new File(ConfigurationPaths.getAbsoluteOutFilePath(this.sessionId));
-
-            if (!this.outputDir.exists()) {
-                this.outputDir.mkdir();
-            } // OUTPUTDIR OP EEN MANIER LEEG MAKEN OM ALLES TE OVERSCHRIJVEN/OF NOG MAKKELIJKER; IN DEZE MAP EEN NIEUWE OUTPUTMAP
-
-            int exitValInsane = this.runMartinate(settings);
+            JSONObject settings = SimulationRequest.parseFormInputPart(masterPart);
+            MartinateJob job = new MartinateJob(jobId, settings, infilePath, jobManager.getEngine());
+
+            int exitValInsane;
+            try {
+                exitValInsane = this.runMartinate(job);
+            } catch (RejectedExecutionException ex) {
+                long retryAfter = SimulationExecutor.getInstance(this.getServletContext()).getRetryAfterSeconds();
+                response.setHeader("Retry-After", Long.toString(retryAfter));
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "The server is busy, please try again in " + retryAfter + " seconds.");
+                return;
+            }
             
             System.out.println("ER IS NOG GEEN OUTPUT");
             
@@ -127,19 +93,18 @@ public class MartinateServlet extends HttpServlet {
         }
     }
     
-    private int runMartinate(JSONObject settings) throws IOException, InterruptedException {
-
-        MartinateSimulationBuilder martinateBuild = new MartinateSimulationBuilder(settings,
-                                this.infilePath,
-                                this.outputDir.getPath(),
-                                ConfigurationPaths.getPathToMartinate());
+    private int runMartinate(MartinateJob job) throws IOException, InterruptedException {
+        // The process is launched by the SimulationExecutor, so it counts towards the limit of running simulations
+        Future<Integer> martinateExitValue = SimulationExecutor.getInstance(this.getServletContext()).submit(job);
 
-        Process martinateProcess = martinateBuild.build();
-        martinateProcess.waitFor();
-        Thread.sleep(2500);
-        System.out.println(martinateProcess.exitValue() + "=exitval");
-        
-        return martinateProcess.exitValue();
+        try {
+            return martinateExitValue.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
     }
 //        MartinizeSimulationBuilder martbuild = new MartinizeSimulationBuilder(settings, 
 //                        this.infilePath,
@@ -154,21 +119,6 @@ public class MartinateServlet extends HttpServlet {
     
     
     
-    private boolean getInputFile(HttpServletRequest request) throws IOException, ServletException {
-        // test if there was an input file given
-        boolean fileGiven = Boolean.parseBoolean(this.streamToString(request.getPart("wasFileGiven").getInputStream()));
-
-        // if given, save the input file
-        if (fileGiven) {
-            Part filePart = request.getPart("file");
-            this.infilePath = ConfigurationPaths.getAbsoluteInFilePath(request.getSession().getId());
-            Path pathToInputFile = Paths.get(this.infilePath);
-            Files.copy(filePart.getInputStream(), pathToInputFile, StandardCopyOption.REPLACE_EXISTING);
-        }
-        
-        return fileGiven;
-    }
-    
 //    private int runMartinize(JSONObject settings) throws IOException, InterruptedException {
 //        MartinizeSimulationBuilder martbuild = new MartinizeSimulationBuilder(settings, 
 //                        this.infilePath,
@@ -197,9 +147,9 @@ public class MartinateServlet extends HttpServlet {
 //        return insaneProcess.exitValue();
 //    }
 
-    private void zipOutputFiles() throws IOException {
+    private void zipOutputFiles(MartinateJob job) throws IOException {
         // Make file from directory and search it for files.
-        File f = new File(ConfigurationPaths.getAbsoluteOutFilePath(this.sessionId + System.getProperty("file.separator")));
+        File f = job.getOutputDir();
         File[] listOfFiles = f.listFiles();
 
         // Create file and zip output streams.
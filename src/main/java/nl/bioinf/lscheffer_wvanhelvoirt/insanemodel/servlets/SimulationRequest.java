@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.servlets;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationJob;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.Part;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class reads the multipart form the web page posts ('master', 'wasFileGiven', 'file' and optionally
+ * 'clientId') and turns it into a SimulationJob. The input file is saved under the id of the job, so every job has
+ * its own input file.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+final class SimulationRequest {
+
+    private SimulationRequest() {}
+
+    private static String streamToString(InputStream stream) throws IOException {
+        StringBuilder builder;
+        BufferedReader reader;
+        String line;
+
+        builder = new StringBuilder();
+        reader = new BufferedReader(new InputStreamReader(stream));
+        line = null;
+
+        while (((line = reader.readLine()) != null)) {
+            builder.append(line);
+        }
+
+        stream.close();
+
+        return builder.toString();
+    }
+
+    static JSONObject parseFormInputPart(Part masterPart) throws IOException, ParseException {
+        String jsonString;
+        JSONParser parser;
+        JSONObject outputJson;
+
+        jsonString = SimulationRequest.streamToString(masterPart.getInputStream());
+        parser = new JSONParser();
+        outputJson = (JSONObject) parser.parse(jsonString);
+
+        return outputJson;
+    }
+
+    /**
+     * Save the input file if one was given.
+     *
+     * @param request servlet request
+     * @param jobId   the id of the job the input file belongs to
+     * @return        the absolute(!) path to the saved input file, or null if no file was given
+     * @throws IOException      if an I/O error occurs
+     * @throws ServletException if a servlet-specific error occurs
+     */
+    static String getInputFile(HttpServletRequest request, String jobId) throws IOException, ServletException {
+        // test if there was an input file given
+        Part fileGivenPart = request.getPart("wasFileGiven");
+        boolean fileGiven = fileGivenPart != null
+                && Boolean.parseBoolean(SimulationRequest.streamToString(fileGivenPart.getInputStream()));
+
+        // if given, save the input file
+        if (fileGiven) {
+            Part filePart = request.getPart("file");
+            String infilePath = ConfigurationPaths.getAbsoluteInFilePath(jobId);
+            Path pathToInputFile = Paths.get(infilePath);
+            Files.copy(filePart.getInputStream(), pathToInputFile, StandardCopyOption.REPLACE_EXISTING);
+            return infilePath;
+        }
+
+        return null;
+    }
+
+    /**
+     * Create a new SimulationJob from the posted form.
+     *
+     * @param request    servlet request
+     * @param jobManager the job manager the job is submitted to, it gives the job its id, engine and cache
+     * @return           the new job, not submitted yet
+     * @throws IOException      if an I/O error occurs
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws ParseException   if the posted settings are not valid JSON
+     * @throws RejectedExecutionException if the disk is too full for the output of a new job
+     */
+    static SimulationJob createJob(HttpServletRequest request, JobManager jobManager)
+            throws IOException, ServletException, ParseException {
+        boolean runMartinize = false;
+        String jobId = jobManager.createJobId();
+
+        // parse the master json
+        Part masterPart = request.getPart("master");
+        if (masterPart == null) {
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_EXCEPTION);
+        }
+        JSONObject settings = SimulationRequest.parseFormInputPart(masterPart);
+
+        try {
+            runMartinize = Boolean.parseBoolean(settings.get("martinize").toString());
+        } catch (IllegalArgumentException | NullPointerException ex) { } // runMartinize remains false
+
+        // do not store the upload if the job would be rejected for lack of disk space
+        if (!jobManager.makeRoom()) {
+            throw new RejectedExecutionException("There is not enough free disk space for the output of a new job.");
+        }
+        String infilePath = SimulationRequest.getInputFile(request, jobId);
+        return new SimulationJob(jobId, settings, infilePath, runMartinize, jobManager.getEngine(),
+                jobManager.getResultCache());
+    }
+
+    /**
+     * Get the key identifying the client that posted the form. A newer job of the same client replaces its older
+     * jobs. The key is the 'clientId' the page posts within the session of the client (a session is started if there
+     * is none), so a client id sent from another session can never replace the jobs of this client. Without a client
+     * id the key is the session id.
+     *
+     * @param request servlet request
+     * @return        the client key, or null if the client can not be identified
+     * @throws IOException      if an I/O error occurs
+     * @throws ServletException if a servlet-specific error occurs
+     */
+    static String getClientKey(HttpServletRequest request) throws IOException, ServletException {
+        Part clientIdPart = request.getPart("clientId");
+        if (clientIdPart != null) {
+            String clientId = SimulationRequest.streamToString(clientIdPart.getInputStream()).trim();
+            if (clientId.matches("[A-Za-z0-9-]{1,64}")) {
+                return "session:" + request.getSession().getId() + ":client:" + clientId;
+            }
+        }
+        if (request.getSession(false) != null) {
+            return "session:" + request.getSession(false).getId();
+        }
+        return null;
+    }
+}
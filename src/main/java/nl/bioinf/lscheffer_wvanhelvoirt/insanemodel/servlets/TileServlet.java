@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.servlets;
+
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationSettings;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.SimulationJob;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure.TileFile;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This servlet serves the tiles of large output files, so the viewer can load a region in full detail instead of
+ * the whole system:
+ *
+ * GET /tiles/{id}                                         the layout of the tiles as JSON: the tile size, the
+ *                                                         amount of tiles, the center of the protein and the
+ *                                                         amount of particles of every tile
+ * GET /tiles/{id}/particles?tiles=3,4,5                   the particles of the given tiles
+ * GET /tiles/{id}/particles?region=minX,minY,maxX,maxY    the particles of the tiles overlapping a region (nm)
+ *
+ * The particles are sent as a sequence of tiles, every tile is its index and length (int) followed by the tile in
+ * the binary structure format (see BinaryStructureWriter). One request may ask for at most as many particles as the
+ * viewer may be sent (insanemodel.viewParticles).
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+@WebServlet(name = "TileServlet", urlPatterns = {"/tiles/*"})
+public class TileServlet extends HttpServlet {
+
+    /**
+     * Handles the HTTP <code>GET</code> method: send the layout of the tiles, or the particles of some tiles.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String pathInfo = request.getPathInfo();
+        String[] pathParts = pathInfo == null ? new String[0] : pathInfo.replaceAll("^/+|/+$", "").split("/+");
+        if (pathParts.length == 0 || pathParts.length > 2 || !pathParts[0].matches("[A-Za-z0-9-]+")
+                || (pathParts.length == 2 && !"particles".equals(pathParts[1]))) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        File file = new File(ConfigurationPaths.getAbsoluteOutFilePath(pathParts[0]), SimulationJob.TILES_FILE);
+        if (!file.isFile()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "There are no tiles of this output.");
+            return;
+        }
+        // the output is being used, so keep it longer
+        JobManager jobManager = JobManager.getInstance(this.getServletContext());
+        if (jobManager != null) {
+            jobManager.getOutputStore().touch(pathParts[0]);
+        }
+        TileFile tileFile = new TileFile(file);
+
+        if (pathParts.length == 1) {
+            this.writeLayout(response, tileFile);
+            return;
+        }
+        List<Integer> tiles = this.getRequestedTiles(request, tileFile);
+        if (tiles == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Give either 'tiles' (tile indexes) or 'region' (minX,minY,maxX,maxY in nm).");
+            return;
+        }
+        long particleCount = 0;
+        for (int tile : tiles) {
+            particleCount += tileFile.getParticleCount(tile);
+        }
+        if (particleCount > ConfigurationSettings.getViewParticles()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The tiles have " + particleCount
+                    + " particles, at most " + ConfigurationSettings.getViewParticles() + " can be sent at once.");
+            return;
+        }
+        response.setContentType("application/octet-stream");
+        response.setHeader("Cache-Control", "private, no-cache");
+        tileFile.write(tiles, response.getOutputStream());
+    }
+
+    /**
+     * Get the tiles the request asks for, from the parameter 'tiles' or 'region'.
+     *
+     * @param request  servlet request
+     * @param tileFile the tile file of the output
+     * @return         the indexes of the tiles, or null if the parameters are missing or invalid
+     */
+    private List<Integer> getRequestedTiles(HttpServletRequest request, TileFile tileFile) {
+        String tilesParameter = request.getParameter("tiles");
+        String regionParameter = request.getParameter("region");
+        try {
+            if (tilesParameter != null) {
+                List<Integer> tiles = new ArrayList();
+                for (String value : tilesParameter.split(",")) {
+                    int tile = Integer.parseInt(value.trim());
+                    if (!tileFile.hasTile(tile)) {
+                        return null;
+                    }
+                    if (!tiles.contains(tile)) {
+                        tiles.add(tile);
+                    }
+                }
+                return tiles;
+            } else if (regionParameter != null) {
+                String[] values = regionParameter.split(",");
+                if (values.length != 4) {
+                    return null;
+                }
+                return tileFile.getTiles(Float.parseFloat(values[0]), Float.parseFloat(values[1]),
+                        Float.parseFloat(values[2]), Float.parseFloat(values[3]));
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Write the layout of the tiles as JSON.
+     *
+     * @param response servlet response
+     * @param tileFile the tile file of the output
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeLayout(HttpServletResponse response, TileFile tileFile) throws IOException {
+        JSONObject layout = new JSONObject();
+        layout.put("tileSize", tileFile.getTileSize());
+        layout.put("originX", tileFile.getOriginX());
+        layout.put("originY", tileFile.getOriginY());
+        layout.put("tilesX", tileFile.getTilesX());
+        layout.put("tilesY", tileFile.getTilesY());
+        layout.put("centerX", tileFile.getCenterX());
+        layout.put("centerY", tileFile.getCenterY());
+        layout.put("maxParticles", ConfigurationSettings.getViewParticles());
+        JSONArray counts = new JSONArray();
+        for (int tile = 0; tile < tileFile.getTilesX() * tileFile.getTilesY(); tile++) {
+            counts.add(tileFile.getParticleCount(tile));
+        }
+        layout.put("counts", counts);
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "private, no-cache");
+        PrintWriter out = response.getWriter();
+        out.write(layout.toString());
+        out.flush();
+        out.close();
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Serves regions of large output files to the viewer.";
+    }
+}
@@ -5,13 +5,14 @@
  */
 package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.sessionListeners;
 
-import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.configuration.ConfigurationPaths;
-import org.apache.commons.io.FileUtils;
+import nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.jobs.JobManager;
+import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionEvent;
 import javax.servlet.http.HttpSessionListener;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -19,6 +20,26 @@ import java.nio.file.Paths;
  * @version 1.0.0
  */
 public class FileControlSessionListener implements HttpSessionListener {
+    /** The name of the session attribute containing the ids of the jobs created in this session. */
+    private static final String JOB_IDS_ATTRIBUTE = "jobIds";
+
+    /**
+     * Remember that the given job was created in the given session, so it is removed when the session is destroyed,
+     * unless its output is kept by the OutputStore.
+     *
+     * @param session the session the job was created in
+     * @param jobId   the id of the job
+     */
+    public static void addJob(HttpSession session, String jobId) {
+        synchronized (FileControlSessionListener.class) {
+            Set<String> jobIds = (Set<String>) session.getAttribute(JOB_IDS_ATTRIBUTE);
+            if (jobIds == null) {
+                jobIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                session.setAttribute(JOB_IDS_ATTRIBUTE, jobIds);
+            }
+            jobIds.add(jobId);
+        }
+    }
 
     @Override
     public void sessionCreated(HttpSessionEvent se) {
@@ -26,14 +47,17 @@ public class FileControlSessionListener implements HttpSessionListener {
 
     @Override
     public void sessionDestroyed(HttpSessionEvent se) {
-        try {
-            // Try to delete any associated input- and outputfiles
-            Files.deleteIfExists(Paths.get(ConfigurationPaths.getAbsoluteInFilePath(se.getSession().getId())));
-            FileUtils.deleteDirectory(FileUtils.getFile(ConfigurationPaths.getAbsoluteOutFilePath(se.getSession().getId())));
-        } catch (IOException ex) {
-
-            // DOE HIER IETS??
-            //Logger.getLogger(FileControlSessionListener.class.getName()).log(Level.SEVERE, null, ex);
+        // Remove the jobs of this session. Their input- and outputfiles are deleted by the FileSweeper in the
+        // background, so this thread is not held up. The output of successful jobs is kept by the OutputStore, users
+        // often come back to it after their session has expired.
+        JobManager jobManager = JobManager.getInstance(se.getSession().getServletContext());
+        Set<String> jobIds = (Set<String>) se.getSession().getAttribute(JOB_IDS_ATTRIBUTE);
+        if (jobManager != null && jobIds != null) {
+            for (String jobId : new HashSet<String>(jobIds)) {
+                if (!jobManager.getOutputStore().contains(jobId)) {
+                    jobManager.remove(jobId);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure;
+
+import java.util.Arrays;
+
+/**
+ * This class is a spatial index over the particles of a ParticleSystem, for questions like 'which particles are
+ * within 1 nm of this residue' or 'how many lipids are near the protein' without comparing every pair of particles.
+ *
+ * The box is divided into cells of at least the given cell size, and the particles are sorted by cell (a counting
+ * sort, with their coordinates copied in cell order so a cell is read from consecutive memory). A query only looks
+ * at the cells that overlap it, so for a radius in the order of the cell size, a query takes about the same time
+ * however large the system is.
+ *
+ * The box of the system (the last line of the .gro file) is periodic: a particle near one side of the box is a
+ * neighbour of the particles near the other side, and distances follow the minimum image convention. Triclinic
+ * boxes (for instance the hexagonal boxes insane makes) are supported, the cells then follow the box vectors. The
+ * minimum image is exact as long as the query reaches less than half the box height in every direction. A system
+ * without a box is not periodic, the cells then cover the particles only.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class CellList {
+    /** The largest amount of cells per particle, a very small cell size is increased to stay below it. */
+    private static final int MAX_CELLS_PER_PARTICLE = 4;
+
+    /**
+     * This interface is implemented by the code that handles the particles found by a query.
+     */
+    public interface ParticleVisitor {
+        /**
+         * Handle a particle that was found.
+         *
+         * @param particle        the index of the particle in the system
+         * @param distanceSquared the squared distance in square nm from the center of the query, the minimum image in a
+         *                        periodic box
+         */
+        void visit(int particle, float distanceSquared);
+    }
+
+    /** Whether the box is periodic. */
+    private final boolean periodic;
+    /** The corner of the box, the lowest coordinates of the particles if the box is not periodic. */
+    private final float[] origin;
+    /** The box vectors a, b and c as rows, lower triangular: a = (ax, 0, 0), b = (bx, by, 0), c = (cx, cy, cz). */
+    private final float[][] vectors;
+    /** The amount of cells along the box vectors a, b and c. */
+    private final int[] cellCounts;
+    /** The position of the first particle of every cell in the sorted particles, followed by the particle count. */
+    private final int[] cellStarts;
+    /** The indexes of the particles, sorted by cell. */
+    private final int[] particles;
+    /** The x coordinate of every sorted particle, inside the box if it is periodic. */
+    private final float[] x;
+    /** The y coordinate of every sorted particle, inside the box if it is periodic. */
+    private final float[] y;
+    /** The z coordinate of every sorted particle, inside the box if it is periodic. */
+    private final float[] z;
+
+    /**
+     * Build the index over the particles of the given system.
+     *
+     * @param system   the system to index
+     * @param cellSize the smallest size of a cell in nm, about the radius of the queries that will be done
+     * @throws IllegalArgumentException if the cell size is not positive
+     */
+    public CellList(final ParticleSystem system, final float cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("The cell size has to be positive, not " + cellSize + ".");
+        }
+        int count = system.size();
+        float[] box = system.getBox();
+        this.origin = new float[3];
+        this.vectors = new float[3][3];
+        this.periodic = box[0] > 0 && box[1] > 0 && box[2] > 0;
+        if (this.periodic) {
+            // the order of a .gro box line: v1(x) v2(y) v3(z) v1(y) v1(z) v2(x) v2(z) v3(x) v3(y)
+            this.vectors[0][0] = box[0];
+            this.vectors[1][1] = box[1];
+            this.vectors[2][2] = box[2];
+            if (box.length == 9) {
+                this.vectors[1][0] = box[5];
+                this.vectors[2][0] = box[7];
+                this.vectors[2][1] = box[8];
+            }
+        } else {
+            float[] max = new float[3];
+            for (int axis = 0; axis < 3; axis++) {
+                this.origin[axis] = count == 0 ? 0 : Float.MAX_VALUE;
+                max[axis] = count == 0 ? 0 : -Float.MAX_VALUE;
+            }
+            for (int i = 0; i < count; i++) {
+                float[] position = {system.getX(i), system.getY(i), system.getZ(i)};
+                for (int axis = 0; axis < 3; axis++) {
+                    this.origin[axis] = Math.min(this.origin[axis], position[axis]);
+                    max[axis] = Math.max(max[axis], position[axis]);
+                }
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                // a little larger, so the particles at the far side are inside the last cell
+                this.vectors[axis][axis] = Math.max(cellSize, (max[axis] - this.origin[axis]) * 1.0001f);
+            }
+        }
+
+        this.cellCounts = this.getCellCounts(cellSize, Math.max(1, (long) count * MAX_CELLS_PER_PARTICLE));
+        int cellTotal = this.cellCounts[0] * this.cellCounts[1] * this.cellCounts[2];
+
+        // sort the particles by cell, with their coordinates inside the box
+        float[] wrapped = new float[3 * count];
+        int[] cells = new int[count];
+        this.cellStarts = new int[cellTotal + 1];
+        float[] fraction = new float[3];
+        for (int i = 0; i < count; i++) {
+            this.toFractions(system.getX(i), system.getY(i), system.getZ(i), fraction);
+            int cell = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                if (this.periodic) {
+                    fraction[axis] -= (float) Math.floor(fraction[axis]);
+                }
+                int cellIndex = Math.max(0, Math.min(this.cellCounts[axis] - 1,
+                        (int) (fraction[axis] * this.cellCounts[axis])));
+                cell = cell * this.cellCounts[axis] + cellIndex;
+            }
+            this.toCartesian(fraction, wrapped, 3 * i);
+            cells[i] = cell;
+            this.cellStarts[cell + 1]++;
+        }
+        for (int cell = 1; cell <= cellTotal; cell++) {
+            this.cellStarts[cell] += this.cellStarts[cell - 1];
+        }
+        int[] next = Arrays.copyOf(this.cellStarts, cellTotal);
+        this.particles = new int[count];
+        this.x = new float[count];
+        this.y = new float[count];
+        this.z = new float[count];
+        for (int i = 0; i < count; i++) {
+            int sorted = next[cells[i]]++;
+            this.particles[sorted] = i;
+            this.x[sorted] = wrapped[3 * i];
+            this.y[sorted] = wrapped[3 * i + 1];
+            this.z[sorted] = wrapped[3 * i + 2];
+        }
+    }
+
+    /**
+     * Get the amount of cells along every box vector: as many as fit, at least cellSize high, but not more than
+     * maxCells in total.
+     *
+     * @param cellSize the smallest size of a cell in nm
+     * @param maxCells the largest amount of cells
+     * @return         the amount of cells along a, b and c
+     */
+    private int[] getCellCounts(final float cellSize, final long maxCells) {
+        // the height of the box along every vector: the volume divided by the area of the opposite side
+        float[] a = this.vectors[0];
+        float[] b = this.vectors[1];
+        float[] c = this.vectors[2];
+        double volume = (double) a[0] * b[1] * c[2];
+        double[] heights = {
+            volume / CellList.length(CellList.cross(b, c)),
+            volume / CellList.length(CellList.cross(c, a)),
+            volume / CellList.length(CellList.cross(a, b))};
+        double size = cellSize;
+        int[] counts = new int[3];
+        while (true) {
+            long total = 1;
+            for (int axis = 0; axis < 3; axis++) {
+                counts[axis] = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.floor(heights[axis] / size)));
+                total *= counts[axis];
+            }
+            if (total <= maxCells) {
+                return counts;
+            }
+            size *= 1.25;
+        }
+    }
+
+    /**
+     * Find the particles within the given distance of a point.
+     *
+     * @param centerX the x of the point in nm
+     * @param centerY the y of the point in nm
+     * @param centerZ the z of the point in nm
+     * @param radius  the distance in nm
+     * @return        the indexes of the particles, in no particular order
+     */
+    public int[] withinRadius(final float centerX, final float centerY, final float centerZ, final float radius) {
+        Collector collector = new Collector();
+        this.forEachWithinRadius(centerX, centerY, centerZ, radius, collector);
+        return collector.toArray();
+    }
+
+    /**
+     * Find the particles within the given distance of a point, and hand them to the visitor. No list of particles
+     * is built, so this can be used for every particle of a large system.
+     *
+     * @param centerX the x of the point in nm
+     * @param centerY the y of the point in nm
+     * @param centerZ the z of the point in nm
+     * @param radius  the distance in nm
+     * @param visitor the visitor handling the particles that are found
+     */
+    public void forEachWithinRadius(final float centerX, final float centerY, final float centerZ,
+                                    final float radius, final ParticleVisitor visitor) {
+        this.query(new float[] {centerX, centerY, centerZ}, new float[] {radius, radius, radius}, true, visitor);
+    }
+
+    /**
+     * Find the particles within the given axis aligned region. In a periodic box, a particle is found when one of
+     * its periodic images is inside the region.
+     *
+     * @param minX the smallest x of the region in nm
+     * @param minY the smallest y of the region in nm
+     * @param minZ the smallest z of the region in nm
+     * @param maxX the largest x of the region in nm
+     * @param maxY the largest y of the region in nm
+     * @param maxZ the largest z of the region in nm
+     * @return     the indexes of the particles, in no particular order
+     */
+    public int[] withinBox(final float minX, final float minY, final float minZ,
+                           final float maxX, final float maxY, final float maxZ) {
+        Collector collector = new Collector();
+        this.forEachWithinBox(minX, minY, minZ, maxX, maxY, maxZ, collector);
+        return collector.toArray();
+    }
+
+    /**
+     * Find the particles within the given axis aligned region, and hand them to the visitor. The distance the
+     * visitor gets is the distance from the center of the region.
+     *
+     * @param minX    the smallest x of the region in nm
+     * @param minY    the smallest y of the region in nm
+     * @param minZ    the smallest z of the region in nm
+     * @param maxX    the largest x of the region in nm
+     * @param maxY    the largest y of the region in nm
+     * @param maxZ    the largest z of the region in nm
+     * @param visitor the visitor handling the particles that are found
+     */
+    public void forEachWithinBox(final float minX, final float minY, final float minZ,
+                                 final float maxX, final float maxY, final float maxZ,
+                                 final ParticleVisitor visitor) {
+        this.query(new float[] {(minX + maxX) / 2, (minY + maxY) / 2, (minZ + maxZ) / 2},
+                new float[] {(maxX - minX) / 2, (maxY - minY) / 2, (maxZ - minZ) / 2}, false, visitor);
+    }
+
+    /**
+     * Visit the particles in a sphere or an axis aligned box around a center. Only the cells that overlap the
+     * bounding box of the query are looked at.
+     *
+     * @param center  the center of the query
+     * @param half    the radius of the sphere (the same on every axis), or half the size of the box on every axis
+     * @param sphere  boolean whether the query is a sphere or a box
+     * @param visitor the visitor handling the particles that are found
+     */
+    private void query(final float[] center, final float[] half, final boolean sphere,
+                       final ParticleVisitor visitor) {
+        if (half[0] < 0 || half[1] < 0 || half[2] < 0) {
+            return;
+        }
+        // the range of cells along every box vector that the corners of the bounding box fall in
+        float[] low = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] high = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        float[] fraction = new float[3];
+        for (int corner = 0; corner < 8; corner++) {
+            this.toFractions(center[0] + ((corner & 1) == 0 ? -half[0] : half[0]),
+                    center[1] + ((corner & 2) == 0 ? -half[1] : half[1]),
+                    center[2] + ((corner & 4) == 0 ? -half[2] : half[2]), fraction);
+            for (int axis = 0; axis < 3; axis++) {
+                low[axis] = Math.min(low[axis], fraction[axis]);
+                high[axis] = Math.max(high[axis], fraction[axis]);
+            }
+        }
+        int[][] ranges = new int[3][];
+        for (int axis = 0; axis < 3; axis++) {
+            ranges[axis] = this.getCellRange(axis, low[axis], high[axis]);
+            if (ranges[axis] == null) {
+                return;
+            }
+        }
+
+        float radiusSquared = half[0] * half[0];
+        float[] distance = new float[3];
+        int countB = this.cellCounts[1];
+        int countC = this.cellCounts[2];
+        for (int i = ranges[0][0]; i <= ranges[0][1]; i++) {
+            int cellA = this.wrap(i, 0);
+            for (int j = ranges[1][0]; j <= ranges[1][1]; j++) {
+                int cellB = this.wrap(j, 1);
+                for (int k = ranges[2][0]; k <= ranges[2][1]; k++) {
+                    int cell = (cellA * countB + cellB) * countC + this.wrap(k, 2);
+                    for (int sorted = this.cellStarts[cell]; sorted < this.cellStarts[cell + 1]; sorted++) {
+                        distance[0] = this.x[sorted] - center[0];
+                        distance[1] = this.y[sorted] - center[1];
+                        distance[2] = this.z[sorted] - center[2];
+                        this.toMinimumImage(distance);
+                        float distanceSquared = distance[0] * distance[0] + distance[1] * distance[1]
+                                + distance[2] * distance[2];
+                        if (sphere ? distanceSquared <= radiusSquared
+                                : Math.abs(distance[0]) <= half[0] && Math.abs(distance[1]) <= half[1]
+                                && Math.abs(distance[2]) <= half[2]) {
+                            visitor.visit(this.particles[sorted], distanceSquared);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the first and last cell to look at along a box vector. In a periodic box the cells may lie outside the
+     * box, they are wrapped when they are looked at; a range that would pass a cell twice is every cell once.
+     *
+     * @param axis the box vector, 0 for a, 1 for b and 2 for c
+     * @param low  the lowest fraction of the box vector of the query
+     * @param high the highest fraction of the box vector of the query
+     * @return     the first and last cell, or null if the query is outside a box that is not periodic
+     */
+    private int[] getCellRange(final int axis, final float low, final float high) {
+        int count = this.cellCounts[axis];
+        int first = (int) Math.floor(low * count);
+        int last = (int) Math.floor(high * count);
+        if (this.periodic) {
+            if (last - first + 1 >= count) {
+                return new int[] {0, count - 1};
+            }
+            return new int[] {first, last};
+        }
+        if (last < 0 || first >= count) {
+            return null;
+        }
+        return new int[] {Math.max(0, first), Math.min(count - 1, last)};
+    }
+
+    /**
+     * Wrap a cell index that may lie outside a periodic box into the box.
+     *
+     * @param cell the cell index along a box vector
+     * @param axis the box vector
+     * @return     the cell index inside the box
+     */
+    private int wrap(final int cell, final int axis) {
+        int count = this.cellCounts[axis];
+        int wrapped = cell % count;
+        return wrapped < 0 ? wrapped + count : wrapped;
+    }
+
+    /**
+     * Replace a vector between two particles in a periodic box by the shortest one (the minimum image), a box that
+     * is not periodic leaves it as it is. The box vectors are removed from c to a, which is exact for the lower
+     * triangular boxes of GROMACS as long as the vector is shorter than half the box height.
+     *
+     * @param vector the x, y and z of the vector, replaced by the shortest vector
+     */
+    private void toMinimumImage(final float[] vector) {
+        if (!this.periodic) {
+            return;
+        }
+        for (int axis = 2; axis >= 0; axis--) {
+            float[] boxVector = this.vectors[axis];
+            float shift = (float) Math.rint(vector[axis] / boxVector[axis]);
+            if (shift != 0) {
+                vector[0] -= shift * boxVector[0];
+                vector[1] -= shift * boxVector[1];
+                vector[2] -= shift * boxVector[2];
+            }
+        }
+    }
+
+    /**
+     * Convert a position to fractions of the box vectors, relative to the origin.
+     *
+     * @param px       the x of the position
+     * @param py       the y of the position
+     * @param pz       the z of the position
+     * @param fraction the array to put the fractions of a, b and c in
+     */
+    private void toFractions(final float px, final float py, final float pz, final float[] fraction) {
+        float[] a = this.vectors[0];
+        float[] b = this.vectors[1];
+        float[] c = this.vectors[2];
+        float rx = px - this.origin[0];
+        float ry = py - this.origin[1];
+        float rz = pz - this.origin[2];
+        fraction[2] = rz / c[2];
+        fraction[1] = (ry - fraction[2] * c[1]) / b[1];
+        fraction[0] = (rx - fraction[1] * b[0] - fraction[2] * c[0]) / a[0];
+    }
+
+    /**
+     * Convert fractions of the box vectors back to a position.
+     *
+     * @param fraction the fractions of a, b and c
+     * @param position the array to put the x, y and z in
+     * @param offset   the index in the array of the x
+     */
+    private void toCartesian(final float[] fraction, final float[] position, final int offset) {
+        for (int axis = 0; axis < 3; axis++) {
+            position[offset + axis] = this.origin[axis] + fraction[0] * this.vectors[0][axis]
+                    + fraction[1] * this.vectors[1][axis] + fraction[2] * this.vectors[2][axis];
+        }
+    }
+
+    /**
+     * Get the cross product of two vectors.
+     *
+     * @param u the first vector
+     * @param v the second vector
+     * @return  the cross product
+     */
+    private static double[] cross(final float[] u, final float[] v) {
+        return new double[] {
+            (double) u[1] * v[2] - (double) u[2] * v[1],
+            (double) u[2] * v[0] - (double) u[0] * v[2],
+            (double) u[0] * v[1] - (double) u[1] * v[0]};
+    }
+
+    /**
+     * Get the length of a vector.
+     *
+     * @param v the vector
+     * @return  the length
+     */
+    private static double length(final double[] v) {
+        return Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+    }
+
+    /**
+     * This visitor collects the indexes of the particles it visits.
+     */
+    private static class Collector implements ParticleVisitor {
+        /** The indexes visited so far. */
+        private int[] found = new int[64];
+        /** The amount of indexes visited so far. */
+        private int size = 0;
+
+        @Override
+        public void visit(final int particle, final float distanceSquared) {
+            if (this.size == this.found.length) {
+                this.found = Arrays.copyOf(this.found, 2 * this.size);
+            }
+            this.found[this.size++] = particle;
+        }
+
+        /**
+         * Get the visited indexes.
+         *
+         * @return the indexes of the visited particles
+         */
+        int[] toArray() {
+            return Arrays.copyOf(this.found, this.size);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reads a .gro file (the output of insane) into a ParticleSystem.
+ *
+ * A .gro file has a title line, a line with the amount of particles, one fixed width line per particle and a line
+ * with the box vectors. A particle line has the residue number (5 columns), residue name (5), atom name (5), atom
+ * number (5) and the x, y and z coordinates (8 columns each, in nm), optionally followed by velocities, which are
+ * ignored. Like GROMACS, the width of the coordinates is taken from the distance between their decimal points, so
+ * files written with a higher precision are read as well.
+ *
+ * The file is memory mapped and the columns are parsed straight from the mapped bytes into the arrays of the
+ * ParticleSystem, without making a String for every line. The mapped bytes are not on the heap, so a file of
+ * hundreds of megabytes only needs the heap for the arrays of the system. A residue or atom name is only turned into
+ * a String the first time it is seen: every name fits in a long (at most 5 ASCII characters), which is looked up in
+ * a small hash table of the names seen so far.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class GroReader {
+    /** The width of the residue number, residue name, atom name and atom number columns. */
+    private static final int NAME_WIDTH = 5;
+    /** The first column of the coordinates. */
+    private static final int COORDINATES_START = 4 * NAME_WIDTH;
+    /** The width of a coordinate column if it can not be taken from the first particle. */
+    private static final int COORDINATE_WIDTH = 8;
+    /** The amount of bytes of the file that is mapped at once, files larger than this are mapped in windows. */
+    private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+    /** The powers of ten, to divide the digits of a coordinate by. */
+    private static final double[] POWERS_OF_TEN = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10};
+
+    /** The .gro file to read. */
+    private final File file;
+    /** The residue and atom names read so far. */
+    private final List<String> names;
+    /** The hash table of the names read so far: the packed names, 0 for an empty slot. */
+    private long[] nameKeys;
+    /** The hash table of the names read so far: the index of every packed name in the names. */
+    private int[] nameValues;
+
+    /** The open file. */
+    private FileChannel channel;
+    /** The mapped window of the file. */
+    private MappedByteBuffer window;
+    /** The position of the mapped window in the file. */
+    private long windowStart;
+    /** The position in the window where the next line starts. */
+    private int position;
+    /** The position in the window where the current line starts. */
+    private int lineStart;
+    /** The position in the window where the current line ends, without the line separator. */
+    private int lineEnd;
+
+    /**
+     * Create a new GroReader.
+     *
+     * @param file the .gro file to read
+     */
+    public GroReader(final File file) {
+        this.file = file;
+        this.names = new ArrayList<>();
+        this.nameKeys = new long[256];
+        this.nameValues = new int[256];
+    }
+
+    /**
+     * Read the .gro file.
+     *
+     * @return the particles in the file
+     * @throws IOException if the file can not be read or is not a valid .gro file
+     */
+    public ParticleSystem read() throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            this.channel = fileChannel;
+            this.mapWindow(0);
+
+            if (!this.nextLine()) {
+                throw new IOException(this.file.getName() + " is not a valid .gro file: it is empty.");
+            }
+            String title = this.getLine();
+            if (!this.nextLine()) {
+                throw new IOException(this.file.getName() + " is not a valid .gro file: it has no particle count.");
+            }
+            int count;
+            try {
+                count = this.parseInt(this.lineStart, this.lineEnd);
+            } catch (NumberFormatException ex) {
+                throw new IOException(this.file.getName() + " is not a valid .gro file: '" + this.getLine()
+                        + "' is not a particle count.");
+            }
+
+            int[] residueNumbers = new int[count];
+            int[] residueNames = new int[count];
+            int[] atomNames = new int[count];
+            float[] x = new float[count];
+            float[] y = new float[count];
+            float[] z = new float[count];
+            int width = -1;
+            for (int i = 0; i < count; i++) {
+                if (!this.nextLine()) {
+                    throw new IOException(this.file.getName() + " is not a valid .gro file: particle " + (i + 1)
+                            + " is missing.");
+                }
+                int start = this.lineStart;
+                if (width < 0) {
+                    width = this.getCoordinateWidth();
+                }
+                if (this.lineEnd - start < COORDINATES_START + 3 * width) {
+                    throw new IOException(this.file.getName() + " is not a valid .gro file: particle " + (i + 1)
+                            + " is too short.");
+                }
+                try {
+                    residueNumbers[i] = this.parseInt(start, start + NAME_WIDTH);
+                    residueNames[i] = this.getNameIndex(start + NAME_WIDTH, start + 2 * NAME_WIDTH);
+                    atomNames[i] = this.getNameIndex(start + 2 * NAME_WIDTH, start + 3 * NAME_WIDTH);
+                    int coordinates = start + COORDINATES_START;
+                    x[i] = this.parseFloat(coordinates, coordinates + width);
+                    y[i] = this.parseFloat(coordinates + width, coordinates + 2 * width);
+                    z[i] = this.parseFloat(coordinates + 2 * width, coordinates + 3 * width);
+                } catch (NumberFormatException ex) {
+                    throw new IOException(this.file.getName() + " is not a valid .gro file: particle " + (i + 1)
+                            + " can not be read.", ex);
+                }
+            }
+
+            float[] box = GroReader.parseBox(this.nextLine() ? this.getLine() : null);
+            return new ParticleSystem(title, this.names, residueNumbers, residueNames, atomNames, x, y, z, box);
+        } finally {
+            this.channel = null;
+            this.window = null;
+        }
+    }
+
+    /**
+     * Map the window of the file that starts at the given position.
+     *
+     * @param start the position in the file
+     * @throws IOException if the file can not be mapped
+     */
+    private void mapWindow(final long start) throws IOException {
+        long size = Math.min(WINDOW_SIZE, this.channel.size() - start);
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        this.windowStart = start;
+        this.position = 0;
+    }
+
+    /**
+     * Move to the next line. A line that does not fit in the rest of the window is read after mapping the next
+     * window, starting at that line.
+     *
+     * @return boolean whether there was a next line, false at the end of the file
+     * @throws IOException if the file can not be mapped, or a line is longer than a whole window
+     */
+    private boolean nextLine() throws IOException {
+        while (true) {
+            int limit = this.window.limit();
+            for (int i = this.position; i < limit; i++) {
+                if (this.window.get(i) == '\n') {
+                    this.setLine(this.position, i);
+                    this.position = i + 1;
+                    return true;
+                }
+            }
+            if (this.windowStart + limit >= this.channel.size()) {
+                // the last line of the file may not end with a line separator
+                if (this.position < limit) {
+                    this.setLine(this.position, limit);
+                    this.position = limit;
+                    return true;
+                }
+                return false;
+            }
+            if (this.position == 0) {
+                throw new IOException(this.file.getName() + " is not a valid .gro file: a line is too long.");
+            }
+            this.mapWindow(this.windowStart + this.position);
+        }
+    }
+
+    /**
+     * Set the bounds of the current line, leaving out a carriage return at the end.
+     *
+     * @param start the position in the window where the line starts
+     * @param end   the position in the window where the line separator starts
+     */
+    private void setLine(final int start, final int end) {
+        this.lineStart = start;
+        this.lineEnd = end > start && this.window.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Get the current line as String, only used for the few lines that are not particles.
+     *
+     * @return the current line
+     */
+    private String getLine() {
+        byte[] bytes = new byte[this.lineEnd - this.lineStart];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = this.window.get(this.lineStart + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Get the width of the coordinate columns of the current line, the distance between the decimal points of the
+     * x and y coordinates.
+     *
+     * @return the width of a coordinate column
+     */
+    private int getCoordinateWidth() {
+        int firstPoint = -1;
+        for (int i = this.lineStart + COORDINATES_START; i < this.lineEnd; i++) {
+            if (this.window.get(i) == '.') {
+                if (firstPoint >= 0) {
+                    return i - firstPoint;
+                }
+                firstPoint = i;
+            }
+        }
+        return COORDINATE_WIDTH;
+    }
+
+    /**
+     * Get the index of the name in the given columns of the window in the names, adding it if it is new.
+     *
+     * @param start the first column of the name
+     * @param end   the column after the name
+     * @return      the index of the name
+     */
+    private int getNameIndex(int start, int end) {
+        while (start < end && this.window.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && this.window.get(end - 1) == ' ') {
+            end--;
+        }
+        // the length is part of the key, so an empty name does not get the key of an empty slot
+        long key = end - start + 1;
+        for (int i = start; i < end; i++) {
+            key = (key << 8) | (this.window.get(i) & 0xff);
+        }
+
+        int mask = this.nameKeys.length - 1;
+        int slot = GroReader.hash(key) & mask;
+        while (this.nameKeys[slot] != 0) {
+            if (this.nameKeys[slot] == key) {
+                return this.nameValues[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = this.window.get(start + i);
+        }
+        int index = this.names.size();
+        this.names.add(new String(bytes, StandardCharsets.US_ASCII));
+        this.nameKeys[slot] = key;
+        this.nameValues[slot] = index;
+        if (2 * this.names.size() > this.nameKeys.length) {
+            this.growNameTable();
+        }
+        return index;
+    }
+
+    /**
+     * Double the size of the hash table of the names.
+     */
+    private void growNameTable() {
+        long[] oldKeys = this.nameKeys;
+        int[] oldValues = this.nameValues;
+        this.nameKeys = new long[2 * oldKeys.length];
+        this.nameValues = new int[2 * oldValues.length];
+        int mask = this.nameKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = GroReader.hash(oldKeys[i]) & mask;
+                while (this.nameKeys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                this.nameKeys[slot] = oldKeys[i];
+                this.nameValues[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of a packed name over an int.
+     *
+     * @param key the packed name
+     * @return    the hash of the name
+     */
+    private static int hash(final long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    /**
+     * Parse a whole number in the given columns of the window, surrounded by spaces.
+     *
+     * @param start the first column
+     * @param end   the column after the number
+     * @return      the number
+     * @throws NumberFormatException if the columns do not contain a whole number
+     */
+    private int parseInt(int start, int end) {
+        while (start < end && this.window.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && this.window.get(end - 1) == ' ') {
+            end--;
+        }
+        boolean negative = start < end && this.window.get(start) == '-';
+        if (negative) {
+            start++;
+        }
+        if (start == end) {
+            throw new NumberFormatException("No digits.");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = this.window.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a digit: " + (char) this.window.get(i));
+            }
+            value = 10 * value + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a decimal number in the given columns of the window, surrounded by spaces.
+     *
+     * @param start the first column
+     * @param end   the column after the number
+     * @return      the number
+     * @throws NumberFormatException if the columns do not contain a decimal number
+     */
+    private float parseFloat(int start, int end) {
+        while (start < end && this.window.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && this.window.get(end - 1) == ' ') {
+            end--;
+        }
+        boolean negative = start < end && this.window.get(start) == '-';
+        if (negative) {
+            start++;
+        }
+        long digits = 0;
+        int digitCount = 0;
+        int decimals = -1;
+        for (int i = start; i < end; i++) {
+            byte character = this.window.get(i);
+            if (character == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (character >= '0' && character <= '9' && digitCount < 18) {
+                digits = 10 * digits + (character - '0');
+                digitCount++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                throw new NumberFormatException("Not a decimal number at column " + (i - this.lineStart + 1));
+            }
+        }
+        if (digitCount == 0 || decimals >= POWERS_OF_TEN.length) {
+            throw new NumberFormatException("Not a decimal number at column " + (start - this.lineStart + 1));
+        }
+        double value = decimals > 0 ? digits / POWERS_OF_TEN[decimals] : digits;
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Parse the box line: three box lengths, or the nine values of a triclinic box.
+     *
+     * @param boxLine the box line, or null if the file ends before it
+     * @return        the box vectors in nm, three zeros if there is no box
+     * @throws IOException if the box line is not valid
+     */
+    private static float[] parseBox(final String boxLine) throws IOException {
+        if (boxLine == null || boxLine.trim().isEmpty()) {
+            return new float[3];
+        }
+        String[] values = boxLine.trim().split("\\s+");
+        float[] box = new float[values.length >= 9 ? 9 : 3];
+        try {
+            for (int i = 0; i < box.length && i < values.length; i++) {
+                box[i] = Float.parseFloat(values[i]);
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("'" + boxLine + "' is not a valid .gro box line.", ex);
+        }
+        return box;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * This class writes a ParticleSystem as a .gro file, in the same fixed width format insane writes. See GroReader for
+ * the format. Residue and atom numbers wrap around at 100000, like they do in insane and GROMACS.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class GroWriter {
+    /** The largest number that fits in a 5 column number field, plus one. */
+    private static final int NUMBER_WRAP = 100000;
+
+    /**
+     * Write the given system to the stream. The stream is not closed.
+     *
+     * @param system the particles to write
+     * @param out    the stream to write to
+     * @throws IOException if the stream can not be written
+     */
+    public void write(final ParticleSystem system, final OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 256 * 1024);
+        writer.write(system.getTitle());
+        writer.write('\n');
+        writer.write(String.format(Locale.US, "%5d\n", system.size()));
+
+        // the padded names are formatted once, not for every particle
+        String[] residueNames = new String[system.getNames().size()];
+        String[] atomNames = new String[system.getNames().size()];
+        for (int i = 0; i < residueNames.length; i++) {
+            residueNames[i] = String.format("%-5.5s", system.getNames().get(i));
+            atomNames[i] = String.format("%5.5s", system.getNames().get(i));
+        }
+        for (int i = 0; i < system.size(); i++) {
+            writer.write(String.format(Locale.US, "%5d%s%s%5d%8.3f%8.3f%8.3f\n",
+                    system.getResidueNumber(i) % NUMBER_WRAP,
+                    residueNames[system.getResidueNameIndex(i)],
+                    atomNames[system.getAtomNameIndex(i)],
+                    (i + 1) % NUMBER_WRAP,
+                    system.getX(i), system.getY(i), system.getZ(i)));
+        }
+        for (float value : system.getBox()) {
+            writer.write(String.format(Locale.US, "%10.5f", value));
+        }
+        writer.write('\n');
+        writer.flush();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class reduces a ParticleSystem that is too big for the viewer to a given amount of particles, keeping what
+ * is needed to recognise the system:
+ *
+ * - of every protein residue only the backbone bead is kept
+ * - of every lipid (and any other molecule) only the first bead is kept, which is its head group
+ * - solvent (water and ions) is only kept if there is room left, one bead per molecule
+ *
+ * The protein backbone goes first, then the lipids, then the solvent. When a group does not fit in the particles
+ * that are left, it is thinned by stratified spatial sampling: the group is sorted into cells of CELL_SIZE nm and the
+ * same fraction of every cell is kept, so the reduced model still covers the whole box evenly.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class LevelOfDetail {
+    /** The residue names of the solvents and ions insane can add. */
+    private static final Set<String> SOLVENTS = new HashSet<>(Arrays.asList(
+            "W", "PW", "BMW", "SPC", "SPCM", "FG4W", "NA", "CL", "Mg", "K", "BUT", "NA+", "CL-", "ION"));
+    /** The residue names of amino acids, including the names of the histidine and cysteine variants. */
+    static final Set<String> AMINO_ACIDS = new HashSet<>(Arrays.asList(
+            "ALA", "ARG", "ASN", "ASP", "CYS", "GLN", "GLU", "GLY", "HIS", "ILE", "LEU", "LYS", "MET", "PHE",
+            "PRO", "SER", "THR", "TRP", "TYR", "VAL", "HID", "HIE", "HIP", "HSD", "HSE", "HSP", "CYX"));
+    /** The atom name of the backbone bead of an amino acid in Martini. */
+    private static final String BACKBONE = "BB";
+    /** The size of a cell in nm used to spread the kept particles over the box. */
+    private static final float CELL_SIZE = 1.0f;
+
+    /** The amount of particles the reduced system may have. */
+    private final int maxParticles;
+
+    /**
+     * Create a new LevelOfDetail.
+     *
+     * @param maxParticles the amount of particles the reduced system may have
+     */
+    public LevelOfDetail(final int maxParticles) {
+        this.maxParticles = maxParticles;
+    }
+
+    /**
+     * Reduce the given system. The particles of the reduced system are in the same order as in the given system.
+     *
+     * @param system the system to reduce
+     * @return       the reduced system
+     */
+    public ParticleSystem reduce(final ParticleSystem system) {
+        int[] backbone = new int[system.size()];
+        int[] lipids = new int[system.size()];
+        int[] solvent = new int[system.size()];
+        int backboneCount = 0;
+        int lipidCount = 0;
+        int solventCount = 0;
+
+        // the kind of every name is looked up once, not for every particle
+        int nameCount = system.getNames().size();
+        boolean[] isSolvent = new boolean[nameCount];
+        boolean[] isAminoAcid = new boolean[nameCount];
+        boolean[] isBackbone = new boolean[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            String name = system.getNames().get(i);
+            isSolvent[i] = SOLVENTS.contains(name);
+            isAminoAcid[i] = AMINO_ACIDS.contains(name);
+            isBackbone[i] = BACKBONE.equals(name);
+        }
+
+        for (int i = 0; i < system.size(); i++) {
+            int residueName = system.getResidueNameIndex(i);
+            if (isAminoAcid[residueName]) {
+                if (isBackbone[system.getAtomNameIndex(i)]) {
+                    backbone[backboneCount++] = i;
+                }
+            } else if (LevelOfDetail.isFirstOfResidue(system, i)) {
+                if (isSolvent[residueName]) {
+                    solvent[solventCount++] = i;
+                } else {
+                    lipids[lipidCount++] = i;
+                }
+            }
+        }
+
+        int left = this.maxParticles;
+        backbone = LevelOfDetail.sample(system, Arrays.copyOf(backbone, backboneCount), left);
+        left -= backbone.length;
+        lipids = LevelOfDetail.sample(system, Arrays.copyOf(lipids, lipidCount), left);
+        left -= lipids.length;
+        solvent = LevelOfDetail.sample(system, Arrays.copyOf(solvent, solventCount), left);
+
+        int[] kept = new int[backbone.length + lipids.length + solvent.length];
+        System.arraycopy(backbone, 0, kept, 0, backbone.length);
+        System.arraycopy(lipids, 0, kept, backbone.length, lipids.length);
+        System.arraycopy(solvent, 0, kept, backbone.length + lipids.length, solvent.length);
+        Arrays.sort(kept);
+        return system.subset(kept);
+    }
+
+    /**
+     * Check if a particle is the first particle of its residue.
+     *
+     * @param system   the system of the particle
+     * @param particle the index of the particle
+     * @return         boolean whether the previous particle belongs to another residue
+     */
+    private static boolean isFirstOfResidue(final ParticleSystem system, final int particle) {
+        return particle == 0
+                || system.getResidueNumber(particle) != system.getResidueNumber(particle - 1)
+                || system.getResidueNameIndex(particle) != system.getResidueNameIndex(particle - 1);
+    }
+
+    /**
+     * Keep at most the given amount of particles of a group, spread evenly over space. The particles are sorted
+     * into cells (a counting sort), after which every n-th particle in cell order is kept.
+     *
+     * @param system    the system of the particles
+     * @param particles the indexes of the particles of the group
+     * @param amount    the amount of particles to keep
+     * @return          the indexes of the kept particles
+     */
+    private static int[] sample(final ParticleSystem system, final int[] particles, final int amount) {
+        if (particles.length <= amount) {
+            return particles;
+        }
+        if (amount <= 0) {
+            return new int[0];
+        }
+
+        float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (int particle : particles) {
+            float[] position = {system.getX(particle), system.getY(particle), system.getZ(particle)};
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], position[axis]);
+                max[axis] = Math.max(max[axis], position[axis]);
+            }
+        }
+        int[] cellCounts = new int[3];
+        for (int axis = 0; axis < 3; axis++) {
+            cellCounts[axis] = (int) ((max[axis] - min[axis]) / CELL_SIZE) + 1;
+        }
+
+        int[] cells = new int[particles.length];
+        int[] cellStarts = new int[cellCounts[0] * cellCounts[1] * cellCounts[2] + 1];
+        for (int i = 0; i < particles.length; i++) {
+            int particle = particles[i];
+            int cellX = (int) ((system.getX(particle) - min[0]) / CELL_SIZE);
+            int cellY = (int) ((system.getY(particle) - min[1]) / CELL_SIZE);
+            int cellZ = (int) ((system.getZ(particle) - min[2]) / CELL_SIZE);
+            cells[i] = (cellX * cellCounts[1] + cellY) * cellCounts[2] + cellZ;
+            cellStarts[cells[i] + 1]++;
+        }
+        for (int cell = 1; cell < cellStarts.length; cell++) {
+            cellStarts[cell] += cellStarts[cell - 1];
+        }
+        int[] sorted = new int[particles.length];
+        for (int i = 0; i < particles.length; i++) {
+            sorted[cellStarts[cells[i]]++] = particles[i];
+        }
+
+        // keep particle i when (i + 1) * amount / length passes a whole number, exactly amount particles in total
+        int[] kept = new int[amount];
+        int keptCount = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if ((long) (i + 1) * amount / sorted.length > (long) i * amount / sorted.length) {
+                kept[keptCount++] = sorted[i];
+            }
+        }
+        return kept;
+    }
+}
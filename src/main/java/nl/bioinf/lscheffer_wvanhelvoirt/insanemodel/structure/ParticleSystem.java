@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class holds the particles of a coarse grained system, as read from a .gro file. The particles are stored in
+ * columns (one array per property) instead of one object per particle, so a system of millions of particles stays
+ * small in memory. Residue and atom names repeat a lot, they are stored once in a dictionary and the particles refer
+ * to them by index.
+ *
+ * Coordinates and box sizes are in nanometers, like in the .gro file.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class ParticleSystem {
+    /** The title line of the system. */
+    private final String title;
+    /** The residue and atom names, the particles refer to them by index. */
+    private final List<String> names;
+    /** The residue number of every particle. */
+    private final int[] residueNumbers;
+    /** The index of the residue name of every particle in the names. */
+    private final int[] residueNames;
+    /** The index of the atom name of every particle in the names. */
+    private final int[] atomNames;
+    /** The x coordinate of every particle. */
+    private final float[] x;
+    /** The y coordinate of every particle. */
+    private final float[] y;
+    /** The z coordinate of every particle. */
+    private final float[] z;
+    /** The box vectors: the lengths of a rectangular box, or all nine values of a triclinic box. */
+    private final float[] box;
+
+    /**
+     * Create a new ParticleSystem. The arrays are used as they are, not copied.
+     *
+     * @param title          the title line of the system
+     * @param names          the residue and atom names
+     * @param residueNumbers the residue number of every particle
+     * @param residueNames   the index of the residue name of every particle
+     * @param atomNames      the index of the atom name of every particle
+     * @param x              the x coordinate of every particle
+     * @param y              the y coordinate of every particle
+     * @param z              the z coordinate of every particle
+     * @param box            the box vectors
+     */
+    public ParticleSystem(final String title, final List<String> names, final int[] residueNumbers,
+                          final int[] residueNames, final int[] atomNames,
+                          final float[] x, final float[] y, final float[] z, final float[] box) {
+        this.title = title;
+        this.names = Collections.unmodifiableList(names);
+        this.residueNumbers = residueNumbers;
+        this.residueNames = residueNames;
+        this.atomNames = atomNames;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.box = box;
+    }
+
+    /**
+     * Get the title line of the system.
+     *
+     * @return the title
+     */
+    public String getTitle() {
+        return this.title;
+    }
+
+    /**
+     * Get the amount of particles.
+     *
+     * @return the particle count
+     */
+    public int size() {
+        return this.x.length;
+    }
+
+    /**
+     * Get the residue and atom names the particles refer to.
+     *
+     * @return the name dictionary
+     */
+    public List<String> getNames() {
+        return this.names;
+    }
+
+    /**
+     * Get the residue number of a particle.
+     *
+     * @param particle the index of the particle
+     * @return         the residue number
+     */
+    public int getResidueNumber(final int particle) {
+        return this.residueNumbers[particle];
+    }
+
+    /**
+     * Get the index of the residue name of a particle in the name dictionary.
+     *
+     * @param particle the index of the particle
+     * @return         the index of the residue name
+     */
+    public int getResidueNameIndex(final int particle) {
+        return this.residueNames[particle];
+    }
+
+    /**
+     * Get the index of the atom name of a particle in the name dictionary.
+     *
+     * @param particle the index of the particle
+     * @return         the index of the atom name
+     */
+    public int getAtomNameIndex(final int particle) {
+        return this.atomNames[particle];
+    }
+
+    /**
+     * Get the residue name of a particle.
+     *
+     * @param particle the index of the particle
+     * @return         the residue name
+     */
+    public String getResidueName(final int particle) {
+        return this.names.get(this.residueNames[particle]);
+    }
+
+    /**
+     * Get the atom name of a particle.
+     *
+     * @param particle the index of the particle
+     * @return         the atom name
+     */
+    public String getAtomName(final int particle) {
+        return this.names.get(this.atomNames[particle]);
+    }
+
+    /**
+     * Get the x coordinate of a particle.
+     *
+     * @param particle the index of the particle
+     * @return         the x coordinate in nm
+     */
+    public float getX(final int particle) {
+        return this.x[particle];
+    }
+
+    /**
+     * Get the y coordinate of a particle.
+     *
+     * @param particle the index of the particle
+     * @return         the y coordinate in nm
+     */
+    public float getY(final int particle) {
+        return this.y[particle];
+    }
+
+    /**
+     * Get the z coordinate of a particle.
+     *
+     * @param particle the index of the particle
+     * @return         the z coordinate in nm
+     */
+    public float getZ(final int particle) {
+        return this.z[particle];
+    }
+
+    /**
+     * Get the box vectors: the lengths of a rectangular box, or all nine values of a triclinic box.
+     *
+     * @return the box vectors in nm
+     */
+    public float[] getBox() {
+        return this.box.clone();
+    }
+
+    /**
+     * Create a new system of some of the particles of this system. It has the same title, names and box.
+     *
+     * @param particles the indexes of the particles to keep, in the order they should have in the new system
+     * @return          the new system
+     */
+    public ParticleSystem subset(final int[] particles) {
+        int[] newResidueNumbers = new int[particles.length];
+        int[] newResidueNames = new int[particles.length];
+        int[] newAtomNames = new int[particles.length];
+        float[] newX = new float[particles.length];
+        float[] newY = new float[particles.length];
+        float[] newZ = new float[particles.length];
+        for (int i = 0; i < particles.length; i++) {
+            int particle = particles[i];
+            newResidueNumbers[i] = this.residueNumbers[particle];
+            newResidueNames[i] = this.residueNames[particle];
+            newAtomNames[i] = this.atomNames[particle];
+            newX[i] = this.x[particle];
+            newY[i] = this.y[particle];
+            newZ[i] = this.z[particle];
+        }
+        return new ParticleSystem(this.title, this.names, newResidueNumbers, newResidueNames, newAtomNames,
+                newX, newY, newZ, this.box);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reads the header of a tile file written by TileWriter, and copies the tiles of a region to a stream.
+ * Only the header is kept in memory, the tiles themselves are copied straight from the file.
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class TileFile {
+    /** The tile file. */
+    private final File file;
+    /** The size of a tile in nm. */
+    private final float tileSize;
+    /** The x of the corner of the first tile. */
+    private final float originX;
+    /** The y of the corner of the first tile. */
+    private final float originY;
+    /** The amount of tiles along x. */
+    private final int tilesX;
+    /** The amount of tiles along y. */
+    private final int tilesY;
+    /** The x of the center of the protein, or of the system. */
+    private final float centerX;
+    /** The y of the center of the protein, or of the system. */
+    private final float centerY;
+    /** The amount of particles of every tile. */
+    private final int[] tileCounts;
+    /** The position of every tile in the file, followed by the length of the file. */
+    private final long[] offsets;
+
+    /**
+     * Open a tile file and read its header.
+     *
+     * @param file the tile file
+     * @throws IOException if the file can not be read or is not a tile file
+     */
+    public TileFile(final File file) throws IOException {
+        this.file = file;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] magic = new byte[TileWriter.MAGIC.length()];
+            in.readFully(magic);
+            if (!TileWriter.MAGIC.equals(new String(magic, "US-ASCII"))) {
+                throw new IOException(file.getName() + " is not a tile file.");
+            }
+            this.tileSize = in.readFloat();
+            this.originX = in.readFloat();
+            this.originY = in.readFloat();
+            this.tilesX = in.readInt();
+            this.tilesY = in.readInt();
+            this.centerX = in.readFloat();
+            this.centerY = in.readFloat();
+            if (this.tilesX <= 0 || this.tilesY <= 0 || (long) this.tilesX * this.tilesY > file.length()) {
+                throw new IOException(file.getName() + " is not a valid tile file.");
+            }
+            this.tileCounts = new int[this.tilesX * this.tilesY];
+            for (int tile = 0; tile < this.tileCounts.length; tile++) {
+                this.tileCounts[tile] = in.readInt();
+            }
+            this.offsets = new long[this.tileCounts.length + 1];
+            for (int tile = 0; tile < this.offsets.length; tile++) {
+                this.offsets[tile] = in.readLong();
+            }
+        }
+    }
+
+    /**
+     * Get the indexes of the tiles that overlap the given region.
+     *
+     * @param minX the smallest x of the region in nm
+     * @param minY the smallest y of the region in nm
+     * @param maxX the largest x of the region in nm
+     * @param maxY the largest y of the region in nm
+     * @return     the indexes of the tiles, empty if the region is outside the system
+     */
+    public List<Integer> getTiles(final float minX, final float minY, final float maxX, final float maxY) {
+        List<Integer> tiles = new ArrayList<>();
+        int firstX = Math.max(0, (int) Math.floor((minX - this.originX) / this.tileSize));
+        int firstY = Math.max(0, (int) Math.floor((minY - this.originY) / this.tileSize));
+        int lastX = Math.min(this.tilesX - 1, (int) Math.floor((maxX - this.originX) / this.tileSize));
+        int lastY = Math.min(this.tilesY - 1, (int) Math.floor((maxY - this.originY) / this.tileSize));
+        for (int tileY = firstY; tileY <= lastY; tileY++) {
+            for (int tileX = firstX; tileX <= lastX; tileX++) {
+                tiles.add(tileY * this.tilesX + tileX);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Copy the given tiles to the stream. Every tile is preceded by its index and its length in bytes (int).
+     *
+     * @param tiles the indexes of the tiles
+     * @param out   the stream to write to, it is not closed
+     * @throws IOException if the file can not be read or the stream can not be written
+     */
+    public void write(final List<Integer> tiles, final OutputStream out) throws IOException {
+        DataOutputStream prefix = new DataOutputStream(out);
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = new FileInputStream(this.file).getChannel()) {
+            for (int tile : tiles) {
+                long position = this.offsets[tile];
+                long length = this.offsets[tile + 1] - position;
+                prefix.writeInt(tile);
+                prefix.writeInt((int) length);
+                while (length > 0) {
+                    long sent = channel.transferTo(position, length, target);
+                    position += sent;
+                    length -= sent;
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Tells whether the given tile index exists.
+     *
+     * @param tile the index of the tile
+     * @return     boolean whether the tile exists
+     */
+    public boolean hasTile(final int tile) {
+        return tile >= 0 && tile < this.tileCounts.length;
+    }
+
+    /**
+     * Get the amount of particles of a tile.
+     *
+     * @param tile the index of the tile
+     * @return     the particle count
+     */
+    public int getParticleCount(final int tile) {
+        return this.tileCounts[tile];
+    }
+
+    /**
+     * Get the size of a tile.
+     *
+     * @return the tile size in nm
+     */
+    public float getTileSize() {
+        return this.tileSize;
+    }
+
+    /**
+     * Get the x of the corner of the first tile.
+     *
+     * @return the x in nm
+     */
+    public float getOriginX() {
+        return this.originX;
+    }
+
+    /**
+     * Get the y of the corner of the first tile.
+     *
+     * @return the y in nm
+     */
+    public float getOriginY() {
+        return this.originY;
+    }
+
+    /**
+     * Get the amount of tiles along x.
+     *
+     * @return the amount of tiles
+     */
+    public int getTilesX() {
+        return this.tilesX;
+    }
+
+    /**
+     * Get the amount of tiles along y.
+     *
+     * @return the amount of tiles
+     */
+    public int getTilesY() {
+        return this.tilesY;
+    }
+
+    /**
+     * Get the x of the center of the protein, or of the system if there is no protein.
+     *
+     * @return the x in nm
+     */
+    public float getCenterX() {
+        return this.centerX;
+    }
+
+    /**
+     * Get the y of the center of the protein, or of the system if there is no protein.
+     *
+     * @return the y in nm
+     */
+    public float getCenterY() {
+        return this.centerY;
+    }
+}
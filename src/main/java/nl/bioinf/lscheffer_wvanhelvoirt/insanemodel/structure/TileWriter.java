@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+package nl.bioinf.lscheffer_wvanhelvoirt.insanemodel.structure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * This class partitions a ParticleSystem into square tiles on the x/y plane and writes them into one tile file, so
+ * the viewer can load the system region by region (see TileFile and the TileServlet). A molecule is never split: it
+ * goes into the tile of its first particle.
+ *
+ * All numbers are big endian. The file consists of:
+ *
+ * - the magic bytes 'IST2'
+ * - the tile size, and the x and y of the corner of the first tile (float, nm)
+ * - the amount of tiles along x and along y (int), tile (i, j) has index j * tilesX + i
+ * - the x and y of the center of the protein, or of the system if there is no protein (float, nm)
+ * - the amount of particles of every tile (int)
+ * - the position in the file of every tile, followed by the length of the file (long)
+ * - every tile in the binary structure format of BinaryStructureWriter
+ *
+ * @author Wout van Helvoirt
+ * @version 1.0.0
+ */
+public class TileWriter {
+    /** The magic bytes at the start of the file, including the version of the format. */
+    public static final String MAGIC = "IST2";
+    /** The size of a tile in nm. */
+    public static final float TILE_SIZE = 5.0f;
+
+    /**
+     * Write the tiles of the given system to the file.
+     *
+     * @param system the particles to write
+     * @param file   the tile file to write
+     * @throws IOException if the file can not be written
+     */
+    public void write(final ParticleSystem system, final File file) throws IOException {
+        int count = system.size();
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, system.getX(i));
+            minY = Math.min(minY, system.getY(i));
+            maxX = Math.max(maxX, system.getX(i));
+            maxY = Math.max(maxY, system.getY(i));
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        int tilesX = (int) ((maxX - minX) / TILE_SIZE) + 1;
+        int tilesY = (int) ((maxY - minY) / TILE_SIZE) + 1;
+        float[] center = TileWriter.getCenter(system, (minX + maxX) / 2, (minY + maxY) / 2);
+
+        // sort the particles by tile (a counting sort), molecules stay in the tile of their first particle
+        int[] tiles = new int[count];
+        int[] tileStarts = new int[tilesX * tilesY + 1];
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && system.getResidueNumber(i) == system.getResidueNumber(i - 1)
+                    && system.getResidueNameIndex(i) == system.getResidueNameIndex(i - 1)) {
+                tiles[i] = tiles[i - 1];
+            } else {
+                int tileX = Math.min(tilesX - 1, (int) ((system.getX(i) - minX) / TILE_SIZE));
+                int tileY = Math.min(tilesY - 1, (int) ((system.getY(i) - minY) / TILE_SIZE));
+                tiles[i] = tileY * tilesX + tileX;
+            }
+            tileStarts[tiles[i] + 1]++;
+        }
+        int[] tileCounts = new int[tilesX * tilesY];
+        for (int tile = 0; tile < tileCounts.length; tile++) {
+            tileCounts[tile] = tileStarts[tile + 1];
+            tileStarts[tile + 1] += tileStarts[tile];
+        }
+        int[] sorted = new int[count];
+        int[] next = Arrays.copyOf(tileStarts, tileCounts.length);
+        for (int i = 0; i < count; i++) {
+            sorted[next[tiles[i]]++] = i;
+        }
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+            long headerLength = MAGIC.length() + 3 * 4 + 2 * 4 + 2 * 4 + 4L * tileCounts.length
+                    + 8L * (tileCounts.length + 1);
+            long[] offsets = new long[tileCounts.length + 1];
+            offsets[0] = headerLength;
+            out.seek(headerLength);
+            BinaryStructureWriter writer = new BinaryStructureWriter();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+            for (int tile = 0; tile < tileCounts.length; tile++) {
+                buffer.reset();
+                writer.write(system.subset(Arrays.copyOfRange(sorted, tileStarts[tile], tileStarts[tile + 1])),
+                        buffer);
+                out.write(buffer.toByteArray());
+                offsets[tile + 1] = offsets[tile] + buffer.size();
+            }
+
+            // the header is written last, when the position of every tile is known
+            ByteArrayOutputStream header = new ByteArrayOutputStream((int) headerLength);
+            DataOutputStream headerData = new DataOutputStream(header);
+            headerData.writeBytes(MAGIC);
+            headerData.writeFloat(TILE_SIZE);
+            headerData.writeFloat(minX);
+            headerData.writeFloat(minY);
+            headerData.writeInt(tilesX);
+            headerData.writeInt(tilesY);
+            headerData.writeFloat(center[0]);
+            headerData.writeFloat(center[1]);
+            for (int tileCount : tileCounts) {
+                headerData.writeInt(tileCount);
+            }
+            for (long offset : offsets) {
+                headerData.writeLong(offset);
+            }
+            out.seek(0);
+            out.write(header.toByteArray());
+        }
+    }
+
+    /**
+     * Get the x and y of the center of the protein, the region most users want to look at first.
+     *
+     * @param system  the system
+     * @param centerX the x of the center of the system, used if there is no protein
+     * @param centerY the y of the center of the system, used if there is no protein
+     * @return        the x and y of the center in nm
+     */
+    private static float[] getCenter(final ParticleSystem system, final float centerX, final float centerY) {
+        boolean[] isAminoAcid = new boolean[system.getNames().size()];
+        for (int i = 0; i < isAminoAcid.length; i++) {
+            isAminoAcid[i] = LevelOfDetail.AMINO_ACIDS.contains(system.getNames().get(i));
+        }
+        double sumX = 0;
+        double sumY = 0;
+        int proteinCount = 0;
+        for (int i = 0; i < system.size(); i++) {
+            if (isAminoAcid[system.getResidueNameIndex(i)]) {
+                sumX += system.getX(i);
+                sumY += system.getY(i);
+                proteinCount++;
+            }
+        }
+        if (proteinCount == 0) {
+            return new float[] {centerX, centerY};
+        }
+        return new float[] {(float) (sumX / proteinCount), (float) (sumY / proteinCount)};
+    }
+}
@@ -754,6 +754,7 @@ Input/output related options
     ("-f",      Option(tm.append,   1,        None, "Input GRO or PDB file 1: Protein")),
     ("-o",      Option(str,         1,        None, "Output GRO file: Membrane with Protein")),
     ("-p",      Option(str,         1,        None, "Optional rudimentary topology file")),
+    ("-seed",   Option(int,         1,        None, "Seed for the random number generator, the same seed gives the same output")),
     """
 Periodic boundary conditions 
 If -d is given, set up PBC according to -pbc such that no periodic
@@ -842,6 +843,8 @@ while args:
     ar = args.pop(0)
     options[ar].setvalue([args.pop(0) for i in range(options[ar].num)])
 
+# Seed the random number generator once, from the current time if no seed is given
+random.seed(options["-seed"].value)
 
 # Read in the structures (if any)    
 tm    = [ Structure(i) for i in tm ]
@@ -1434,7 +1437,6 @@ if lipL:
 
     # Set the XY coordinates
     # To randomize the lipids we add a random number which is used for sorting
-    random.seed()
     upper, lower = [], []
     for i in xrange(up_lipids_x):
         for j in xrange(up_lipids_y):
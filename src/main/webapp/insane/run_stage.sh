@@ -0,0 +1,36 @@
+#!/bin/sh
+#
+# Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+# All rights reserved.
+#
+# Runs one simulation stage for the web application.
+#
+# Usage: run_stage.sh <pid file> <cpu seconds> <niceness> <program> [arguments...]
+#
+# The program is started as leader of a new session and process group, and the id of that group is written to the
+# pid file. The web application can then stop the program together with every process it started (for instance the
+# GROMACS and dssp processes of martinate.sh) with: kill -TERM -- -<pid>
+# If cpu seconds is larger than 0, every process of the stage is limited to that amount of cpu time.
+# If niceness is larger than 0, the stage runs with that niceness, so it gets the cpu after the normal stages.
+
+if [ $# -lt 4 ]; then
+    echo "Usage: $0 <pid file> <cpu seconds> <niceness> <program> [arguments...]" >&2
+    exit 2
+fi
+
+PIDFILE=$1
+CPUSECONDS=$2
+NICENESS=$3
+shift 3
+
+if [ "$CPUSECONDS" -gt 0 ]; then
+    ulimit -t "$CPUSECONDS"
+fi
+
+if [ "$NICENESS" -gt 0 ]; then
+    renice -n "$NICENESS" -p $$ > /dev/null
+fi
+
+# The inner shell is the session leader, so its pid is also the process group id of everything it starts.
+# setsid only has to fork if this shell happens to be a process group leader, -w then passes on the exit value.
+exec setsid -w /bin/sh -c 'echo $$ > "$0"; exec "$@"' "$PIDFILE" "$@"
@@ -0,0 +1,138 @@
+#!/usr/bin/env python
+#
+# Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+# All rights reserved.
+#
+"""
+Long-lived worker that runs insane.py or martinize.py for the web application, without starting a new Python
+interpreter and parsing the script for every request.
+
+Usage: worker.py <script>
+
+The script is compiled once when the worker starts (martinize.py includes its force fields, so they are compiled
+with it), and the modules it imports stay loaded between jobs. The worker reads jobs from stdin, one JSON list per
+line: the argument list of the script, starting with the path of the script itself. Every job runs the compiled
+script as if it was started as: script arguments...
+
+All output of a job (stdout and stderr) is written to stderr. The worker writes its own messages to stderr as well,
+on separate lines starting with MARKER, so they arrive in order with the output of the job:
+
+    MARKER READY                         the worker is ready for its first job
+    MARKER DONE <exit value> <max rss>   the job is done, max rss is the peak memory use in kilobytes
+
+Works with Python 2 and Python 3, the worker is started with the interpreter of the script. The Jython engine of
+the web application imports this module and calls run() itself, without the stdin loop.
+"""
+
+import gc
+import io
+import json
+import os
+import sys
+import traceback
+
+try:
+    import resource
+except ImportError:
+    # Jython has no resource module, its memory use is that of the web application
+    resource = None
+
+MARKER = "@@insanemodel-worker"
+
+
+def say(message):
+    """Write a worker message to stderr, on a line of its own."""
+    sys.__stderr__.write("\n%s %s\n" % (MARKER, message))
+    sys.__stderr__.flush()
+
+
+def is_file(value):
+    """Tells whether the value is a file opened by the script."""
+    if value in (sys.stdin, sys.__stdin__, sys.stdout, sys.__stdout__, sys.stderr, sys.__stderr__):
+        return False
+    if isinstance(value, io.IOBase):
+        return True
+    try:
+        return isinstance(value, file)
+    except NameError:
+        return False
+
+
+def max_rss():
+    """Get the peak memory use of this worker in kilobytes, 0 if it is not known."""
+    if resource is None:
+        return 0
+    return resource.getrusage(resource.RUSAGE_SELF).ru_maxrss
+
+
+def run(code, argv):
+    """Run the compiled script with the given arguments, and return its exit value."""
+    scope = {"__name__": "__main__", "__file__": argv[0], "__builtins__": __builtins__}
+    sys.argv = list(argv)
+    sys.stdout = sys.stderr
+    exit_value = 0
+    try:
+        exec(code, scope)
+    except SystemExit as ex:
+        if ex.code is None:
+            exit_value = 0
+        elif isinstance(ex.code, int):
+            exit_value = ex.code
+        else:
+            sys.stderr.write("%s\n" % ex.code)
+            exit_value = 1
+    except BaseException:
+        traceback.print_exc()
+        exit_value = 1
+    finally:
+        sys.stdout.flush()
+        sys.stdout = sys.__stdout__
+        # the scripts do not always close their output files, a new process would have done that on exit
+        for value in list(scope.values()):
+            if is_file(value):
+                try:
+                    value.close()
+                except Exception:
+                    pass
+        scope.clear()
+        gc.collect()
+    return exit_value
+
+
+def main(args):
+    if len(args) != 1:
+        sys.stderr.write("Usage: worker.py <script>\n")
+        return 2
+
+    script = os.path.abspath(args[0])
+    # the script imports its modules from its own folder
+    sys.path.insert(0, os.path.dirname(script))
+    with open(script) as handle:
+        code = compile(handle.read(), script, "exec")
+
+    say("READY")
+    while True:
+        line = sys.stdin.readline()
+        if not line:
+            # the web application closed stdin: stop
+            return 0
+        line = line.strip()
+        if not line:
+            continue
+        try:
+            argv = json.loads(line)
+        except ValueError:
+            say("DONE 2 %d" % max_rss())
+            continue
+        # Python 2 reads the arguments as unicode, the scripts expect plain strings
+        argv = [str(argument) for argument in argv]
+        if not argv or os.path.abspath(argv[0]) != script:
+            sys.stderr.write("This worker only runs %s\n" % script)
+            say("DONE 2 %d" % max_rss())
+            continue
+        exit_value = run(code, argv)
+        say("DONE %d %d" % (exit_value, max_rss()))
+
+
+if __name__ == "__main__":
+    sys.exit(main(sys.argv[1:]))
@@ -33,6 +33,14 @@
         $scope.submitDisabled = false;
         $scope.downloadButton = false;
         $scope.showSimulation = false;
+        $scope.activeJobId = null;
+        $scope.tileSet = null;
+        $scope.tilesLoading = false;
+        /*
+         * Identifies this page to the server, a new job replaces the unfinished
+         * job of the same page.
+         */
+        $scope.clientId = Math.random().toString(36).substring(2) + Date.now().toString(36);
 
         /*
          * Retrieve the date from our external JSON file containing all settings.
@@ -101,13 +109,14 @@
         };
 
         /*
-         * createView function, called by update function. This function sends
-         * master array with protein upload file to servlet.
+         * createView function, called by update function. This function submits
+         * master array with protein upload file as a new job, and waits for the
+         * job to be done.
          */
         $scope.createView = function() {
             $http({
                 method: 'POST',
-                url: 'InsaneModelServlet',
+                url: 'jobs',
                 headers: {'Content-Type': undefined},
                 /*
                  * This method will change how the data is sent to the server.
@@ -128,6 +137,12 @@
                      * Append the string version of the JSON master array
                      */
                     formData.append("master", JSON.stringify(data.master));
+
+                    /*
+                     * Add the id of this page, so the server can cancel the
+                     * previous job of this page.
+                     */
+                    formData.append("clientId", data.clientId);
                     
                     /*
                      * Add boolean value whether there was a file given.
@@ -146,44 +161,207 @@
                  * Create an object that contains the model and files which will
                  * be transformed in the above transformRequest method.
                  */
-                data: { master: $scope.master, proteinFile: $scope.file.insane_f }
+                data: { master: $scope.master, proteinFile: $scope.file.insane_f, clientId: $scope.clientId }
             }).success(function (data, status, headers, config) {
                 /*
-                 * Succesfully obtained date from servlet, load into Jmol script.
+                 * The job has been accepted, wait for it to be done. The user
+                 * may already submit a new job, which replaces this one.
                  */
-                console.log("Successfully obtained data from server.");
-                if (data.display){
-                    jmol_applet_insane._loadFile(data.outfile);
-                    Jmol.script(jmol_applet_insane, 'moveto 0.0 bottom');
-                    $scope.showSimulation = true;
+                $scope.option.general.submit = "Waiting...";
+                $scope.submitDisabled = false;
+                $scope.activeJobId = data.id;
+                $scope.followProgress(data.id);
+                $scope.waitForJob(data.id);
+            }).error(function (data, status, headers, config) {
+                $scope.showFailure(status, headers);
+                $scope.enableSubmit();
+            });
+        };
+
+        /*
+         * waitForJob function, called by createView function. This function
+         * long-polls the status of the job until it is done, and then gets
+         * the result.
+         */
+        $scope.waitForJob = function(jobId) {
+            $http.get('jobs/' + jobId, {params: {wait: 30}}).success(function (data, status, headers, config) {
+                if (jobId !== $scope.activeJobId) {
+                    /*
+                     * This job has been replaced by a newer one.
+                     */
+                    return;
+                }
+                if (data.status === 'QUEUED' || data.status === 'RUNNING') {
+                    if (data.status === 'QUEUED') {
+                        $scope.option.general.submit = "Queued...";
+                    }
+                    $scope.waitForJob(jobId);
                 } else {
-                    jmol_applet_insane._loadFile("no_output_available");
-                    $scope.showSimulation = false;
+                    $scope.activeJobId = null;
+                    $http.get('jobs/' + jobId + '/result').success(function (data, status, headers, config) {
+                        $scope.showResult(data);
+                    }).error(function (data, status, headers, config) {
+                        $scope.showFailure(status, headers);
+                    }).finally(function (data, status, headers, config) {
+                        $scope.enableSubmit();
+                    });
                 }
-                
+            }).error(function (data, status, headers, config) {
+                if (jobId !== $scope.activeJobId) {
+                    return;
+                }
+                $scope.activeJobId = null;
+                $scope.showFailure(status, headers);
+                $scope.enableSubmit();
+            });
+        };
 
-                if (data.download){
-                    $scope.downloadButton = true;
-                    $scope.outFilePath = data.outfileZip;
-                } else{
-                    $scope.downloadButton = false;
+        /*
+         * Cancel the running job when the page is closed, so the server stops
+         * its simulation and deletes its files right away.
+         */
+        window.addEventListener('pagehide', function() {
+            if ($scope.activeJobId !== null && typeof fetch !== 'undefined') {
+                fetch('jobs/' + $scope.activeJobId, {method: 'DELETE', keepalive: true});
+            }
+        });
+
+        /*
+         * followProgress function, called by createView function. This function
+         * listens to the events of the job, and shows the current stage and
+         * progress on the submit button.
+         */
+        $scope.followProgress = function(jobId) {
+            if (typeof EventSource === 'undefined') {
+                return;
+            }
+            var source = new EventSource('jobs/' + jobId + '/events');
+            var showProgress = function(event) {
+                if (jobId !== $scope.activeJobId) {
+                    source.close();
+                    return;
                 }
+                var data = JSON.parse(event.data);
+                $scope.$apply(function() {
+                    if (data.progress >= 0 && data.progress < 1) {
+                        $scope.option.general.submit = data.stage + " " + Math.round(data.progress * 100) + "%";
+                    }
+                });
+            };
+            source.addEventListener('stage', showProgress);
+            source.addEventListener('progress', showProgress);
+            source.addEventListener('status', function(event) {
+                var data = JSON.parse(event.data);
+                if (data.message !== 'QUEUED' && data.message !== 'RUNNING') {
+                    /*
+                     * The job is done, do not let the EventSource reconnect.
+                     */
+                    source.close();
+                }
+            });
+            source.onerror = function() {
+                if (source.readyState === EventSource.CLOSED) {
+                    source.close();
+                }
+            };
+        };
 
-                $scope.warningMessages = JSON.parse(data.errorMessages);
-            }).error(function (data, status, headers, config) {
+        /*
+         * hasMoreTiles function, tells if more of a large model can be shown in full detail.
+         */
+        $scope.hasMoreTiles = function() {
+            return $scope.tileSet !== null && TileLoader.hasMore($scope.tileSet);
+        };
+
+        /*
+         * loadTiles function, shows the region around the protein in full detail the
+         * first time, and the neighbouring region every next time.
+         */
+        $scope.loadTiles = function() {
+            $scope.tilesLoading = true;
+            TileLoader.loadMore($scope.tileSet, function(loaded) {
+                if (!loaded) {
+                    console.log("Could not load more of the model.");
+                }
+                $scope.$apply(function() {
+                    $scope.tilesLoading = false;
+                });
+            });
+        };
+
+        /*
+         * showResult function, loads the result of a job into the Jmol viewer
+         * and shows the download button and warnings.
+         */
+        $scope.showResult = function(data) {
+            /*
+             * Succesfully obtained date from servlet, load into Jmol script.
+             */
+            console.log("Successfully obtained data from server.");
+            if (data.display){
+                jmol_applet_insane._loadFile(data.outfile);
+                Jmol.script(jmol_applet_insane, 'moveto 0.0 bottom');
+                $scope.showSimulation = true;
+            } else {
+                jmol_applet_insane._loadFile("no_output_available");
+                $scope.showSimulation = false;
+            }
+
+            /*
+             * A model that is too big to display can be shown region by region in full detail.
+             */
+            $scope.tileSet = null;
+            if (data.display && data.tiles && TileLoader.isSupported()) {
+                TileLoader.open(jmol_applet_insane, data.tiles, function(tileSet) {
+                    $scope.$apply(function() {
+                        $scope.tileSet = tileSet;
+                    });
+                });
+            }
+            
+
+            if (data.download){
+                $scope.downloadButton = true;
+                $scope.outFilePath = data.outfileZip;
+            } else{
+                $scope.downloadButton = false;
+            }
+
+            /*
+             * The seed insane ran with, giving it as seed makes the same model again.
+             */
+            $scope.seed = data.seed;
+
+            $scope.warningMessages = JSON.parse(data.errorMessages);
+        };
+
+        /*
+         * showFailure function, shows a warning when the server could not be
+         * reached or is busy.
+         */
+        $scope.showFailure = function(status, headers) {
+            /*
+             * Something went wrong, no data.
+             */
+            console.log("Failed to obtain data from server");
+            if (status === 503 && headers('Retry-After')) {
                 /*
-                 * Something went wrong, no data.
+                 * The server is busy, tell the user when to try again.
                  */
-                console.log("Failed to obtain data from server");
+                $scope.warningMessages = ["The server is busy, please try again in "
+                    + headers('Retry-After') + " seconds."];
+            } else {
                 $scope.warningMessages = ["Failed to obtain data from the server, please try again."];
-            }).finally(function (data, status, headers, config) {
-                /*
-                 * Always enable the submit button. Users are now able to submit
-                 * new request.
-                 */
-                $scope.submitDisabled = false;
-                $scope.option.general.submit = "Update View";
-            });
+            }
+        };
+
+        /*
+         * Always enable the submit button when a job is done. Users are now
+         * able to submit new request.
+         */
+        $scope.enableSubmit = function() {
+            $scope.submitDisabled = false;
+            $scope.option.general.submit = "Update View";
         };
 
         /*
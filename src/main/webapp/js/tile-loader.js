@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2016 Wout van Helvoirt [w.van.helvoirt@st.hanze.nl] & Lonneke Scheffer [l.scheffer@st.hanze.nl]
+ * All rights reserved.
+ *
+ */
+
+/*
+ * Javascript for loading a large model region by region into the Jmol viewer, from the tiles served by the
+ * TileServlet (tiles/{id}). The region around the protein is loaded first, every next call loads the
+ * neighbouring tiles further out, until all tiles are loaded or the viewer has as many particles as it may show.
+ * Every tile is in the binary structure format (see BinaryStructureWriter.java), it is decoded with a DataView and
+ * turned into .gro text, the only kind of model the viewer takes.
+ */
+var TileLoader = (function() {
+    /*
+     * The part of the particle budget of the viewer loaded by one call of loadMore.
+     */
+    var STEP_PART = 4;
+    var MAGIC = 'ISB2';
+    /*
+     * The step of the coordinates in nm, the precision of a .gro file.
+     */
+    var STEP = 0.001;
+
+    /*
+     * Check if this browser can download and read binary files.
+     */
+    function isSupported() {
+        return typeof DataView !== 'undefined' && typeof ArrayBuffer !== 'undefined'
+                && 'responseType' in new XMLHttpRequest();
+    }
+
+    /*
+     * Pad a string with spaces on the left (right = false) or right (right = true) up to the given width.
+     */
+    function pad(text, width, right) {
+        while (text.length < width) {
+            text = right ? text + ' ' : ' ' + text;
+        }
+        return text;
+    }
+
+    /*
+     * Format a coordinate like the %8.3f of a .gro file.
+     */
+    function formatCoordinate(value) {
+        return pad(value.toFixed(3), 8, false);
+    }
+
+    /*
+     * Read a string written by DataOutputStream.writeUTF, returns the string and the offset after it.
+     */
+    function readString(view, offset) {
+        var length = view.getUint16(offset);
+        var chars = [];
+        for (var i = 0; i < length; i++) {
+            chars.push(String.fromCharCode(view.getUint8(offset + 2 + i)));
+        }
+        return {value: decodeURIComponent(escape(chars.join(''))), offset: offset + 2 + length};
+    }
+
+    /*
+     * Decode one tile from the DataView: the title, the box and a .gro line for every particle.
+     * Every particle line is exactly 44 characters, as the Jmol .gro reader requires. The atoms are numbered
+     * from firstAtom on.
+     */
+    function decode(view, firstAtom) {
+        var offset = 0;
+        var i;
+        for (i = 0; i < MAGIC.length; i++) {
+            if (view.getUint8(i) !== MAGIC.charCodeAt(i)) {
+                throw new Error('Not a binary structure.');
+            }
+        }
+        offset += MAGIC.length;
+        var count = view.getInt32(offset);
+        offset += 4;
+        var boxLength = view.getUint8(offset);
+        offset += 1;
+        var box = [];
+        for (i = 0; i < boxLength; i++, offset += 4) {
+            box.push(view.getFloat32(offset));
+        }
+        var origin = [view.getFloat32(offset), view.getFloat32(offset + 4), view.getFloat32(offset + 8)];
+        offset += 12;
+
+        var string = readString(view, offset);
+        var title = string.value;
+        offset = string.offset;
+        var nameCount = view.getUint16(offset);
+        offset += 2;
+        var residueNames = [];
+        var atomNames = [];
+        for (i = 0; i < nameCount; i++) {
+            string = readString(view, offset);
+            residueNames.push(pad(string.value, 5, true));
+            atomNames.push(pad(string.value, 5, false));
+            offset = string.offset;
+        }
+
+        var residueNameOffset = offset;
+        var atomNameOffset = residueNameOffset + 2 * count;
+        var residueNumberOffset = atomNameOffset + 2 * count;
+        var coordinateOffset = residueNumberOffset + 4 * count;
+
+        var lines = new Array(count);
+        for (i = 0; i < count; i++) {
+            var q = coordinateOffset + 12 * i;
+            lines[i] = pad(String(view.getInt32(residueNumberOffset + 4 * i) % 100000), 5, false)
+                    + residueNames[view.getUint16(residueNameOffset + 2 * i)]
+                    + atomNames[view.getUint16(atomNameOffset + 2 * i)]
+                    + pad(String((firstAtom + i) % 100000), 5, false)
+                    + formatCoordinate(origin[0] + view.getInt32(q) * STEP)
+                    + formatCoordinate(origin[1] + view.getInt32(q + 4) * STEP)
+                    + formatCoordinate(origin[2] + view.getInt32(q + 8) * STEP);
+        }
+        return {title: title, box: box, lines: lines};
+    }
+
+    /*
+     * Put together the text of a .gro file.
+     */
+    function formatGro(title, lines, box) {
+        return title + '\n' + pad(String(lines.length), 5, false) + '\n' + lines.join('\n') + '\n'
+                + box.map(function(value) {
+                    return pad(value.toFixed(5), 10, false);
+                }).join('') + '\n';
+    }
+
+    /*
+     * Get the layout of the tiles, and call back with a tile set (null if the layout could not be loaded).
+     */
+    function open(applet, url, callback) {
+        var request = new XMLHttpRequest();
+        request.open('GET', url, true);
+        request.onload = function() {
+            if (request.status !== 200) {
+                callback(null);
+                return;
+            }
+            var layout = JSON.parse(request.responseText);
+            var order = [];
+            for (var tile = 0; tile < layout.counts.length; tile++) {
+                if (layout.counts[tile] > 0) {
+                    order.push(tile);
+                }
+            }
+            // the tiles nearest to the protein first, so the next tiles are always neighbours of loaded tiles
+            var distance = function(tile) {
+                var dx = layout.originX + ((tile % layout.tilesX) + 0.5) * layout.tileSize - layout.centerX;
+                var dy = layout.originY + (Math.floor(tile / layout.tilesX) + 0.5) * layout.tileSize - layout.centerY;
+                return dx * dx + dy * dy;
+            };
+            order.sort(function(a, b) {
+                return distance(a) - distance(b);
+            });
+            callback({applet: applet, url: url, layout: layout, order: order, next: 0, particles: 0});
+        };
+        request.onerror = function() {
+            callback(null);
+        };
+        request.send();
+    }
+
+    /*
+     * Check if there are tiles left that the viewer can show.
+     */
+    function hasMore(tileSet) {
+        return tileSet.next < tileSet.order.length
+                && tileSet.particles + tileSet.layout.counts[tileSet.order[tileSet.next]]
+                <= tileSet.layout.maxParticles;
+    }
+
+    /*
+     * Load the next tiles into the viewer, the first call replaces the model in the viewer and the next calls
+     * append to it. Calls back with a boolean whether the tiles have been loaded.
+     */
+    function loadMore(tileSet, callback) {
+        var layout = tileSet.layout;
+        var budget = Math.min(Math.ceil(layout.maxParticles / STEP_PART), layout.maxParticles - tileSet.particles);
+        var tiles = [];
+        var particles = 0;
+        var next = tileSet.next;
+        while (next < tileSet.order.length) {
+            var count = layout.counts[tileSet.order[next]];
+            if (particles + count > budget && tiles.length > 0) {
+                break;
+            }
+            tiles.push(tileSet.order[next]);
+            particles += count;
+            next++;
+        }
+        if (tiles.length === 0 || tileSet.particles + particles > layout.maxParticles) {
+            callback(false);
+            return;
+        }
+
+        var request = new XMLHttpRequest();
+        request.open('GET', tileSet.url + '/particles?tiles=' + tiles.join(','), true);
+        request.responseType = 'arraybuffer';
+        request.onload = function() {
+            if (request.status !== 200) {
+                callback(false);
+                return;
+            }
+            var buffer = request.response;
+            var view = new DataView(buffer);
+            var offset = 0;
+            var title = '';
+            var box = [];
+            var lines = [];
+            try {
+                while (offset < buffer.byteLength) {
+                    var length = view.getInt32(offset + 4);
+                    var structure = decode(new DataView(buffer, offset + 8, length),
+                            tileSet.particles + lines.length + 1);
+                    title = structure.title;
+                    box = structure.box;
+                    Array.prototype.push.apply(lines, structure.lines);
+                    offset += 8 + length;
+                }
+            } catch (error) {
+                callback(false);
+                return;
+            }
+            var groText = formatGro(title, lines, box);
+            if (tileSet.particles === 0) {
+                tileSet.applet.__loadModel(groText, 'moveto 0.0 bottom');
+            } else {
+                tileSet.applet._loadMolData(groText, 'frame all', true);
+            }
+            tileSet.particles += lines.length;
+            tileSet.next = next;
+            callback(true);
+        };
+        request.onerror = function() {
+            callback(false);
+        };
+        request.send();
+    }
+
+    return {isSupported: isSupported, open: open, hasMore: hasMore, loadMore: loadMore};
+})();